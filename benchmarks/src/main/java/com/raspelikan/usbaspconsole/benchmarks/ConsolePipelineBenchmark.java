@@ -0,0 +1,202 @@
+package com.raspelikan.usbaspconsole.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.raspelikan.usbaspconsole.ByteRingBuffer;
+import com.raspelikan.usbaspconsole.CharsetAlignedOutputStream;
+import com.raspelikan.usbaspconsole.FrameListener;
+import com.raspelikan.usbaspconsole.HexDumpFormatter;
+import com.raspelikan.usbaspconsole.SlipFrameDecoder;
+
+/**
+ * The path of the bytes from the device to the console as done by
+ * UartReader and ConsoleLogger: read from the device, pass through the
+ * ring buffer, decode characters (or format a hex dump or decode frames)
+ * and write to the console stream, flushed every FLUSH_SIZE bytes. The
+ * console itself is replaced by a stream counting the bytes since
+ * IOConsole needs a running workbench. One operation processes one read
+ * of BYTES_PER_READ bytes.
+ * 
+ * @author RasPelikan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsolePipelineBenchmark {
+	
+	// the same as ConsoleLogger and UartReader use
+	private static final int BYTES_PER_READ = 64;
+	private static final int BUFFER_CAPACITY = 64 * 1024;
+	private static final int WRITE_BUFFER_SIZE = 1024;
+	private static final int FLUSH_SIZE = 4096;
+	
+	/**
+	 * Replaces the console
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		
+		long bytes;
+		
+		@Override
+		public void write(final int b) {
+			
+			++bytes;
+			
+		}
+		
+		@Override
+		public void write(final byte[] b, final int offset, final int length) {
+			
+			bytes += length;
+			
+		}
+		
+	}
+	
+	/** the console's charset, "raw" for bytes shown one char each */
+	@Param({ "UTF-8", "ISO-8859-1", "raw" })
+	private String charset;
+	
+	/** TEXT, HEX (hex dump) or SLIP (frames shown as hex dump) */
+	@Param({ "TEXT", "HEX", "SLIP" })
+	private String displayMode;
+	
+	private StubDevice device;
+	private ByteRingBuffer buffer;
+	private CountingOutputStream console;
+	private CharsetAlignedOutputStream consoleStream;
+	private HexDumpFormatter hexDump;
+	private SlipFrameDecoder frameDecoder;
+	private FrameListener frameListener;
+	
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(BYTES_PER_READ);
+	private final byte[] byteBuffer = new byte[WRITE_BUFFER_SIZE];
+	private final byte[] dumpBuffer = new byte[4 * WRITE_BUFFER_SIZE];
+	private final ByteBuffer chunk = ByteBuffer.wrap(byteBuffer);
+	private int unflushedBytes;
+	
+	@Setup
+	public void setup() {
+		
+		final boolean frames = "SLIP".equals(displayMode);
+		device = new StubDevice(frames ? StubDevice.slipPattern() : StubDevice.textPattern(),
+				BYTES_PER_READ);
+		buffer = new ByteRingBuffer(BUFFER_CAPACITY, ByteRingBuffer.OverflowPolicy.DROP_OLDEST,
+				BUFFER_CAPACITY / 64);
+		
+		console = new CountingOutputStream();
+		consoleStream = new CharsetAlignedOutputStream(console,
+				"raw".equals(charset) ? null : Charset.forName(charset),
+				FLUSH_SIZE + WRITE_BUFFER_SIZE);
+		
+		if (!"TEXT".equals(displayMode)) {
+			hexDump = new HexDumpFormatter(true);
+		}
+		if (frames) {
+			frameDecoder = new SlipFrameDecoder();
+			frameListener = new FrameListener() {
+				@Override
+				public void frameDecoded(final ByteBuffer frame, final boolean crcValid) {
+					writeFrame(frame);
+				}
+			};
+		}
+		
+	}
+	
+	@Benchmark
+	public long readAndWrite() throws IOException {
+		
+		// UartReader
+		readBuffer.clear();
+		final int numberOfBytesAvailable = device.read(readBuffer);
+		buffer.write(readBuffer.array(), 0, numberOfBytesAvailable, System.nanoTime());
+		
+		// ConsoleLogger
+		final int numberOfBytesRead = buffer.read(byteBuffer, 0, byteBuffer.length);
+		if (frameDecoder != null) {
+			chunk.clear();
+			chunk.limit(numberOfBytesRead);
+			frameDecoder.decode(chunk, frameListener);
+		} else if (hexDump != null) {
+			writeHexDump(numberOfBytesRead);
+		} else {
+			consoleStream.write(byteBuffer, 0, numberOfBytesRead);
+		}
+		
+		unflushedBytes += numberOfBytesRead;
+		if (unflushedBytes >= FLUSH_SIZE) {
+			consoleStream.flush();
+			unflushedBytes = 0;
+		}
+		
+		return console.bytes;
+		
+	}
+	
+	private void writeHexDump(final int length) throws IOException {
+		
+		int position = 0;
+		for (int i = 0; i < length; ++i) {
+			
+			if (position > dumpBuffer.length - HexDumpFormatter.MAX_BYTES_PER_FORMAT) {
+				consoleStream.write(dumpBuffer, 0, position);
+				position = 0;
+			}
+			position = hexDump.format(byteBuffer[i], dumpBuffer, position);
+			
+		}
+		
+		consoleStream.write(dumpBuffer, 0, position);
+		
+	}
+	
+	private void writeFrame(final ByteBuffer frame) {
+		
+		int position = 0;
+		while (frame.hasRemaining()) {
+			
+			if (position > dumpBuffer.length - HexDumpFormatter.MAX_BYTES_PER_FORMAT) {
+				write(position);
+				position = 0;
+			}
+			position = hexDump.format(frame.get(), dumpBuffer, position);
+			
+		}
+		position = hexDump.endRow(dumpBuffer, position);
+		hexDump.reset();
+		
+		write(position);
+		
+	}
+	
+	private void write(final int length) {
+		
+		try {
+			consoleStream.write(dumpBuffer, 0, length);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,64 @@
+package com.raspelikan.usbaspconsole.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The USBaspDevice read path: getString(), which allocates a buffer, a
+ * StringBuffer and a String on every call, compared to read() into a
+ * buffer reused as done by UartReader. One operation reads bytesPerRead
+ * bytes.
+ * 
+ * @author RasPelikan
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadPathBenchmark {
+	
+	@Param({ "8", "64", "256" })
+	private int bytesPerRead;
+	
+	private StubDevice device;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+	
+	@Setup
+	public void setup() {
+		
+		device = new StubDevice(StubDevice.textPattern(), bytesPerRead);
+		
+	}
+	
+	@Benchmark
+	public String getString() {
+		
+		return device.getString();
+		
+	}
+	
+	@Benchmark
+	public ByteBuffer readIntoBuffer() {
+		
+		readBuffer.clear();
+		device.read(readBuffer);
+		
+		return readBuffer;
+		
+	}
+	
+}
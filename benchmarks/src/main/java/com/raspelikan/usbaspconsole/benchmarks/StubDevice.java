@@ -0,0 +1,201 @@
+package com.raspelikan.usbaspconsole.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.raspelikan.usbaspconsole.TransferStatistics;
+import com.raspelikan.usbaspconsole.USBaspDevice;
+
+/**
+ * A USBasp+ device answering immediately with bytes taken from a pattern
+ * over and over again, so the benchmarks measure the code processing the
+ * bytes but not any USB transfer.
+ * 
+ * @author RasPelikan
+ */
+public class StubDevice implements USBaspDevice {
+	
+	private final byte[] pattern;
+	private final int bytesPerRead;
+	private int position;
+	
+	private final TransferStatistics readStatistics = new TransferStatistics();
+	private final TransferStatistics writeStatistics = new TransferStatistics();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param pattern The bytes sent by the MCU over and over again
+	 * @param bytesPerRead The number of bytes available on every read
+	 */
+	public StubDevice(final byte[] pattern, final int bytesPerRead) {
+		
+		this.pattern = pattern;
+		this.bytesPerRead = bytesPerRead;
+		
+	}
+	
+	/**
+	 * @return Text lines of typical debug output
+	 */
+	public static byte[] textPattern() {
+		
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 64; ++i) {
+			text.append("adc=").append(512 + i).append(" temp=21.").append(i % 10)
+					.append(" state=RUNNING \u00b0C\r\n");
+		}
+		
+		return text.toString().getBytes(Charset.forName("UTF-8"));
+		
+	}
+	
+	/**
+	 * @return SLIP frames of 32 bytes each
+	 */
+	public static byte[] slipPattern() {
+		
+		final ByteBuffer frames = ByteBuffer.allocate(64 * 33);
+		for (int i = 0; i < 64; ++i) {
+			for (int j = 0; j < 32; ++j) {
+				// leave out the special bytes END and ESC
+				frames.put((byte) ((i + j) % 0xc0));
+			}
+			frames.put((byte) 0xc0);
+		}
+		
+		return frames.array();
+		
+	}
+	
+	@Override
+	public int getNumberOfBytesAvailable() {
+		
+		return bytesPerRead;
+		
+	}
+	
+	@Override
+	public int getByte() {
+		
+		final int b = pattern[position] & 0xff;
+		position = (position + 1) % pattern.length;
+		
+		return b;
+		
+	}
+	
+	/**
+	 * The same as USBaspUsbDevice.getString(), which cannot be run without
+	 * a device
+	 */
+	@Override
+	public String getString() {
+		
+		final ByteBuffer bytesRead = ByteBuffer.allocate(256);
+		
+		final int numberOfBytesRead = read(bytesRead);
+		if (numberOfBytesRead == 0) {
+			return null;
+		}
+		
+		final StringBuffer result = new StringBuffer(numberOfBytesRead);
+		
+		for (int i = 0; i < numberOfBytesRead; ++i) {
+			
+			result.append((char) (bytesRead.get(i) & 0xff));
+			
+		}
+		
+		return result.toString();
+		
+	}
+	
+	@Override
+	public int read(final ByteBuffer dst) {
+		
+		int numberOfBytesToRead = Math.min(bytesPerRead, dst.remaining());
+		final int numberOfBytesRead = numberOfBytesToRead;
+		
+		while (numberOfBytesToRead > 0) {
+			
+			final int length = Math.min(numberOfBytesToRead, pattern.length - position);
+			dst.put(pattern, position, length);
+			position = (position + length) % pattern.length;
+			numberOfBytesToRead -= length;
+			
+		}
+		readStatistics.count(numberOfBytesRead);
+		
+		return numberOfBytesRead;
+		
+	}
+	
+	@Override
+	public TransferStatistics getReadStatistics() {
+		
+		return readStatistics;
+		
+	}
+	
+	@Override
+	public int write(final ByteBuffer src) {
+		
+		final int numberOfBytes = src.remaining();
+		src.position(src.limit());
+		writeStatistics.count(numberOfBytes);
+		
+		return numberOfBytes;
+		
+	}
+	
+	@Override
+	public TransferStatistics getWriteStatistics() {
+		
+		return writeStatistics;
+		
+	}
+	
+	@Override
+	public void setBaudRate(final int baudRate) {
+		
+		// nothing to do
+		
+	}
+	
+	@Override
+	public int getBaudRate() {
+		
+		return 115200;
+		
+	}
+	
+	@Override
+	public long getOverruns() {
+		
+		return 0;
+		
+	}
+	
+	@Override
+	public int testCmd1() {
+		
+		return 0;
+		
+	}
+	
+	@Override
+	public int testCmd2() {
+		
+		return 0;
+		
+	}
+	
+	@Override
+	public int testCmd3() {
+		
+		return 0;
+		
+	}
+	
+}
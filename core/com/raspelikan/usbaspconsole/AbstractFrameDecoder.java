@@ -0,0 +1,141 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base of the frame decoders: collects a frame's bytes in a preallocated
+ * array, checks the optional CRC and counts the frames. Frames lying
+ * entirely in a chunk may also be passed without copying.
+ * 
+ * @author RasPelikan
+ */
+public abstract class AbstractFrameDecoder implements FrameDecoder {
+	
+	public static final int MAX_FRAME_SIZE = 4096;
+	
+	private static final int CRC_SIZE = 2;
+	
+	// CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xffff)
+	private static final int[] CRC_TABLE = new int[256];
+	
+	static {
+		for (int i = 0; i < 256; ++i) {
+			int crc = i << 8;
+			for (int bit = 0; bit < 8; ++bit) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+			}
+			CRC_TABLE[i] = crc & 0xffff;
+		}
+	}
+	
+	private final FrameStatistics statistics = new FrameStatistics();
+	private volatile boolean crcEnabled;
+	
+	// the frame being received
+	protected final byte[] frame = new byte[MAX_FRAME_SIZE];
+	protected int frameLength;
+	private final ByteBuffer frameBuffer = ByteBuffer.wrap(frame);
+	
+	@Override
+	public void setCrcEnabled(final boolean crcEnabled) {
+		
+		this.crcEnabled = crcEnabled;
+		
+	}
+	
+	@Override
+	public FrameStatistics getStatistics() {
+		
+		return statistics;
+		
+	}
+	
+	@Override
+	public void reset() {
+		
+		frameLength = 0;
+		
+	}
+	
+	/**
+	 * Append a byte to the frame being received
+	 * 
+	 * @return false if the frame is too long
+	 */
+	protected boolean append(final byte b) {
+		
+		if (frameLength == frame.length) {
+			return false;
+		}
+		frame[frameLength++] = b;
+		return true;
+		
+	}
+	
+	/**
+	 * Pass the frame collected to the listener and start the next one
+	 */
+	protected void frameCompleted(final FrameListener listener) {
+		
+		frameBuffer.limit(frameLength);
+		frameBuffer.position(0);
+		frameLength = 0;
+		
+		frameCompleted(frameBuffer, listener);
+		
+	}
+	
+	/**
+	 * Pass a frame to the listener, the frame's position and limit are
+	 * changed
+	 * 
+	 * @param frame The frame's bytes between position and limit
+	 */
+	protected void frameCompleted(final ByteBuffer frame, final FrameListener listener) {
+		
+		boolean crcValid = true;
+		if (crcEnabled) {
+			
+			final int length = frame.remaining() - CRC_SIZE;
+			if (length < 0) {
+				statistics.countDropped();
+				return;
+			}
+			
+			final int crcPosition = frame.position() + length;
+			final int received = ((frame.get(crcPosition) & 0xff) << 8)
+					| (frame.get(crcPosition + 1) & 0xff);
+			crcValid = crc(frame, frame.position(), length) == received;
+			frame.limit(crcPosition);
+			
+		}
+		
+		statistics.count(crcValid);
+		listener.frameDecoded(frame, crcValid);
+		
+	}
+	
+	/**
+	 * Count a frame which could not be decoded
+	 */
+	protected void frameDropped() {
+		
+		frameLength = 0;
+		statistics.countDropped();
+		
+	}
+	
+	/**
+	 * @return The CRC-16/CCITT-FALSE of the given bytes
+	 */
+	private static int crc(final ByteBuffer buffer, final int offset, final int length) {
+		
+		int crc = 0xffff;
+		for (int i = offset; i < offset + length; ++i) {
+			crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ buffer.get(i)) & 0xff]) & 0xffff;
+		}
+		return crc;
+		
+	}
+	
+}
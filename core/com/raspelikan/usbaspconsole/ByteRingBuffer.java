@@ -0,0 +1,370 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated byte buffer between exactly one producer (reading the
+ * device) and exactly one consumer (writing the console). No
+ * locks are used: positions only grow and are published by atomic longs.
+ * If the buffer is full the producer either drops the oldest bytes or
+ * waits for the consumer, depending on the policy.
+ * 
+ * @author RasPelikan
+ */
+public class ByteRingBuffer {
+	
+	/**
+	 * What to do if the consumer does not keep up
+	 */
+	public enum OverflowPolicy {
+		/** overwrite the oldest bytes not consumed yet */
+		DROP_OLDEST,
+		/** let the producer wait for free space */
+		BLOCK
+	}
+	
+	private static final long PARK_NANOS = 10000000; // 10 ms
+	
+	private final byte[] buffer;
+	private final int mask;
+	private final ChunkIndex chunkIndex;
+	
+	// next position to be read, moved by the consumer and by the
+	// producer if dropping bytes
+	private final AtomicLong head = new AtomicLong();
+	// next position to be written, moved by the producer only
+	private final AtomicLong tail = new AtomicLong();
+	
+	private volatile OverflowPolicy policy;
+	private volatile boolean closed;
+	
+	private volatile Thread waitingConsumer;
+	private volatile Thread waitingProducer;
+	private volatile DeviceExecutor.Handle consumerHandle;
+	
+	private volatile long highWaterMark;
+	private volatile long droppedBytes;
+	
+	// position of the first byte read last, used by the consumer only
+	private long readPosition;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity The capacity, rounded up to the next power of two
+	 * @param policy The overflow policy
+	 */
+	public ByteRingBuffer(final int capacity, final OverflowPolicy policy) {
+		
+		this(capacity, policy, 0);
+		
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity The capacity, rounded up to the next power of two
+	 * @param policy The overflow policy
+	 * @param chunkIndexCapacity The number of chunks whose time of arrival
+	 *            is remembered or 0 for none
+	 */
+	public ByteRingBuffer(final int capacity, final OverflowPolicy policy,
+			final int chunkIndexCapacity) {
+		
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		
+		this.buffer = new byte[size];
+		this.mask = size - 1;
+		this.policy = policy;
+		this.chunkIndex = chunkIndexCapacity > 0 ? new ChunkIndex(chunkIndexCapacity) : null;
+		
+	}
+	
+	/**
+	 * Write a chunk of bytes and remember its time of arrival, called by
+	 * the producer only.
+	 * 
+	 * @param timestamp The time of arrival (System.nanoTime())
+	 * @return The number of bytes written
+	 */
+	public int write(final byte[] src, final int offset, final int length,
+			final long timestamp) {
+		
+		if ((chunkIndex != null) && (length > 0)) {
+			chunkIndex.add(tail.get(), timestamp);
+		}
+		
+		return write(src, offset, length);
+		
+	}
+	
+	/**
+	 * Write bytes, called by the producer only. Returns less than length
+	 * bytes only if the buffer got closed while waiting for free space.
+	 * 
+	 * @return The number of bytes written
+	 */
+	public int write(final byte[] src, int offset, int length) {
+		
+		final int capacity = buffer.length;
+		int written = 0;
+		
+		while (length > 0) {
+			
+			final long t = tail.get();
+			final int free = capacity - (int) (t - head.get());
+			final int n;
+			
+			if (policy == OverflowPolicy.BLOCK) {
+				
+				if (free == 0) {
+					if (closed) {
+						return written;
+					}
+					awaitSpace();
+					continue;
+				}
+				n = Math.min(length, free);
+				
+			} else {
+				
+				n = Math.min(length, capacity);
+				if (n > free) {
+					dropOldest(t + n - capacity);
+				}
+				
+			}
+			
+			// copy in at most two parts because of wrapping
+			final int position = (int) (t & mask);
+			final int firstPart = Math.min(n, capacity - position);
+			System.arraycopy(src, offset, buffer, position, firstPart);
+			System.arraycopy(src, offset + firstPart, buffer, 0, n - firstPart);
+			
+			tail.lazySet(t + n);
+			offset += n;
+			length -= n;
+			written += n;
+			
+			final long size = t + n - head.get();
+			if (size > highWaterMark) {
+				highWaterMark = size;
+			}
+			
+			final Thread consumer = waitingConsumer;
+			if (consumer != null) {
+				LockSupport.unpark(consumer);
+			}
+			
+			// a consumer task waits only once it found the buffer empty
+			final DeviceExecutor.Handle handle = consumerHandle;
+			if ((handle != null) && (head.get() == t)) {
+				handle.wakeUp();
+			}
+			
+		}
+		
+		return written;
+		
+	}
+	
+	/**
+	 * Move the head forward by the producer, the consumer notices this by
+	 * a failing compare-and-set and reads again.
+	 */
+	private void dropOldest(final long newHead) {
+		
+		long h;
+		while ((h = head.get()) < newHead) {
+			
+			if (head.compareAndSet(h, newHead)) {
+				droppedBytes = droppedBytes + (newHead - h);
+				return;
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Read bytes, called by the consumer only. Never blocks.
+	 * 
+	 * @return The number of bytes read
+	 */
+	public int read(final byte[] dst, final int offset, final int length) {
+		
+		final int capacity = buffer.length;
+		
+		while (true) {
+			
+			final long h = head.get();
+			final int n = (int) Math.min(tail.get() - h, Math.min(length, capacity));
+			if (n <= 0) {
+				return 0;
+			}
+			
+			final int position = (int) (h & mask);
+			final int firstPart = Math.min(n, capacity - position);
+			System.arraycopy(buffer, position, dst, offset, firstPart);
+			System.arraycopy(buffer, 0, dst, offset + firstPart, n - firstPart);
+			
+			// fails if the producer dropped the bytes meanwhile
+			if (head.compareAndSet(h, h + n)) {
+				
+				readPosition = h;
+				
+				final Thread producer = waitingProducer;
+				if (producer != null) {
+					LockSupport.unpark(producer);
+				}
+				
+				return n;
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * @return The stream position of the first byte returned by the last
+	 *         read, called by the consumer only
+	 */
+	public long getReadPosition() {
+		
+		return readPosition;
+		
+	}
+	
+	/**
+	 * Look up the time of arrival of a byte read, called by the consumer only
+	 * 
+	 * @param position The stream position of the byte
+	 * @return The time of arrival (System.nanoTime()) or 0 if unknown
+	 */
+	public long getTimestamp(final long position) {
+		
+		return chunkIndex == null ? 0 : chunkIndex.getTimestamp(position);
+		
+	}
+	
+	/**
+	 * Wait for data, called by the consumer only
+	 * 
+	 * @param timeoutNanos The time to wait at most
+	 */
+	public void awaitData(final long timeoutNanos) {
+		
+		waitingConsumer = Thread.currentThread();
+		if (isEmpty() && !closed) {
+			LockSupport.parkNanos(this, timeoutNanos);
+		}
+		waitingConsumer = null;
+		
+	}
+	
+	/**
+	 * Wake up a consumer run as DeviceExecutor task instead of waiting in
+	 * a thread of its own once data is written to the empty buffer
+	 * 
+	 * @param consumerHandle The consumer's handle or null
+	 */
+	public void setConsumerHandle(final DeviceExecutor.Handle consumerHandle) {
+		
+		this.consumerHandle = consumerHandle;
+		
+	}
+	
+	private void awaitSpace() {
+		
+		waitingProducer = Thread.currentThread();
+		if ((size() >= buffer.length) && !closed) {
+			LockSupport.parkNanos(this, PARK_NANOS);
+		}
+		waitingProducer = null;
+		
+	}
+	
+	/**
+	 * Wake up any thread waiting, a producer waiting for space gives up
+	 */
+	public void close() {
+		
+		closed = true;
+		
+		final Thread producer = waitingProducer;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+		final Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		
+	}
+	
+	/**
+	 * @return The number of bytes not consumed yet
+	 */
+	public int size() {
+		
+		final long h = head.get();
+		return (int) (tail.get() - h);
+		
+	}
+	
+	public boolean isEmpty() {
+		
+		return size() == 0;
+		
+	}
+	
+	public int getCapacity() {
+		
+		return buffer.length;
+		
+	}
+	
+	public OverflowPolicy getPolicy() {
+		
+		return policy;
+		
+	}
+	
+	public void setPolicy(final OverflowPolicy policy) {
+		
+		this.policy = policy;
+		
+	}
+	
+	/**
+	 * @return The maximum number of bytes which were waiting for the consumer
+	 */
+	public long getHighWaterMark() {
+		
+		return highWaterMark;
+		
+	}
+	
+	/**
+	 * @return The number of bytes dropped because the consumer did not keep up
+	 */
+	public long getDroppedBytes() {
+		
+		return droppedBytes;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("%d of %d bytes buffered at most, %d bytes dropped",
+				getHighWaterMark(), getCapacity(), getDroppedBytes());
+		
+	}
+	
+}
@@ -0,0 +1,313 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * The thread responsible for writing every byte received to capture files.
+ * The reader passes the bytes by a ByteRingBuffer and never waits for this
+ * thread: if the buffer is full the bytes are dropped and counted. The
+ * files are preallocated and written through memory mapping, once a file
+ * is full the next one (segment) is started.
+ * <p>
+ * File format (big endian): "USBCAP01", wall clock time of the file's
+ * start (ms since epoch), System.nanoTime() at that time. Followed by
+ * records: System.nanoTime() of arrival (long), length (int), bytes. A
+ * record of length 0 marks the end.
+ * 
+ * @author RasPelikan
+ */
+public class CaptureRecorder extends Thread {
+	
+	public static final byte[] MAGIC = { 'U', 'S', 'B', 'C', 'A', 'P', '0', '1' };
+	public static final int FILE_HEADER_SIZE = 24;
+	public static final int RECORD_HEADER_SIZE = 12;
+	public static final String FILE_SUFFIX = ".cap";
+	
+	private static final int BUFFER_CAPACITY = 1024 * 1024;
+	private static final int MAX_RECORD_SIZE = 4096;
+	private static final long MAX_WAIT_NANOS = 500000000; // 500 ms
+	
+	private Log log;
+	
+	private volatile boolean shutdown;
+	
+	private final File directory;
+	private final int segmentSize;
+	private final String filePrefix;
+	
+	private final ByteRingBuffer buffer = new ByteRingBuffer(BUFFER_CAPACITY,
+			ByteRingBuffer.OverflowPolicy.BLOCK);
+	
+	// used by the producer only, header and bytes are written at once
+	private final byte[] recordWritten = new byte[RECORD_HEADER_SIZE + MAX_RECORD_SIZE];
+	private volatile long droppedBytes;
+	
+	// used by the recorder thread only
+	private final byte[] record = new byte[Math.max(RECORD_HEADER_SIZE, MAX_RECORD_SIZE)];
+	private MappedByteBuffer segment;
+	private int segments;
+	private volatile long recordedBytes;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param directory The directory for the capture files
+	 * @param segmentSize The size of each capture file in bytes
+	 */
+	public CaptureRecorder(final Log log, final File directory, final int segmentSize) {
+		
+		super("USBasp+ capture recorder");
+		setDaemon(true);
+		
+		this.log = log;
+		this.directory = directory;
+		this.segmentSize = Math.max(segmentSize, FILE_HEADER_SIZE + 2 * RECORD_HEADER_SIZE + MAX_RECORD_SIZE);
+		this.filePrefix = "usbasp-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-";
+		
+	}
+	
+	/**
+	 * Record bytes received, called by the reader only. Never blocks.
+	 * 
+	 * @param timestamp The time of arrival (System.nanoTime())
+	 */
+	public void record(final long timestamp, final byte[] src, int offset, int length) {
+		
+		while (length > 0) {
+			
+			final int n = Math.min(length, MAX_RECORD_SIZE);
+			
+			// header and bytes have to fit, otherwise drop the record
+			if (buffer.getCapacity() - buffer.size() < RECORD_HEADER_SIZE + n) {
+				droppedBytes = droppedBytes + length;
+				return;
+			}
+			
+			// one write, so closing the buffer never cuts off a record
+			putLong(recordWritten, 0, timestamp);
+			putInt(recordWritten, 8, n);
+			System.arraycopy(src, offset, recordWritten, RECORD_HEADER_SIZE, n);
+			buffer.write(recordWritten, 0, RECORD_HEADER_SIZE + n);
+			
+			offset += n;
+			length -= n;
+			
+		}
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		this.shutdown = true;
+		this.buffer.close();
+		
+		try {
+			
+			this.join(10000);
+			
+		} catch (InterruptedException e) {
+			// never mind
+		}
+		
+	}
+	
+	/**
+	 * the thread's main routine
+	 */
+	@Override
+	public void run() {
+		
+		try {
+			
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create directory " + directory);
+			}
+			
+			// repeat unless shutdown, but write everything recorded
+			while (!shutdown || !buffer.isEmpty()) {
+				
+				if (!readFully(RECORD_HEADER_SIZE)) {
+					continue;
+				}
+				final long timestamp = getLong(record, 0);
+				final int length = getInt(record, 8);
+				
+				// the bytes are written right after the header
+				boolean complete;
+				do {
+					complete = readFully(length);
+				} while (!complete && !shutdown);
+				if (!complete) {
+					continue; // cut off by shutdown
+				}
+				
+				// make sure the record fits into the current segment
+				if ((segment == null)
+						|| (segment.remaining() < 2 * RECORD_HEADER_SIZE + length)) {
+					nextSegment();
+				}
+				
+				segment.putLong(timestamp);
+				segment.putInt(length);
+				segment.put(record, 0, length);
+				recordedBytes = recordedBytes + length;
+				
+				markEnd();
+				
+			}
+			
+		} catch (Throwable e) {
+			
+			this.log.error("Could not write capture file, capturing stopped", e);
+			
+		} finally {
+			
+			if (segment != null) {
+				segment.force();
+				segment = null;
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Read the given number of bytes into record
+	 * 
+	 * @return false if not available yet
+	 */
+	private boolean readFully(final int length) {
+		
+		if (buffer.size() < length) {
+			
+			// a closed buffer returns at once and the rest never arrives,
+			// so drop what is left instead of waiting forever
+			if (shutdown) {
+				buffer.read(record, 0, buffer.size());
+			} else {
+				buffer.awaitData(MAX_WAIT_NANOS);
+			}
+			return false;
+			
+		}
+		
+		int read = 0;
+		while (read < length) {
+			read += buffer.read(record, read, length - read);
+		}
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Finish the current segment and start the next one
+	 */
+	private void nextSegment() throws IOException {
+		
+		if (segment != null) {
+			segment.force();
+		}
+		
+		++segments;
+		final File file = new File(directory, String.format("%s%03d%s",
+				filePrefix, segments, FILE_SUFFIX));
+		
+		// preallocate the file and map it, the mapping remains valid
+		// after closing the file
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			
+			randomAccessFile.setLength(segmentSize);
+			segment = randomAccessFile.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			
+		} finally {
+			randomAccessFile.close();
+		}
+		
+		segment.put(MAGIC);
+		segment.putLong(System.currentTimeMillis());
+		segment.putLong(System.nanoTime());
+		markEnd();
+		
+	}
+	
+	/**
+	 * Write an empty record header behind the last record
+	 */
+	private void markEnd() {
+		
+		final int position = segment.position();
+		segment.putLong(position, 0);
+		segment.putInt(position + 8, 0);
+		
+	}
+	
+	private static void putLong(final byte[] bytes, final int offset, final long value) {
+		
+		putInt(bytes, offset, (int) (value >> 32));
+		putInt(bytes, offset + 4, (int) value);
+		
+	}
+	
+	private static void putInt(final byte[] bytes, final int offset, final int value) {
+		
+		bytes[offset] = (byte) (value >> 24);
+		bytes[offset + 1] = (byte) (value >> 16);
+		bytes[offset + 2] = (byte) (value >> 8);
+		bytes[offset + 3] = (byte) value;
+		
+	}
+	
+	private static long getLong(final byte[] bytes, final int offset) {
+		
+		return ((long) getInt(bytes, offset) << 32) | (getInt(bytes, offset + 4) & 0xffffffffL);
+		
+	}
+	
+	private static int getInt(final byte[] bytes, final int offset) {
+		
+		return ((bytes[offset] & 0xff) << 24)
+				| ((bytes[offset + 1] & 0xff) << 16)
+				| ((bytes[offset + 2] & 0xff) << 8)
+				| (bytes[offset + 3] & 0xff);
+		
+	}
+	
+	/**
+	 * @return The number of bytes written to capture files
+	 */
+	public long getRecordedBytes() {
+		
+		return recordedBytes;
+		
+	}
+	
+	/**
+	 * @return The number of bytes dropped because writing did not keep up
+	 */
+	public long getDroppedBytes() {
+		
+		return droppedBytes;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("%d bytes captured to %d files in %s, %d bytes dropped",
+				getRecordedBytes(), segments, directory, getDroppedBytes());
+		
+	}
+	
+}
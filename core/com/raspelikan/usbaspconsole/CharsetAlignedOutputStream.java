@@ -0,0 +1,159 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffers the bytes written and passes them on in multiples of complete
+ * characters only. A multi-byte sequence split across two reads of the
+ * device is held back until its last byte arrives, so the console, which
+ * decodes each write on its own, never shows garbage in between. A
+ * streaming CharsetDecoder finds the end of the last complete character.
+ * Without a charset (raw) the bytes are passed on as they are.
+ * 
+ * @author RasPelikan
+ */
+public class CharsetAlignedOutputStream extends OutputStream {
+	
+	// more bytes are never held back, they cannot be a valid sequence
+	private static final int MAX_INCOMPLETE = 16;
+	
+	private final OutputStream out;
+	private final CharsetDecoder decoder;
+	
+	private final byte[] bytes;
+	private final ByteBuffer byteBuffer;
+	private final CharBuffer charBuffer;
+	private int count;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param out The stream to write complete characters to
+	 * @param charset The charset or null to pass on bytes as they are
+	 * @param size The number of bytes buffered at most
+	 */
+	public CharsetAlignedOutputStream(final OutputStream out, final Charset charset,
+			final int size) {
+		
+		this.out = out;
+		this.bytes = new byte[Math.max(size, 2 * MAX_INCOMPLETE)];
+		
+		if (charset == null) {
+			
+			this.decoder = null;
+			this.byteBuffer = null;
+			this.charBuffer = null;
+			
+		} else {
+			
+			// malformed input is consumed, so it is never held back
+			this.decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.byteBuffer = ByteBuffer.wrap(bytes);
+			this.charBuffer = CharBuffer.allocate(bytes.length);
+			
+		}
+		
+	}
+	
+	@Override
+	public void write(final int b) throws IOException {
+		
+		if (count == bytes.length) {
+			drain();
+		}
+		bytes[count++] = (byte) b;
+		
+	}
+	
+	@Override
+	public void write(final byte[] b, int offset, int length) throws IOException {
+		
+		while (length > 0) {
+			
+			if (count == bytes.length) {
+				drain();
+			}
+			
+			final int n = Math.min(length, bytes.length - count);
+			System.arraycopy(b, offset, bytes, count, n);
+			count += n;
+			offset += n;
+			length -= n;
+			
+		}
+		
+	}
+	
+	/**
+	 * Pass on all complete characters, an incomplete one is kept
+	 */
+	@Override
+	public void flush() throws IOException {
+		
+		drain();
+		out.flush();
+		
+	}
+	
+	/**
+	 * Pass on everything, even an incomplete character, and close
+	 */
+	@Override
+	public void close() throws IOException {
+		
+		out.write(bytes, 0, count);
+		count = 0;
+		out.close();
+		
+	}
+	
+	/**
+	 * Write all complete characters buffered to the underlying stream
+	 */
+	private void drain() throws IOException {
+		
+		int complete = decoder == null ? count : getCompleteLength();
+		if (count - complete > MAX_INCOMPLETE) {
+			complete = count;
+		}
+		
+		if (complete > 0) {
+			out.write(bytes, 0, complete);
+		}
+		
+		// move the incomplete character to the beginning
+		count -= complete;
+		System.arraycopy(bytes, complete, bytes, 0, count);
+		
+	}
+	
+	/**
+	 * @return The number of bytes buffered forming complete characters
+	 */
+	private int getCompleteLength() {
+		
+		decoder.reset();
+		byteBuffer.clear();
+		byteBuffer.limit(count);
+		
+		// the characters are not needed, just where decoding stops
+		CoderResult result;
+		do {
+			charBuffer.clear();
+			result = decoder.decode(byteBuffer, charBuffer, false);
+		} while (result.isOverflow());
+		
+		return byteBuffer.position();
+		
+	}
+	
+}
@@ -0,0 +1,111 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the time of arrival of each chunk of bytes written to a
+ * ByteRingBuffer. Entries are kept in parallel primitive arrays (stream
+ * position of the chunk's first byte and System.nanoTime()), so no
+ * objects are created per chunk. Like the buffer it is used by exactly one
+ * producer and one consumer without locks. If the consumer falls behind
+ * by more chunks than the index holds, new chunks are not indexed and
+ * their bytes get the timestamp of the chunk before.
+ * 
+ * @author RasPelikan
+ */
+public class ChunkIndex {
+	
+	private final long[] positions;
+	private final long[] timestamps;
+	private final int mask;
+	
+	// number of entries added, moved by the producer only
+	private final AtomicLong count = new AtomicLong();
+	// entry in use by the consumer, moved by the consumer only
+	private final AtomicLong current = new AtomicLong();
+	
+	private volatile long droppedChunks;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param capacity The number of entries, rounded up to the next power of two
+	 */
+	public ChunkIndex(final int capacity) {
+		
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		
+		this.positions = new long[size];
+		this.timestamps = new long[size];
+		this.mask = size - 1;
+		
+	}
+	
+	/**
+	 * Add a chunk, called by the producer only. Never blocks.
+	 * 
+	 * @param position The stream position of the chunk's first byte
+	 * @param timestamp The time of arrival (System.nanoTime())
+	 */
+	public void add(final long position, final long timestamp) {
+		
+		final long c = count.get();
+		
+		// the entry in use by the consumer must not be overwritten
+		if (c - current.get() >= positions.length) {
+			droppedChunks = droppedChunks + 1;
+			return;
+		}
+		
+		final int i = (int) (c & mask);
+		positions[i] = position;
+		timestamps[i] = timestamp;
+		count.lazySet(c + 1);
+		
+	}
+	
+	/**
+	 * Look up the time of arrival of a byte, called by the consumer only.
+	 * Positions have to be passed in ascending order since entries before
+	 * are released.
+	 * 
+	 * @param position The stream position of the byte
+	 * @return The time of arrival (System.nanoTime()) or 0 if unknown
+	 */
+	public long getTimestamp(final long position) {
+		
+		final long c = count.get();
+		long e = current.get();
+		if (e >= c) {
+			return 0;
+		}
+		
+		// skip all chunks starting at or before the position
+		while ((e + 1 < c) && (positions[(int) ((e + 1) & mask)] <= position)) {
+			++e;
+		}
+		current.lazySet(e);
+		
+		return timestamps[(int) (e & mask)];
+		
+	}
+	
+	public int getCapacity() {
+		
+		return positions.length;
+		
+	}
+	
+	/**
+	 * @return The number of chunks not indexed since the index was full
+	 */
+	public long getDroppedChunks() {
+		
+		return droppedChunks;
+		
+	}
+	
+}
@@ -0,0 +1,84 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes COBS frames (consistent overhead byte stuffing): frames end by
+ * 0x00, each block starts by a code byte telling the distance to the next
+ * zero byte removed by encoding.
+ * 
+ * @author RasPelikan
+ */
+public class CobsFrameDecoder extends AbstractFrameDecoder {
+	
+	// bytes of the current block still to come, 0 if a code byte is next
+	private int remaining;
+	// whether a zero byte has to be inserted before the next block
+	private boolean zeroPending;
+	private boolean dropping;
+	
+	@Override
+	public void decode(final ByteBuffer chunk, final FrameListener listener) {
+		
+		while (chunk.hasRemaining()) {
+			
+			final byte b = chunk.get();
+			
+			if (b == 0) {
+				
+				// a frame is complete only if its last block is
+				if (dropping) {
+					dropping = false;
+				} else if (remaining != 0) {
+					frameDropped();
+				} else if (frameLength > 0) {
+					frameCompleted(listener);
+				}
+				remaining = 0;
+				zeroPending = false;
+				continue;
+				
+			}
+			
+			if (dropping) {
+				continue;
+			}
+			
+			boolean appended = true;
+			if (remaining == 0) {
+				
+				// code byte of the next block
+				if (zeroPending) {
+					appended = append((byte) 0);
+				}
+				final int code = b & 0xff;
+				remaining = code - 1;
+				zeroPending = code != 0xff;
+				
+			} else {
+				
+				appended = append(b);
+				--remaining;
+				
+			}
+			
+			if (!appended) {
+				frameDropped();
+				dropping = true;
+			}
+			
+		}
+		
+	}
+	
+	@Override
+	public void reset() {
+		
+		super.reset();
+		remaining = 0;
+		zeroPending = false;
+		dropping = false;
+		
+	}
+	
+}
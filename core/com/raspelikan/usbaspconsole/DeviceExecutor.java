@@ -0,0 +1,389 @@
+package com.raspelikan.usbaspconsole;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the polling tasks of all devices. A task does one step at a time
+ * and tells how long to wait before the next one, so it never blocks a
+ * thread while idle. If the JVM supports virtual threads (Java 21+, looked
+ * up by reflection since the plugin is built for Java 6) every task gets
+ * a virtual thread of its own which is parked between steps. Otherwise the
+ * steps of all tasks are run by a small pool of platform threads. Either
+ * way many devices cost no more than a handful of platform threads.
+ * 
+ * @author RasPelikan
+ */
+public abstract class DeviceExecutor {
+	
+	private static final long CANCEL_TIMEOUT = 10000; // ms
+	
+	/**
+	 * A task run step by step
+	 */
+	public interface Task {
+		
+		/**
+		 * Do one step. A step may block for a short time only (e.g. one USB
+		 * transfer) since it may share its thread with other tasks.
+		 * 
+		 * @return The nanoseconds to wait before the next step, 0 to
+		 *         continue immediately or less than 0 if the task is done
+		 */
+		long runStep();
+		
+	}
+	
+	/**
+	 * A task scheduled
+	 */
+	public interface Handle {
+		
+		/**
+		 * Run the next step now instead of waiting until it is due
+		 */
+		void wakeUp();
+		
+		/**
+		 * Stop running steps and wait for a step in progress to complete
+		 */
+		void cancel();
+		
+	}
+	
+	protected final Log log;
+	
+	protected DeviceExecutor(final Log log) {
+		
+		this.log = log;
+		
+	}
+	
+	/**
+	 * Build an executor running on virtual threads if available
+	 * 
+	 * @param log The log for tasks failing
+	 * @param poolSize The number of threads of the pool used if virtual
+	 *            threads are not available
+	 */
+	public static DeviceExecutor create(final Log log, final int poolSize) {
+		
+		try {
+			return new VirtualThreadExecutor(log);
+		} catch (Exception e) {
+			// no virtual threads before Java 21
+		}
+		
+		return new PooledExecutor(log, poolSize);
+		
+	}
+	
+	/**
+	 * Start running a task's steps
+	 * 
+	 * @param name The name of the task, used for its thread if any
+	 * @return The handle to wake up or cancel the task
+	 */
+	public abstract Handle schedule(final String name, final Task task);
+	
+	/**
+	 * Stop running any task, tasks should be canceled before
+	 */
+	public abstract void shutdown();
+	
+	/**
+	 * Run one step, a task failing is done
+	 */
+	protected long runStep(final String name, final Task task) {
+		
+		try {
+			
+			return task.runStep();
+			
+		} catch (Throwable e) {
+			
+			log.error("USBasp+ task '" + name + "' failed", e);
+			return -1;
+			
+		}
+		
+	}
+	
+	/**
+	 * One virtual thread per task, parked between steps
+	 */
+	private static class VirtualThreadExecutor extends DeviceExecutor {
+		
+		private final Method ofVirtual;
+		private final Method name;
+		private final Method unstarted;
+		
+		VirtualThreadExecutor(final Log log) throws Exception {
+			
+			super(log);
+			
+			// Thread.ofVirtual().name(name).unstarted(runnable)
+			this.ofVirtual = Thread.class.getMethod("ofVirtual");
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			this.name = builder.getMethod("name", String.class);
+			this.unstarted = builder.getMethod("unstarted", Runnable.class);
+			
+			// fails if virtual threads are a preview feature not enabled
+			newThread("USBasp+ probe", new Runnable() {
+				@Override
+				public void run() {
+					// nothing to do
+				}
+			});
+			
+		}
+		
+		private Thread newThread(final String threadName, final Runnable runnable)
+				throws Exception {
+			
+			Object builder = ofVirtual.invoke(null);
+			builder = name.invoke(builder, threadName);
+			
+			return (Thread) unstarted.invoke(builder, runnable);
+			
+		}
+		
+		@Override
+		public Handle schedule(final String name, final Task task) {
+			
+			final VirtualThreadHandle handle = new VirtualThreadHandle(name, task);
+			try {
+				handle.thread = newThread(name, handle);
+			} catch (Exception e) {
+				throw new IllegalStateException("Could not start virtual thread", e);
+			}
+			handle.thread.start();
+			
+			return handle;
+			
+		}
+		
+		@Override
+		public void shutdown() {
+			
+			// nothing to do, each thread ends with its task
+			
+		}
+		
+		private class VirtualThreadHandle implements Handle, Runnable {
+			
+			private final String name;
+			private final Task task;
+			private volatile boolean canceled;
+			Thread thread;
+			
+			VirtualThreadHandle(final String name, final Task task) {
+				
+				this.name = name;
+				this.task = task;
+				
+			}
+			
+			@Override
+			public void run() {
+				
+				while (!canceled) {
+					
+					final long delay = runStep(name, task);
+					if (delay < 0) {
+						return;
+					}
+					if ((delay > 0) && !canceled) {
+						LockSupport.parkNanos(this, delay);
+					}
+					
+				}
+				
+			}
+			
+			@Override
+			public void wakeUp() {
+				
+				LockSupport.unpark(thread);
+				
+			}
+			
+			@Override
+			public void cancel() {
+				
+				canceled = true;
+				LockSupport.unpark(thread);
+				
+				if (Thread.currentThread() == thread) {
+					return;
+				}
+				try {
+					thread.join(CANCEL_TIMEOUT);
+				} catch (InterruptedException e) {
+					// never mind
+				}
+				
+			}
+			
+		}
+		
+		@Override
+		public String toString() {
+			
+			return "virtual threads";
+			
+		}
+		
+	}
+	
+	/**
+	 * The steps of all tasks run by a small pool of platform threads
+	 */
+	private static class PooledExecutor extends DeviceExecutor {
+		
+		private final ScheduledThreadPoolExecutor executor;
+		
+		PooledExecutor(final Log log, final int poolSize) {
+			
+			super(log);
+			
+			final AtomicInteger threadNumber = new AtomicInteger();
+			this.executor = new ScheduledThreadPoolExecutor(poolSize, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"USBasp+ device executor #" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			
+		}
+		
+		@Override
+		public Handle schedule(final String name, final Task task) {
+			
+			final PooledHandle handle = new PooledHandle(name, task);
+			handle.wakeUp();
+			
+			return handle;
+			
+		}
+		
+		@Override
+		public void shutdown() {
+			
+			executor.shutdownNow();
+			
+		}
+		
+		private class PooledHandle implements Handle, Runnable {
+			
+			private final String name;
+			private final Task task;
+			
+			// guarded by this
+			private ScheduledFuture<?> future;
+			private boolean running;
+			private boolean wakeUpPending;
+			private boolean done;
+			
+			PooledHandle(final String name, final Task task) {
+				
+				this.name = name;
+				this.task = task;
+				
+			}
+			
+			@Override
+			public void run() {
+				
+				synchronized (this) {
+					if (done) {
+						return;
+					}
+					running = true;
+					wakeUpPending = false;
+				}
+				
+				long delay = runStep(name, task);
+				
+				synchronized (this) {
+					
+					running = false;
+					if (done || (delay < 0)) {
+						done = true;
+						notifyAll();
+						return;
+					}
+					
+					if (wakeUpPending) {
+						delay = 0;
+					}
+					future = executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+					
+				}
+				
+			}
+			
+			@Override
+			public synchronized void wakeUp() {
+				
+				if (done) {
+					return;
+				}
+				
+				// the step in progress schedules the next one
+				if (running) {
+					wakeUpPending = true;
+					return;
+				}
+				
+				if ((future == null) || future.cancel(false)) {
+					future = executor.schedule(this, 0, TimeUnit.NANOSECONDS);
+				}
+				
+			}
+			
+			@Override
+			public synchronized void cancel() {
+				
+				done = true;
+				if (future != null) {
+					future.cancel(false);
+				}
+				
+				final long deadline = System.currentTimeMillis() + CANCEL_TIMEOUT;
+				while (running) {
+					
+					final long timeout = deadline - System.currentTimeMillis();
+					if (timeout <= 0) {
+						return;
+					}
+					try {
+						wait(timeout);
+					} catch (InterruptedException e) {
+						return;
+					}
+					
+				}
+				
+			}
+			
+		}
+		
+		@Override
+		public String toString() {
+			
+			return "pool of " + executor.getCorePoolSize() + " threads";
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,257 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.usb4java.Device;
+import org.usb4java.LibUsb;
+
+/**
+ * The thread responsible for opening and closing devices plugged in or
+ * unplugged. Hotplug callbacks run on libusb's event handling thread and
+ * only post events, so opening a device (which needs several control
+ * transfers) never stalls the processing of other USB events.
+ * Arrivals are debounced: a device is opened once it stayed plugged in
+ * for DEBOUNCE_NANOS, so a bouncing connector causes one open only.
+ * Departures are handled immediately since the device is gone anyway.
+ * 
+ * @author RasPelikan
+ */
+public class DeviceLifecycleWorker extends Thread {
+	
+	public static final long DEBOUNCE_NANOS = 250000000; // 250 ms
+	
+	private static final long MAX_WAIT_NANOS = 500000000; // 500 ms
+	
+	/**
+	 * A device plugged in or unplugged
+	 */
+	private static class Event {
+		
+		// referenced while queued, null for departures
+		final Device device;
+		final String path;
+		final long time;
+		
+		Event(final Device device, final String path, final long time) {
+			
+			this.device = device;
+			this.path = path;
+			this.time = time;
+			
+		}
+		
+	}
+	
+	private Log log;
+	private DeviceListener listener;
+	
+	private volatile boolean shutdown;
+	
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+	
+	// used by the worker thread only
+	private final Map<String, Event> pendingArrivals = new HashMap<String, Event>();
+	
+	private volatile long bounces;
+	
+	/**
+	 * Constructor
+	 */
+	public DeviceLifecycleWorker(final Log log, final DeviceListener listener) {
+		
+		super("USBasp+ device lifecycle");
+		setDaemon(true);
+		
+		this.log = log;
+		this.listener = listener;
+		
+	}
+	
+	/**
+	 * Post a device plugged in, called by the hotplug callback
+	 * 
+	 * @param device The device, referenced until it is opened
+	 * @param path The device's bus/port path
+	 */
+	public void deviceArrived(final Device device, final String path) {
+		
+		events.offer(new Event(LibUsb.refDevice(device), path, System.nanoTime()));
+		
+	}
+	
+	/**
+	 * Post a device unplugged, called by the hotplug callback
+	 * 
+	 * @param path The device's bus/port path
+	 */
+	public void deviceLeft(final String path) {
+		
+		events.offer(new Event(null, path, System.nanoTime()));
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		this.shutdown = true;
+		this.interrupt();
+		
+		try {
+			
+			this.join(10000);
+			
+		} catch (InterruptedException e) {
+			// never mind
+		}
+		
+	}
+	
+	/**
+	 * the thread's main routine
+	 */
+	@Override
+	public void run() {
+		
+		try {
+			
+			// repeat unless shutdown
+			while (!shutdown) {
+				
+				// wait for the next event but not longer than the next
+				// arrival is due
+				final Event event;
+				try {
+					event = events.poll(getTimeUntilDue(), TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					continue; // maybe shutdown called?
+				}
+				
+				if (event != null) {
+					handle(event);
+				}
+				
+				openDueArrivals();
+				
+			}
+			
+		} finally {
+			
+			// free the devices not opened
+			for (final Event event : pendingArrivals.values()) {
+				LibUsb.unrefDevice(event.device);
+			}
+			pendingArrivals.clear();
+			
+			Event event;
+			while ((event = events.poll()) != null) {
+				if (event.device != null) {
+					LibUsb.unrefDevice(event.device);
+				}
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * @return The nanoseconds until the earliest arrival pending is due
+	 */
+	private long getTimeUntilDue() {
+		
+		long timeout = MAX_WAIT_NANOS;
+		
+		final long now = System.nanoTime();
+		for (final Event event : pendingArrivals.values()) {
+			timeout = Math.min(timeout, event.time + DEBOUNCE_NANOS - now);
+		}
+		
+		return Math.max(0, timeout);
+		
+	}
+	
+	/**
+	 * Remember a device plugged in or close a device unplugged
+	 */
+	private void handle(final Event event) {
+		
+		// a later arrival replaces any pending
+		if (event.device != null) {
+			
+			final Event pending = pendingArrivals.put(event.path, event);
+			if (pending != null) {
+				LibUsb.unrefDevice(pending.device);
+			}
+			return;
+			
+		}
+		
+		// unplugged before being opened, the connector bounced
+		final Event pending = pendingArrivals.remove(event.path);
+		if (pending != null) {
+			LibUsb.unrefDevice(pending.device);
+			bounces = bounces + 1;
+		}
+		
+		try {
+			
+			listener.deviceLeft(event.path);
+			
+		} catch (Throwable e) {
+			
+			this.log.warning("Could not close USBasp at " + event.path, e);
+			
+		}
+		
+	}
+	
+	/**
+	 * Open the devices plugged in for at least DEBOUNCE_NANOS
+	 */
+	private void openDueArrivals() {
+		
+		final long now = System.nanoTime();
+		
+		final Iterator<Event> i = pendingArrivals.values().iterator();
+		while (i.hasNext()) {
+			
+			final Event event = i.next();
+			if (now - event.time < DEBOUNCE_NANOS) {
+				continue;
+			}
+			i.remove();
+			
+			try {
+				
+				listener.deviceArrived(event.device, event.time);
+				
+			} catch (Throwable e) {
+				
+				this.log.warning("Could not open USBasp at " + event.path, e);
+				
+			} finally {
+				
+				LibUsb.unrefDevice(event.device);
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * @return The number of devices unplugged before being opened
+	 */
+	public long getBounces() {
+		
+		return bounces;
+		
+	}
+	
+}
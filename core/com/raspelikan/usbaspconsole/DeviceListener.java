@@ -0,0 +1,30 @@
+package com.raspelikan.usbaspconsole;
+
+import org.usb4java.Device;
+
+/**
+ * Opens and closes USBasp devices plugged in or unplugged. Called by
+ * DeviceLifecycleWorker, one call at a time.
+ * 
+ * @author RasPelikan
+ */
+public interface DeviceListener {
+	
+	/**
+	 * A device was plugged in and stayed plugged in for
+	 * DeviceLifecycleWorker.DEBOUNCE_NANOS
+	 * 
+	 * @param device The device, referenced during the call only
+	 * @param plugTime The time the device was plugged in (System.nanoTime())
+	 */
+	void deviceArrived(final Device device, final long plugTime);
+	
+	/**
+	 * A device was unplugged. Also called for devices never opened, which
+	 * is to be ignored.
+	 * 
+	 * @param path The device's bus/port path
+	 */
+	void deviceLeft(final String path);
+	
+}
@@ -0,0 +1,217 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.usb4java.Context;
+import org.usb4java.Device;
+import org.usb4java.DeviceList;
+import org.usb4java.HotplugCallback;
+import org.usb4java.LibUsb;
+
+/**
+ * Detects devices plugged in or unplugged if libusb doesn't support
+ * hotplug on this system. The device list is enumerated periodically and
+ * compared to the one of the previous scan: devices are told apart by
+ * their bus number and address, which is assigned anew on every plug in,
+ * so an unchanged scan costs the enumeration and a lookup per device
+ * only. Devices new or gone are passed to the hotplug callback as if
+ * libusb had reported them, so they are handled the same way.
+ * 
+ * @author RasPelikan
+ */
+public class DevicePollingMonitor extends Thread {
+	
+	private Log log;
+	private Context context;
+	private HotplugCallback callback;
+	private long interval;
+	
+	private volatile boolean shutdown;
+	
+	// the devices of the previous scan, referenced until gone
+	private final Map<Integer, Device> snapshot = new HashMap<Integer, Device>();
+	
+	// reused for every scan to avoid garbage
+	private final Set<Integer> seen = new HashSet<Integer>();
+	
+	private volatile long scans;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param context The libusb context whose devices are enumerated
+	 * @param callback The callback devices plugged in or unplugged are passed to
+	 * @param interval The milliseconds between two scans
+	 */
+	public DevicePollingMonitor(final Log log, final Context context,
+			final HotplugCallback callback, final long interval) {
+		
+		super("USBasp+ device polling monitor");
+		setDaemon(true);
+		
+		this.log = log;
+		this.context = context;
+		this.callback = callback;
+		this.interval = interval;
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		this.shutdown = true;
+		this.interrupt();
+		
+		try {
+			
+			this.join(10000);
+			
+		} catch (InterruptedException e) {
+			// never mind
+		}
+		
+	}
+	
+	/**
+	 * the thread's main routine
+	 */
+	@Override
+	public void run() {
+		
+		try {
+			
+			// repeat unless shutdown
+			while (!shutdown) {
+				
+				try {
+					
+					scan();
+					
+				} catch (Throwable e) {
+					
+					this.log.warning("Could not enumerate USB devices", e);
+					
+				}
+				
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					// maybe shutdown called?
+				}
+				
+			}
+			
+		} finally {
+			
+			// free the devices of the last scan
+			for (final Device device : snapshot.values()) {
+				LibUsb.unrefDevice(device);
+			}
+			snapshot.clear();
+			
+		}
+		
+	}
+	
+	/**
+	 * Enumerate the devices and report the ones plugged in or unplugged
+	 * since the previous scan
+	 */
+	private void scan() {
+		
+		final DeviceList deviceList = new DeviceList();
+		final int result = LibUsb.getDeviceList(context, deviceList);
+		if (result < 0) {
+			this.log.warning("Unable to get device list: " + LibUsb.errorName(result), null);
+			return;
+		}
+		
+		try {
+			
+			seen.clear();
+			
+			for (final Device device : deviceList) {
+				
+				final Integer key = getKey(device);
+				seen.add(key);
+				
+				if (snapshot.containsKey(key)) {
+					continue;
+				}
+				
+				// kept beyond the list, needed once the device is gone
+				snapshot.put(key, LibUsb.refDevice(device));
+				processEvent(device, LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED);
+				
+			}
+			
+			final Iterator<Map.Entry<Integer, Device>> i = snapshot.entrySet().iterator();
+			while (i.hasNext()) {
+				
+				final Map.Entry<Integer, Device> entry = i.next();
+				if (seen.contains(entry.getKey())) {
+					continue;
+				}
+				i.remove();
+				
+				try {
+					processEvent(entry.getValue(), LibUsb.HOTPLUG_EVENT_DEVICE_LEFT);
+				} finally {
+					LibUsb.unrefDevice(entry.getValue());
+				}
+				
+			}
+			
+			scans = scans + 1;
+			
+		} finally {
+			
+			LibUsb.freeDeviceList(deviceList, true);
+			
+		}
+		
+	}
+	
+	/**
+	 * @return The key telling apart devices: bus number and address
+	 */
+	private static Integer getKey(final Device device) {
+		
+		return Integer.valueOf((LibUsb.getBusNumber(device) << 8)
+				| LibUsb.getDeviceAddress(device));
+		
+	}
+	
+	/**
+	 * Pass a device plugged in or unplugged to the hotplug callback
+	 */
+	private void processEvent(final Device device, final int event) {
+		
+		try {
+			
+			callback.processEvent(context, device, event, null);
+			
+		} catch (Throwable e) {
+			
+			this.log.warning("Could not handle USB device plugged in or unplugged", e);
+			
+		}
+		
+	}
+	
+	/**
+	 * @return The number of scans done
+	 */
+	public long getScans() {
+		
+		return scans;
+		
+	}
+	
+}
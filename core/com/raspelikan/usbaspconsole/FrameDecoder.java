@@ -0,0 +1,40 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the byte stream received into frames. Contributed by the
+ * extension point USBaspPlusConsole.frameDecoders. A decoder is
+ * fed chunk by chunk, so a frame may span several chunks. It is used by
+ * one thread at a time only.
+ * 
+ * @author RasPelikan
+ */
+public interface FrameDecoder {
+	
+	/**
+	 * Consume the bytes between position and limit of a chunk. The chunk is
+	 * read in place and must not be kept after returning.
+	 * 
+	 * @param chunk The bytes received, the position is moved to the limit
+	 * @param listener Called for each frame completed
+	 */
+	void decode(ByteBuffer chunk, FrameListener listener);
+	
+	/**
+	 * Forget a frame partially received
+	 */
+	void reset();
+	
+	/**
+	 * @param crcEnabled Whether each frame ends with a CRC-16 to be checked
+	 */
+	void setCrcEnabled(boolean crcEnabled);
+	
+	/**
+	 * @return The number of frames decoded, frames per second and frames
+	 *         having a bad CRC
+	 */
+	FrameStatistics getStatistics();
+	
+}
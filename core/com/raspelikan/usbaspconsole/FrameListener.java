@@ -0,0 +1,22 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames completed by a FrameDecoder
+ * 
+ * @author RasPelikan
+ */
+public interface FrameListener {
+	
+	/**
+	 * Called for each frame completed
+	 * 
+	 * @param frame The frame's bytes between position and limit (without
+	 *            framing and CRC), valid only during this call and not to
+	 *            be modified
+	 * @param crcValid False if the CRC was checked and did not match
+	 */
+	void frameDecoded(ByteBuffer frame, boolean crcValid);
+	
+}
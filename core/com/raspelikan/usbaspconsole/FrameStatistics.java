@@ -0,0 +1,93 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * Counts the frames decoded. Written by one thread only, read by any.
+ * 
+ * @author RasPelikan
+ */
+public class FrameStatistics {
+	
+	private static final long RATE_WINDOW_NANOS = 1000000000; // 1 s
+	
+	private volatile long frames;
+	private volatile long badCrcFrames;
+	private volatile long droppedFrames;
+	
+	// the rate is computed when read, guarded by this
+	private long lastRateTime = System.nanoTime();
+	private long lastFrames;
+	private double framesPerSecond;
+	
+	/**
+	 * Count a frame decoded
+	 * 
+	 * @param crcValid False if the frame's CRC did not match
+	 */
+	public void count(final boolean crcValid) {
+		
+		frames = frames + 1;
+		if (!crcValid) {
+			badCrcFrames = badCrcFrames + 1;
+		}
+		
+	}
+	
+	/**
+	 * Count a frame dropped since it was too long or malformed
+	 */
+	public void countDropped() {
+		
+		droppedFrames = droppedFrames + 1;
+		
+	}
+	
+	public long getFrames() {
+		
+		return frames;
+		
+	}
+	
+	public long getBadCrcFrames() {
+		
+		return badCrcFrames;
+		
+	}
+	
+	public long getDroppedFrames() {
+		
+		return droppedFrames;
+		
+	}
+	
+	/**
+	 * @return The rate frames were received at since the rate was updated
+	 *         last, which happens at most once a second. Drops to zero if no
+	 *         frames arrive any more.
+	 */
+	public synchronized double getFramesPerSecond() {
+		
+		final long now = System.nanoTime();
+		final long frames = this.frames;
+		
+		final long elapsed = now - lastRateTime;
+		if (elapsed >= RATE_WINDOW_NANOS) {
+			
+			framesPerSecond = (frames - lastFrames) * 1000000000.0 / elapsed;
+			lastRateTime = now;
+			lastFrames = frames;
+			
+		}
+		
+		return framesPerSecond;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("%d frames (%.1f frames/s), %d with bad CRC, %d dropped",
+				getFrames(), getFramesPerSecond(), getBadCrcFrames(), getDroppedFrames());
+		
+	}
+	
+}
@@ -0,0 +1,478 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.usb4java.Device;
+
+/**
+ * Streams the UART data of USBasp+ devices to stdout, a file or a local
+ * bridge without Eclipse. Uses the same UsbService, USBaspUsbDevice,
+ * UartReader, UartWriter, ByteRingBuffer and UartBridge as the plugin's
+ * consoles; the buffer is drained by an output thread instead of a
+ * console. Run it by
+ * 
+ * <pre>
+ * java -cp usbaspconsole-core.jar:usb4java-1.2.0.jar:libusb4java-*.jar \
+ *     com.raspelikan.usbaspconsole.HeadlessCapture [options]
+ * </pre>
+ * 
+ * @author RasPelikan
+ */
+public class HeadlessCapture implements DeviceListener {
+	
+	private static final String USAGE =
+			"Usage: HeadlessCapture [options]\n"
+			+ "  -b, --baud <rate>        baud rate (default " + USBaspProtocol.BAUDRATE_DEFAULT + ")\n"
+			+ "  -d, --device <path>      only the device plugged in at this bus/port path\n"
+			+ "  -o, --output <target>    '-' for stdout (default), a file, tcp:<port>\n"
+			+ "                           or unix:<path> for clients connecting to\n"
+			+ "                           127.0.0.1:<port> or a Unix domain socket;\n"
+			+ "                           their bytes are sent to the device (one\n"
+			+ "                           device only, see -d)\n"
+			+ "      --slow-client <p>    'disconnect' (default), 'drop-oldest' or\n"
+			+ "                           'block' for clients not keeping up\n"
+			+ "      --client-buffer <n>  bytes buffered per client (default "
+			+ UartBridge.CLIENT_BUFFER_DEFAULT + ")\n"
+			+ "  -c, --capture <dir>      also record capture files to this directory\n"
+			+ "      --async              use asynchronous USB transfers\n"
+			+ "      --simulate <spec>    no USB, stream a simulated device instead:\n"
+			+ "                           'text', 'bursts' or a capture file\n"
+			+ "  -v, --verbose            log infos to stderr too\n";
+	
+	/** the same defaults as the plugin's preferences */
+	private static final int POLL_MIN_INTERVAL = 5; // ms
+	private static final int POLL_MAX_INTERVAL = 500; // ms
+	private static final int SIMULATOR_LATENCY = 1000000; // ns
+	private static final int SIMULATOR_TRANSFER_SIZE = 1;
+	
+	/** no console drains slowly, so a buffer larger than the console's */
+	private static final int BUFFER_CAPACITY = 1 << 20;
+	private static final int CAPTURE_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int EXECUTOR_POOL_SIZE = 2;
+	
+	/** flush the output if no data arrived meanwhile */
+	private static final long MAX_WAIT_NANOS = 100000000; // 100 ms
+	
+	private final Log log;
+	private final OutputStream output;
+	private final UartBridge bridge;
+	private final int baudRate;
+	private final boolean async;
+	private final String devicePath;
+	private final File captureDirectory;
+	
+	private final DeviceExecutor executor;
+	private UsbService usbService;
+	
+	private final ConcurrentMap<String, Stream> streams = new ConcurrentHashMap<String, Stream>();
+	
+	// counted down if the output fails
+	private final CountDownLatch failed = new CountDownLatch(1);
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param output The stream all bytes received are written to or null
+	 * @param bridge The bridge all bytes received are passed to or null
+	 * @param devicePath The path of the only device to stream or null for all
+	 * @param captureDirectory The directory for capture files or null
+	 */
+	public HeadlessCapture(final Log log, final OutputStream output, final UartBridge bridge,
+			final int baudRate, final boolean async, final String devicePath,
+			final File captureDirectory) {
+		
+		this.log = log;
+		this.output = output;
+		this.bridge = bridge;
+		this.baudRate = baudRate;
+		this.async = async;
+		this.devicePath = devicePath;
+		this.captureDirectory = captureDirectory;
+		
+		this.executor = DeviceExecutor.create(log,
+				Math.min(EXECUTOR_POOL_SIZE, Runtime.getRuntime().availableProcessors()));
+		
+	}
+	
+	/**
+	 * A device's bytes passed from the reader's buffer to the output or
+	 * the bridge
+	 */
+	private class Stream extends Thread {
+		
+		private final USBaspDevice device;
+		private final ByteRingBuffer buffer;
+		private final UartReader reader;
+		private final UartWriter writer;
+		private final CaptureRecorder recorder;
+		
+		private volatile boolean shutdown;
+		
+		Stream(final String path, final USBaspDevice device) {
+			
+			super("USBasp+ output (" + path + ")");
+			setDaemon(true);
+			
+			this.device = device;
+			this.buffer = new ByteRingBuffer(BUFFER_CAPACITY,
+					ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+			this.reader = new UartReader(log, device, buffer,
+					POLL_MIN_INTERVAL, POLL_MAX_INTERVAL);
+			this.writer = new UartWriter(log, device);
+			
+			// fed by the reader, so a slow output never holds back clients
+			if (bridge != null) {
+				reader.setBridge(bridge);
+				bridge.setWriter(writer);
+			}
+			
+			if (captureDirectory != null) {
+				recorder = new CaptureRecorder(log,
+						new File(captureDirectory, path.replace(':', '_')),
+						CAPTURE_SEGMENT_SIZE);
+				recorder.start();
+				reader.setRecorder(recorder);
+			} else {
+				recorder = null;
+			}
+			
+			reader.start(executor);
+			writer.start(executor);
+			
+		}
+		
+		void enable(final long plugTime) {
+			
+			reader.enable(plugTime);
+			writer.enable();
+			
+		}
+		
+		void disable() {
+			
+			reader.disable();
+			writer.disable();
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			final byte[] bytes = new byte[8192];
+			
+			try {
+				
+				while (!shutdown) {
+					
+					final int n = buffer.read(bytes, 0, bytes.length);
+					if (n > 0) {
+						if (output != null) {
+							synchronized (output) {
+								output.write(bytes, 0, n);
+							}
+						}
+						continue;
+					}
+					
+					// idle, pass on what was written so far
+					if (output != null) {
+						synchronized (output) {
+							output.flush();
+						}
+					}
+					buffer.awaitData(MAX_WAIT_NANOS);
+					
+				}
+				
+			} catch (IOException e) {
+				
+				log.error("Could not write output, exiting", e);
+				failed.countDown();
+				
+			}
+			
+		}
+		
+		/**
+		 * shutdown and wait for being entirely shut down
+		 */
+		void shutdown() {
+			
+			disable();
+			reader.shutdown();
+			writer.shutdown();
+			
+			this.shutdown = true;
+			this.interrupt();
+			
+			try {
+				this.join(10000);
+			} catch (InterruptedException e) {
+				// never mind
+			}
+			
+			if (recorder != null) {
+				reader.setRecorder(null);
+				recorder.shutdown();
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Start streaming the devices plugged in
+	 */
+	public void startUsb() {
+		
+		usbService = new UsbService(log, this);
+		usbService.start();
+		
+	}
+	
+	/**
+	 * Start streaming a simulated device
+	 * 
+	 * @param spec See SimulatedUSBaspDevice.createGenerator
+	 */
+	public void startSimulator(final String spec) throws IOException {
+		
+		final SimulatedUSBaspDevice device = new SimulatedUSBaspDevice(
+				SimulatedUSBaspDevice.createGenerator(spec),
+				USBaspProtocol.USBASP_UART_FIFO_SIZE, SIMULATOR_TRANSFER_SIZE,
+				SIMULATOR_LATENCY);
+		device.setBaudRate(baudRate);
+		
+		final Stream stream = new Stream(spec, device);
+		streams.put(spec, stream);
+		stream.start();
+		stream.enable(System.nanoTime());
+		
+		log.info("Started simulated USBasp '" + spec + "' at baud rate '" + baudRate + "'");
+		
+	}
+	
+	/**
+	 * Stop streaming, close any device and flush the output
+	 */
+	public synchronized void stop() {
+		
+		if (usbService != null) {
+			usbService.stop();
+			usbService = null;
+		}
+		
+		for (final Stream stream : streams.values()) {
+			stream.shutdown();
+			log.info("USBasp+ output of " + stream.device + " read "
+					+ stream.device.getReadStatistics() + ", wrote "
+					+ stream.device.getWriteStatistics() + ", " + stream.buffer);
+		}
+		streams.clear();
+		
+		executor.shutdown();
+		
+		if (bridge != null) {
+			bridge.shutdown();
+			log.info("USBasp+ bridge stopped: " + bridge);
+		}
+		
+		if (output != null) {
+			try {
+				synchronized (output) {
+					output.flush();
+				}
+			} catch (IOException e) {
+				// never mind
+			}
+		}
+		
+	}
+	
+	/**
+	 * @see DeviceListener#deviceArrived(Device, long)
+	 */
+	@Override
+	public void deviceArrived(final Device device, final long plugTime) {
+		
+		final String path = USBaspUsbDevice.getPath(device);
+		if ((devicePath != null) && !devicePath.equals(path)) {
+			log.info("Ignoring USBasp plugged in at " + path);
+			return;
+		}
+		
+		// the clients of a bridge talk to one device, bytes of several
+		// devices could not be told apart
+		if ((bridge != null) && !streams.isEmpty() && !streams.containsKey(path)) {
+			log.warning("Ignoring USBasp plugged in at " + path + " since the bridge serves "
+					+ streams.keySet().iterator().next() + ", choose the device by -d", null);
+			return;
+		}
+		
+		// a port's stream is reused once a device is plugged in again
+		Stream stream = streams.get(path);
+		if (stream == null) {
+			stream = new Stream(path, new USBaspUsbDevice(path));
+			streams.put(path, stream);
+			stream.start();
+		}
+		
+		((USBaspUsbDevice) stream.device).open(device, baudRate, async);
+		stream.enable(plugTime);
+		
+		log.info("USBasp plugged in at " + path + ". Streaming at baud rate '"
+				+ baudRate + "' " + (System.nanoTime() - plugTime) / 1000000
+				+ " ms after plugging in!");
+		
+	}
+	
+	/**
+	 * @see DeviceListener#deviceLeft(String)
+	 */
+	@Override
+	public void deviceLeft(final String path) {
+		
+		final Stream stream = streams.get(path);
+		if ((stream == null) || !((USBaspUsbDevice) stream.device).isOpen()) {
+			return;
+		}
+		
+		stream.disable();
+		((USBaspUsbDevice) stream.device).close();
+		
+		log.info("USBasp at " + path + " unplugged after reading "
+				+ stream.device.getReadStatistics() + ", from plugging in to first byte: "
+				+ stream.reader.getFirstByteLatency() + ", " + stream.buffer);
+		
+	}
+	
+	/**
+	 * Open the output named on the command line
+	 * 
+	 * @param target "-" for stdout or a file
+	 */
+	static OutputStream openOutput(final String target) throws IOException {
+		
+		if ("-".equals(target)) {
+			return new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+		}
+		return new BufferedOutputStream(new FileOutputStream(target, true));
+		
+	}
+	
+	/**
+	 * Entry point
+	 */
+	public static void main(final String[] args) throws Exception {
+		
+		final long startTime = System.nanoTime();
+		
+		int baudRate = USBaspProtocol.BAUDRATE_DEFAULT;
+		String devicePath = null;
+		String target = "-";
+		File captureDirectory = null;
+		boolean async = false;
+		String simulate = null;
+		boolean verbose = false;
+		UartBridge.SlowClientPolicy policy = UartBridge.SlowClientPolicy.DISCONNECT;
+		int clientBufferSize = UartBridge.CLIENT_BUFFER_DEFAULT;
+		
+		try {
+			
+			for (int i = 0; i < args.length; ++i) {
+				
+				final String arg = args[i];
+				if ("-b".equals(arg) || "--baud".equals(arg)) {
+					baudRate = Integer.parseInt(args[++i]);
+				} else if ("-d".equals(arg) || "--device".equals(arg)) {
+					devicePath = args[++i];
+				} else if ("-o".equals(arg) || "--output".equals(arg)) {
+					target = args[++i];
+				} else if ("-c".equals(arg) || "--capture".equals(arg)) {
+					captureDirectory = new File(args[++i]);
+				} else if ("--async".equals(arg)) {
+					async = true;
+				} else if ("--simulate".equals(arg)) {
+					simulate = args[++i];
+				} else if ("--slow-client".equals(arg)) {
+					final String value = args[++i];
+					try {
+						policy = UartBridge.SlowClientPolicy.valueOf(
+								value.toUpperCase().replace('-', '_'));
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException("Unknown slow client policy '" + value + "'");
+					}
+				} else if ("--client-buffer".equals(arg)) {
+					clientBufferSize = Integer.parseInt(args[++i]);
+				} else if ("-v".equals(arg) || "--verbose".equals(arg)) {
+					verbose = true;
+				} else {
+					throw new IllegalArgumentException("Unknown option '" + arg + "'");
+				}
+				
+			}
+			
+		} catch (RuntimeException e) {
+			
+			System.err.println(e instanceof ArrayIndexOutOfBoundsException
+					? "Missing value of the last option" : e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+			
+		}
+		
+		// stdout may be the output, so log to stderr
+		final Log log = new StreamLog(System.err, verbose);
+		
+		final OutputStream output;
+		final UartBridge bridge;
+		if (target.startsWith("tcp:") || target.startsWith("unix:")) {
+			output = null;
+			bridge = new UartBridge(log, target, policy, clientBufferSize);
+			bridge.start();
+		} else {
+			output = openOutput(target);
+			bridge = null;
+		}
+		
+		final HeadlessCapture capture = new HeadlessCapture(log, output, bridge,
+				baudRate, async, devicePath, captureDirectory);
+		
+		Runtime.getRuntime().addShutdownHook(new Thread("USBasp+ shutdown") {
+			@Override
+			public void run() {
+				capture.stop();
+				if (output != null) {
+					try {
+						output.close();
+					} catch (IOException e) {
+						// never mind
+					}
+				}
+			}
+		});
+		
+		if (simulate != null) {
+			capture.startSimulator(simulate);
+		} else {
+			capture.startUsb();
+		}
+		
+		log.info("USBasp+ streaming to '" + target + "', started in "
+				+ (System.nanoTime() - startTime) / 1000000 + " ms");
+		
+		// all other threads are daemons, run until killed or the output fails
+		capture.failed.await();
+		System.exit(1);
+		
+	}
+	
+}
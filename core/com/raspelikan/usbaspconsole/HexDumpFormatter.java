@@ -0,0 +1,157 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * Formats a byte stream into rows of a hex dump, optionally followed by
+ * the printable ASCII characters. Each row starts with the stream offset
+ * of its first byte. The formatter keeps its position across calls, so
+ * rows continue seamlessly if the bytes arrive in several chunks. Only
+ * preformatted tables are used, no objects are created per byte.
+ * 
+ * @author RasPelikan
+ */
+public class HexDumpFormatter {
+	
+	public static final int BYTES_PER_ROW = 16;
+	
+	// the most bytes a single call of format or endRow may write: a row's
+	// start, the byte, the padding of an incomplete row and the ASCII column
+	public static final int MAX_BYTES_PER_FORMAT = 10 + 1 + 3 + (3 * BYTES_PER_ROW + 1)
+			+ 2 + BYTES_PER_ROW + 2;
+	
+	private static final byte[] DIGITS = { '0', '1', '2', '3', '4', '5', '6',
+			'7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	
+	// two hex digits for each byte value
+	private static final byte[] HEX_TABLE = new byte[512];
+	// the character shown in the ASCII column for each byte value
+	private static final byte[] ASCII_TABLE = new byte[256];
+	
+	static {
+		for (int i = 0; i < 256; ++i) {
+			HEX_TABLE[2 * i] = DIGITS[i >> 4];
+			HEX_TABLE[2 * i + 1] = DIGITS[i & 0x0f];
+			ASCII_TABLE[i] = (byte) ((i >= 0x20) && (i < 0x7f) ? i : '.');
+		}
+	}
+	
+	private final boolean ascii;
+	
+	private final byte[] asciiColumn = new byte[BYTES_PER_ROW];
+	private int column;
+	private long offset;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ascii Whether the ASCII column is shown
+	 */
+	public HexDumpFormatter(final boolean ascii) {
+		
+		this.ascii = ascii;
+		
+	}
+	
+	/**
+	 * Start again at offset 0 with a new row
+	 */
+	public void reset() {
+		
+		column = 0;
+		offset = 0;
+		
+	}
+	
+	/**
+	 * @return Whether the next byte starts a new row
+	 */
+	public boolean isAtRowStart() {
+		
+		return column == 0;
+		
+	}
+	
+	/**
+	 * Format one byte
+	 * 
+	 * @param b The byte
+	 * @param dst The array to write to
+	 * @param position The position in dst, at least MAX_BYTES_PER_FORMAT
+	 *            bytes have to be available
+	 * @return The new position in dst
+	 */
+	public int format(final byte b, final byte[] dst, int position) {
+		
+		final int value = b & 0xff;
+		
+		if (column == 0) {
+			
+			// offset of the row, 8 digits
+			for (int shift = 28; shift >= 0; shift -= 4) {
+				dst[position++] = DIGITS[(int) (offset >> shift) & 0x0f];
+			}
+			dst[position++] = ':';
+			dst[position++] = ' ';
+			
+		} else if (column == BYTES_PER_ROW / 2) {
+			
+			dst[position++] = ' ';
+			
+		}
+		
+		dst[position++] = HEX_TABLE[2 * value];
+		dst[position++] = HEX_TABLE[2 * value + 1];
+		dst[position++] = ' ';
+		
+		asciiColumn[column++] = ASCII_TABLE[value];
+		++offset;
+		
+		if (column == BYTES_PER_ROW) {
+			position = endRow(dst, position);
+		}
+		
+		return position;
+		
+	}
+	
+	/**
+	 * End the current row, even if not complete
+	 * 
+	 * @param dst The array to write to
+	 * @param position The position in dst, at least MAX_BYTES_PER_FORMAT
+	 *            bytes have to be available
+	 * @return The new position in dst
+	 */
+	public int endRow(final byte[] dst, int position) {
+		
+		if (column == 0) {
+			return position;
+		}
+		
+		if (ascii) {
+			
+			// align the ASCII column of incomplete rows
+			for (int i = column; i < BYTES_PER_ROW; ++i) {
+				dst[position++] = ' ';
+				dst[position++] = ' ';
+				dst[position++] = ' ';
+			}
+			if (column <= BYTES_PER_ROW / 2) {
+				dst[position++] = ' ';
+			}
+			
+			dst[position++] = ' ';
+			dst[position++] = '|';
+			System.arraycopy(asciiColumn, 0, dst, position, column);
+			position += column;
+			dst[position++] = '|';
+			
+		}
+		
+		dst[position++] = '\n';
+		column = 0;
+		
+		return position;
+		
+	}
+	
+}
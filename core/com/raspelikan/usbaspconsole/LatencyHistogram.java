@@ -0,0 +1,147 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects latency samples into buckets of logarithmic size, like an
+ * HdrHistogram: values below SUB_BUCKETS nanoseconds are counted exactly,
+ * larger ones in buckets whose width is 1/16 of their value, so any
+ * percentile is off by at most 6.25 % while the histogram has a fixed
+ * size and recording never allocates. Only one thread is supposed to add
+ * samples, any other thread may read the values while samples are added.
+ * 
+ * @author RasPelikan
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	private volatile long samples;
+	private volatile long totalNanos;
+	private volatile long maxNanos;
+	
+	/**
+	 * Add one sample
+	 * 
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void add(final long nanos) {
+		
+		final long value = Math.max(0, nanos);
+		final int index = getIndex(value);
+		
+		// there is one writer only, so no compare and set is needed
+		counts.lazySet(index, counts.get(index) + 1);
+		this.samples = this.samples + 1;
+		this.totalNanos = this.totalNanos + value;
+		if (value > this.maxNanos) {
+			this.maxNanos = value;
+		}
+		
+	}
+	
+	/**
+	 * @return The index of the bucket counting the given value
+	 */
+	private static int getIndex(final long value) {
+		
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		
+		final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - HALF_SUB_BUCKETS;
+		
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket;
+		
+	}
+	
+	/**
+	 * @return The largest value counted by the bucket of the given index
+	 */
+	private static long getHighestValue(final int index) {
+		
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		
+		final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		final long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		
+		return ((subBucket + 1) << shift) - 1;
+		
+	}
+	
+	/**
+	 * @return The number of samples
+	 */
+	public long getSamples() {
+		
+		return samples;
+		
+	}
+	
+	/**
+	 * @param percentile The percentile, e.g. 99.9
+	 * @return The latency in nanoseconds not exceeded by the given
+	 *         percentage of samples, 0 if there are no samples
+	 */
+	public long getPercentile(final double percentile) {
+		
+		final long samples = this.samples;
+		if (samples == 0) {
+			return 0;
+		}
+		
+		final long rank = Math.max(1, (long) Math.ceil(samples * percentile / 100.0));
+		
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			count += counts.get(i);
+			if (count >= rank) {
+				return Math.min(getHighestValue(i), maxNanos);
+			}
+		}
+		
+		return maxNanos;
+		
+	}
+	
+	/**
+	 * @return The average latency in nanoseconds
+	 */
+	public long getAverage() {
+		
+		final long samples = this.samples;
+		if (samples == 0) {
+			return 0;
+		}
+		
+		return this.totalNanos / samples;
+		
+	}
+	
+	/**
+	 * @return The maximum latency in nanoseconds
+	 */
+	public long getMax() {
+		
+		return maxNanos;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max. %.3f ms (%d samples)",
+				getPercentile(50) / 1000000.0, getPercentile(99) / 1000000.0,
+				getPercentile(99.9) / 1000000.0, getMax() / 1000000.0, getSamples());
+		
+	}
+	
+}
@@ -0,0 +1,70 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * Collects latency samples. Only one thread is supposed to add samples,
+ * any other thread may read the values.
+ * 
+ * @author RasPelikan
+ */
+public class LatencyStatistics {
+
+	private volatile long samples;
+	private volatile long totalNanos;
+	private volatile long maxNanos;
+	
+	/**
+	 * Add one sample
+	 * 
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void add(final long nanos) {
+		
+		this.samples = this.samples + 1;
+		this.totalNanos = this.totalNanos + nanos;
+		if (nanos > this.maxNanos) {
+			this.maxNanos = nanos;
+		}
+		
+	}
+	
+	/**
+	 * @return The number of samples
+	 */
+	public long getSamples() {
+		
+		return samples;
+		
+	}
+	
+	/**
+	 * @return The average latency in milliseconds
+	 */
+	public double getAverageMillis() {
+		
+		final long samples = this.samples;
+		if (samples == 0) {
+			return 0;
+		}
+		
+		return this.totalNanos / 1000000.0 / samples;
+		
+	}
+	
+	/**
+	 * @return The maximum latency in milliseconds
+	 */
+	public double getMaxMillis() {
+		
+		return this.maxNanos / 1000000.0;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("average %.1f ms, max. %.1f ms (%d samples)",
+				getAverageMillis(), getMaxMillis(), getSamples());
+		
+	}
+	
+}
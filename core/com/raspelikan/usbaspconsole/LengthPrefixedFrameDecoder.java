@@ -0,0 +1,92 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes frames prefixed by their length (two bytes, big endian). Frames
+ * lying entirely in a chunk are passed without copying.
+ * 
+ * @author RasPelikan
+ */
+public class LengthPrefixedFrameDecoder extends AbstractFrameDecoder {
+	
+	private static final int PREFIX_SIZE = 2;
+	
+	// bytes of the length prefix received so far
+	private int prefixLength;
+	private int length;
+	// bytes of a frame too long still to be skipped
+	private int skip;
+	
+	@Override
+	public void decode(final ByteBuffer chunk, final FrameListener listener) {
+		
+		while (chunk.hasRemaining()) {
+			
+			if (skip > 0) {
+				final int n = Math.min(skip, chunk.remaining());
+				chunk.position(chunk.position() + n);
+				skip -= n;
+				continue;
+			}
+			
+			if (prefixLength < PREFIX_SIZE) {
+				
+				length = (length << 8) | (chunk.get() & 0xff);
+				if (++prefixLength < PREFIX_SIZE) {
+					continue;
+				}
+				if (length > MAX_FRAME_SIZE) {
+					frameDropped();
+					skip = length;
+					prefixLength = 0;
+					length = 0;
+				} else if (length == 0) {
+					frameCompleted(listener);
+					prefixLength = 0;
+				}
+				continue;
+				
+			}
+			
+			final int missing = length - frameLength;
+			if ((frameLength == 0) && (chunk.remaining() >= missing)) {
+				
+				// the whole frame is in the chunk: pass it in place
+				final int limit = chunk.limit();
+				final int end = chunk.position() + missing;
+				chunk.limit(end);
+				frameCompleted(chunk, listener);
+				chunk.limit(limit);
+				chunk.position(end);
+				
+			} else {
+				
+				final int n = Math.min(missing, chunk.remaining());
+				chunk.get(frame, frameLength, n);
+				frameLength += n;
+				if (frameLength < length) {
+					continue;
+				}
+				frameCompleted(listener);
+				
+			}
+			
+			prefixLength = 0;
+			length = 0;
+			
+		}
+		
+	}
+	
+	@Override
+	public void reset() {
+		
+		super.reset();
+		prefixLength = 0;
+		length = 0;
+		skip = 0;
+		
+	}
+	
+}
@@ -0,0 +1,23 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * The log the core classes report to. Inside Eclipse it is the plugin's
+ * error log (see EclipseLog), headless it is stderr (see StreamLog).
+ * 
+ * @author RasPelikan
+ */
+public interface Log {
+	
+	void info(final String message);
+	
+	/**
+	 * @param e The cause or null
+	 */
+	void warning(final String message, final Throwable e);
+	
+	/**
+	 * @param e The cause or null
+	 */
+	void error(final String message, final Throwable e);
+	
+}
@@ -0,0 +1,103 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * Calculates how long to wait before polling the device again. While data
+ * is arriving the device is polled at the minimum interval, while it is idle
+ * the interval is doubled on every poll up to the maximum interval. Both
+ * are bounded by the interval limit.
+ * 
+ * @author RasPelikan
+ */
+public class PollingScheduler {
+
+	private volatile long minInterval;
+	private volatile long maxInterval;
+	private volatile long intervalLimit = Long.MAX_VALUE;
+	
+	private long currentInterval;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param minInterval The interval used while data is arriving in ms
+	 * @param maxInterval The interval used for an idle device in ms
+	 */
+	public PollingScheduler(final long minInterval, final long maxInterval) {
+		
+		setIntervals(minInterval, maxInterval);
+		this.currentInterval = this.minInterval;
+		
+	}
+	
+	/**
+	 * Change the intervals, takes effect on next poll
+	 * 
+	 * @param minInterval The interval used while data is arriving in ms
+	 * @param maxInterval The interval used for an idle device in ms
+	 */
+	public void setIntervals(final long minInterval, final long maxInterval) {
+		
+		this.minInterval = Math.max(0, minInterval);
+		this.maxInterval = Math.max(this.minInterval, maxInterval);
+		
+	}
+	
+	/**
+	 * Limit the intervals regardless of the intervals configured, e.g. to
+	 * avoid overflows of the device's receive buffer. Data arriving at an
+	 * idle device has to be fetched in time as well, so the limit bounds
+	 * the backoff too.
+	 * 
+	 * @param intervalLimit The longest interval allowed in ms
+	 */
+	public void setIntervalLimit(final long intervalLimit) {
+		
+		this.intervalLimit = intervalLimit;
+		
+	}
+	
+	/**
+	 * @param dataArrived Whether the last poll returned any data
+	 * @return The time to wait before the next poll in ms (0 = poll immediately)
+	 */
+	public long nextInterval(final boolean dataArrived) {
+		
+		final long intervalLimit = this.intervalLimit;
+		final long minInterval = Math.min(this.minInterval, intervalLimit);
+		final long maxInterval = Math.min(this.maxInterval, intervalLimit);
+		
+		if (dataArrived) {
+			
+			currentInterval = minInterval;
+			
+		} else {
+			
+			// back off exponentially while the device is idle
+			currentInterval = Math.min(maxInterval,
+					Math.max(1, Math.max(minInterval, currentInterval * 2)));
+			
+		}
+		
+		return currentInterval;
+		
+	}
+	
+	/**
+	 * @return The minimum interval in ms
+	 */
+	public long getMinInterval() {
+		
+		return minInterval;
+		
+	}
+	
+	/**
+	 * @return The maximum interval in ms
+	 */
+	public long getMaxInterval() {
+		
+		return maxInterval;
+		
+	}
+	
+}
@@ -0,0 +1,674 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A USBasp+ device simulated in software, used to measure the throughput
+ * of the reader, decoder and console without any hardware. The bytes sent
+ * by the MCU are taken from a Generator and received at the baud rate set
+ * into a receive buffer of the firmware's size. Bytes received while the
+ * buffer is full are lost and counted as overruns, just like the
+ * firmware does. Every control transfer takes the configured latency, so
+ * polling costs as much time as with a real device.
+ * <p>
+ * The simulation runs in real time: the bytes received are calculated by
+ * System.nanoTime() on every transfer, so nothing happens between
+ * transfers and the simulator needs no thread of its own.
+ * 
+ * @author RasPelikan
+ */
+public class SimulatedUSBaspDevice implements USBaspDevice {
+	
+	private static final int CHUNK_SIZE = 4096;
+	
+	/**
+	 * The source of the bytes sent by the simulated MCU
+	 */
+	public interface Generator {
+		
+		/**
+		 * Produce the next bytes sent by the MCU
+		 * 
+		 * @param dst The buffer to fill
+		 * @return The nanoseconds the line is idle before the bytes produced,
+		 *         0 to send them right after the previous ones or less than
+		 *         0 if there is no more data
+		 */
+		long next(final ByteBuffer dst);
+		
+	}
+	
+	private final Generator generator;
+	private final int fifoSize;
+	private final int transferSize;
+	private final long transferLatency;
+	
+	private final TransferStatistics readStatistics = new TransferStatistics();
+	private final TransferStatistics writeStatistics = new TransferStatistics();
+	
+	// the firmware's receive buffer, guarded by this
+	private final byte[] fifo;
+	private int fifoHead;
+	private int fifoCount;
+	
+	// the bytes on the line not received yet, guarded by this
+	private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+	private long lineFreeTime;
+	private long nextByteTime;
+	private boolean exhausted;
+	
+	private volatile int baudRate = 9600;
+	private long byteNanos = byteNanos(9600);
+	
+	private boolean overrunInProgress;
+	private volatile long overruns;
+	private volatile long lostBytes;
+	private volatile long receivedBytes;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param generator The source of the bytes sent by the MCU
+	 * @param fifoSize The size of the firmware's receive buffer
+	 * @param transferSize The number of bytes passed per read transfer at
+	 *            most: 1 for the original firmware
+	 * @param transferLatency The nanoseconds each control transfer takes
+	 */
+	public SimulatedUSBaspDevice(final Generator generator, final int fifoSize,
+			final int transferSize, final long transferLatency) {
+		
+		this.generator = generator;
+		this.fifoSize = fifoSize;
+		this.transferSize = Math.max(1, transferSize);
+		this.transferLatency = transferLatency;
+		this.fifo = new byte[fifoSize];
+		
+		this.chunk.flip();
+		this.lineFreeTime = System.nanoTime();
+		
+	}
+	
+	/**
+	 * Build a generator by a textual specification
+	 * 
+	 * @param spec "text" for text lines, "bursts" for binary bursts or the
+	 *            path of a capture file or a directory of capture files to
+	 *            be replayed
+	 */
+	public static Generator createGenerator(final String spec) throws IOException {
+		
+		if ("text".equals(spec)) {
+			return new TextLines(10000000); // 10 ms
+		}
+		if ("bursts".equals(spec)) {
+			return new BinaryBursts(256, 100000000); // 100 ms
+		}
+		
+		return new CaptureReplay(new File(spec), 1.0);
+		
+	}
+	
+	/**
+	 * @return The nanoseconds one byte takes on the line
+	 */
+	private static long byteNanos(final int baudRate) {
+		
+		return UartTiming.BITS_PER_BYTE * 1000000000L / Math.max(1, baudRate);
+		
+	}
+	
+	/**
+	 * Wait as long as a control transfer takes and receive the bytes sent
+	 * meanwhile
+	 */
+	private void transfer() {
+		
+		if (transferLatency > 0) {
+			final long deadline = System.nanoTime() + transferLatency;
+			long remaining = transferLatency;
+			while (remaining > 0) {
+				LockSupport.parkNanos(remaining);
+				remaining = deadline - System.nanoTime();
+			}
+		}
+		
+		synchronized (this) {
+			receive(System.nanoTime());
+		}
+		
+	}
+	
+	/**
+	 * Move all bytes completely sent on the line until the given time into
+	 * the receive buffer
+	 */
+	private void receive(final long now) {
+		
+		while (true) {
+			
+			if (!chunk.hasRemaining()) {
+				
+				if (exhausted || (lineFreeTime > now)) {
+					return;
+				}
+				
+				chunk.clear();
+				final long gap = generator.next(chunk);
+				chunk.flip();
+				
+				if ((gap < 0) || ((gap == 0) && !chunk.hasRemaining())) {
+					exhausted = true;
+					return;
+				}
+				
+				lineFreeTime += gap;
+				nextByteTime = lineFreeTime + byteNanos;
+				continue;
+				
+			}
+			
+			if (nextByteTime > now) {
+				return;
+			}
+			
+			final byte b = chunk.get();
+			lineFreeTime = nextByteTime;
+			nextByteTime += byteNanos;
+			receivedBytes = receivedBytes + 1;
+			
+			// the firmware drops bytes received while its buffer is full
+			if (fifoCount == fifoSize) {
+				
+				lostBytes = lostBytes + 1;
+				if (!overrunInProgress) {
+					overruns = overruns + 1;
+					overrunInProgress = true;
+				}
+				continue;
+				
+			}
+			
+			fifo[(fifoHead + fifoCount) % fifoSize] = b;
+			++fifoCount;
+			
+		}
+		
+	}
+	
+	/**
+	 * Take up to the given number of bytes out of the receive buffer
+	 */
+	private synchronized int take(final ByteBuffer dst, final int length) {
+		
+		final int numberOfBytes = Math.min(length, fifoCount);
+		for (int i = 0; i < numberOfBytes; ++i) {
+			dst.put(fifo[fifoHead]);
+			fifoHead = (fifoHead + 1) % fifoSize;
+		}
+		fifoCount -= numberOfBytes;
+		
+		if (numberOfBytes > 0) {
+			overrunInProgress = false;
+		}
+		
+		return numberOfBytes;
+		
+	}
+	
+	@Override
+	public int getNumberOfBytesAvailable() {
+		
+		transfer();
+		
+		final int numberOfBytesAvailable;
+		synchronized (this) {
+			numberOfBytesAvailable = fifoCount;
+		}
+		
+		// a status query, no UART bytes
+		readStatistics.count(0);
+		
+		return numberOfBytesAvailable;
+		
+	}
+	
+	@Override
+	public int getByte() {
+		
+		transfer();
+		
+		final ByteBuffer dst = ByteBuffer.allocate(1);
+		final int numberOfBytes = take(dst, 1);
+		readStatistics.count(numberOfBytes);
+		
+		if (numberOfBytes == 0) {
+			return NO_DATA;
+		}
+		
+		return dst.get(0) & 0xff;
+		
+	}
+	
+	@Override
+	public String getString() {
+		
+		final ByteBuffer bytesRead = ByteBuffer.allocate(256);
+		
+		final int numberOfBytesRead = read(bytesRead);
+		if (numberOfBytesRead == 0) {
+			return null;
+		}
+		
+		final StringBuffer result = new StringBuffer(numberOfBytesRead);
+		
+		for (int i = 0; i < numberOfBytesRead; ++i) {
+			
+			result.append((char) (bytesRead.get(i) & 0xff));
+			
+		}
+		
+		return result.toString();
+		
+	}
+	
+	/**
+	 * Read like the firmware is read: ask for the number of bytes available
+	 * once, afterwards fetch them by transfers of transferSize bytes
+	 */
+	@Override
+	public int read(final ByteBuffer dst) {
+		
+		int numberOfBytesToRead = Math.min(getNumberOfBytesAvailable(), dst.remaining());
+		
+		int numberOfBytesRead = 0;
+		while (numberOfBytesToRead > 0) {
+			
+			transfer();
+			
+			final int bytesReceived = take(dst, Math.min(numberOfBytesToRead, transferSize));
+			readStatistics.count(bytesReceived);
+			if (bytesReceived == 0) {
+				break;
+			}
+			
+			numberOfBytesRead += bytesReceived;
+			numberOfBytesToRead -= bytesReceived;
+			
+		}
+		
+		return numberOfBytesRead;
+		
+	}
+	
+	@Override
+	public TransferStatistics getReadStatistics() {
+		
+		return readStatistics;
+		
+	}
+	
+	/**
+	 * Bytes sent to the simulated MCU are accepted one per transfer and
+	 * discarded
+	 */
+	@Override
+	public int write(final ByteBuffer src) {
+		
+		if (!src.hasRemaining()) {
+			return 0;
+		}
+		
+		transfer();
+		
+		src.position(src.position() + 1);
+		writeStatistics.count(1);
+		
+		return 1;
+		
+	}
+	
+	@Override
+	public TransferStatistics getWriteStatistics() {
+		
+		return writeStatistics;
+		
+	}
+	
+	@Override
+	public void setBaudRate(final int baudRate) {
+		
+		transfer();
+		
+		// bytes sent before are received at the previous baud rate
+		synchronized (this) {
+			this.byteNanos = byteNanos(baudRate);
+			if (chunk.hasRemaining()) {
+				this.nextByteTime = Math.max(lineFreeTime, System.nanoTime()) + byteNanos;
+			}
+			this.baudRate = baudRate;
+		}
+		
+	}
+	
+	@Override
+	public int getBaudRate() {
+		
+		return baudRate;
+		
+	}
+	
+	@Override
+	public long getOverruns() {
+		
+		return overruns;
+		
+	}
+	
+	/**
+	 * @return The number of bytes lost by overruns
+	 */
+	public long getLostBytes() {
+		
+		return lostBytes;
+		
+	}
+	
+	/**
+	 * @return The number of bytes received from the line, including the ones lost
+	 */
+	public long getReceivedBytes() {
+		
+		return receivedBytes;
+		
+	}
+	
+	@Override
+	public int testCmd1() {
+		
+		transfer();
+		return 0;
+		
+	}
+	
+	@Override
+	public int testCmd2() {
+		
+		transfer();
+		return 0;
+		
+	}
+	
+	@Override
+	public int testCmd3() {
+		
+		transfer();
+		return 0;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("simulated USBasp (%d bytes received, %d lost by %d overruns)",
+				getReceivedBytes(), getLostBytes(), getOverruns());
+		
+	}
+	
+	/**
+	 * Text lines "line n" sent at a fixed interval
+	 */
+	public static class TextLines implements Generator {
+		
+		private final long interval;
+		private long lineNumber;
+		
+		/**
+		 * @param interval The nanoseconds between two lines, 0 to send
+		 *            lines back to back
+		 */
+		public TextLines(final long interval) {
+			
+			this.interval = interval;
+			
+		}
+		
+		@Override
+		public long next(final ByteBuffer dst) {
+			
+			++lineNumber;
+			final String line = "line " + lineNumber + "\r\n";
+			for (int i = 0; i < line.length(); ++i) {
+				dst.put((byte) line.charAt(i));
+			}
+			
+			return lineNumber == 1 ? 0 : interval;
+			
+		}
+		
+	}
+	
+	/**
+	 * Binary bursts of a fixed size sent at a fixed interval. The bytes
+	 * count up from 0 to 255 and wrap around, so a consumer can tell bytes
+	 * lost.
+	 */
+	public static class BinaryBursts implements Generator {
+		
+		private final int burstSize;
+		private final long interval;
+		private int value;
+		private boolean started;
+		
+		/**
+		 * @param burstSize The number of bytes per burst
+		 * @param interval The nanoseconds between two bursts, 0 to send a
+		 *            continuous stream (worst case)
+		 */
+		public BinaryBursts(final int burstSize, final long interval) {
+			
+			this.burstSize = burstSize;
+			this.interval = interval;
+			
+		}
+		
+		@Override
+		public long next(final ByteBuffer dst) {
+			
+			final int length = Math.min(burstSize, dst.remaining());
+			for (int i = 0; i < length; ++i) {
+				dst.put((byte) value);
+				value = (value + 1) & 0xff;
+			}
+			
+			final long gap = started ? interval : 0;
+			started = true;
+			
+			return gap;
+			
+		}
+		
+	}
+	
+	/**
+	 * Replays files written by CaptureRecorder. The time between the
+	 * records' arrival, scaled by a speed factor, is used as the gap in
+	 * front of each record: since sending a record takes time as well the
+	 * replay is slightly slower than the original at high rates.
+	 */
+	public static class CaptureReplay implements Generator {
+		
+		private final File[] files;
+		private final double speed;
+		
+		private int fileIndex;
+		private DataInputStream input;
+		
+		// the record not passed on completely yet
+		private final byte[] record = new byte[CHUNK_SIZE];
+		private long recordTimestamp;
+		private int recordLength;
+		private int recordOffset;
+		private long lastTimestamp;
+		
+		/**
+		 * @param file A capture file or a directory whose capture files
+		 *            are replayed in the order of their names
+		 * @param speed 1 to replay in the original timing, 2 for twice as
+		 *            fast and so on
+		 */
+		public CaptureReplay(final File file, final double speed) throws IOException {
+			
+			if (file.isDirectory()) {
+				
+				this.files = file.listFiles(new FileFilter() {
+					@Override
+					public boolean accept(final File candidate) {
+						return candidate.getName().endsWith(CaptureRecorder.FILE_SUFFIX);
+					}
+				});
+				Arrays.sort(this.files);
+				
+			} else if (file.isFile()) {
+				
+				this.files = new File[] { file };
+				
+			} else {
+				
+				throw new IOException("No capture file found at " + file);
+				
+			}
+			
+			this.speed = speed;
+			
+		}
+		
+		@Override
+		public long next(final ByteBuffer dst) {
+			
+			long gap = 0;
+			
+			if (recordOffset == recordLength) {
+				
+				try {
+					
+					if (!nextRecord()) {
+						return -1;
+					}
+					
+				} catch (IOException e) {
+					
+					close();
+					return -1;
+					
+				}
+				
+				// the first record of each file is sent immediately
+				if (lastTimestamp != 0) {
+					gap = Math.max(0, (long) ((recordTimestamp - lastTimestamp) / speed));
+				}
+				lastTimestamp = recordTimestamp;
+				
+			}
+			
+			final int length = Math.min(dst.remaining(), recordLength - recordOffset);
+			dst.put(record, recordOffset, length);
+			recordOffset += length;
+			
+			return gap;
+			
+		}
+		
+		/**
+		 * Read the next record of the current file or the next file
+		 * 
+		 * @return false if there are no more records
+		 */
+		private boolean nextRecord() throws IOException {
+			
+			while (true) {
+				
+				if (input == null) {
+					
+					if (fileIndex == files.length) {
+						return false;
+					}
+					openFile(files[fileIndex++]);
+					
+				}
+				
+				try {
+					
+					recordTimestamp = input.readLong();
+					recordLength = input.readInt();
+					recordOffset = 0;
+					
+				} catch (EOFException e) {
+					
+					recordLength = 0;
+					
+				}
+				
+				if ((recordLength <= 0) || (recordLength > record.length)) {
+					
+					// end of the segment
+					close();
+					continue;
+					
+				}
+				
+				input.readFully(record, 0, recordLength);
+				return true;
+				
+			}
+			
+		}
+		
+		/**
+		 * Open a capture file and skip its header
+		 */
+		private void openFile(final File file) throws IOException {
+			
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			
+			final byte[] magic = new byte[CaptureRecorder.MAGIC.length];
+			input.readFully(magic);
+			if (!Arrays.equals(magic, CaptureRecorder.MAGIC)) {
+				close();
+				throw new IOException(file + " is not a capture file");
+			}
+			input.readLong(); // wall clock time
+			input.readLong(); // nano time
+			
+			// timestamps of files recorded in other sessions or after a
+			// pause are not comparable, the time base starts anew
+			lastTimestamp = 0;
+			
+		}
+		
+		private void close() {
+			
+			if (input == null) {
+				return;
+			}
+			
+			try {
+				input.close();
+			} catch (IOException e) {
+				// never mind
+			}
+			input = null;
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,83 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes SLIP frames (RFC 1055): frames end by 0xc0, 0xdb escapes 0xc0
+ * (as 0xdb 0xdc) and itself (as 0xdb 0xdd).
+ * 
+ * @author RasPelikan
+ */
+public class SlipFrameDecoder extends AbstractFrameDecoder {
+	
+	private static final byte END = (byte) 0xc0;
+	private static final byte ESC = (byte) 0xdb;
+	private static final byte ESC_END = (byte) 0xdc;
+	private static final byte ESC_ESC = (byte) 0xdd;
+	
+	private boolean escaped;
+	private boolean dropping;
+	
+	@Override
+	public void decode(final ByteBuffer chunk, final FrameListener listener) {
+		
+		while (chunk.hasRemaining()) {
+			
+			final byte b = chunk.get();
+			
+			if (b == END) {
+				
+				// empty frames are sent to flush line noise
+				if (dropping) {
+					dropping = false;
+				} else if (escaped) {
+					frameDropped();
+				} else if (frameLength > 0) {
+					frameCompleted(listener);
+				}
+				escaped = false;
+				continue;
+				
+			}
+			
+			if (dropping) {
+				continue;
+			}
+			
+			final byte value;
+			if (escaped) {
+				escaped = false;
+				if (b == ESC_END) {
+					value = END;
+				} else if (b == ESC_ESC) {
+					value = ESC;
+				} else {
+					// protocol violation, take the byte as it is like RFC 1055
+					value = b;
+				}
+			} else if (b == ESC) {
+				escaped = true;
+				continue;
+			} else {
+				value = b;
+			}
+			
+			if (!append(value)) {
+				frameDropped();
+				dropping = true;
+			}
+			
+		}
+		
+	}
+	
+	@Override
+	public void reset() {
+		
+		super.reset();
+		escaped = false;
+		dropping = false;
+		
+	}
+	
+}
@@ -0,0 +1,65 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A log writing to a stream, used if running headless
+ * 
+ * @author RasPelikan
+ */
+public class StreamLog implements Log {
+	
+	private final PrintStream out;
+	private final boolean verbose;
+	
+	// guarded by this
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+	
+	/**
+	 * @param out The stream to write to
+	 * @param verbose Whether to write infos too
+	 */
+	public StreamLog(final PrintStream out, final boolean verbose) {
+		
+		this.out = out;
+		this.verbose = verbose;
+		
+	}
+	
+	@Override
+	public void info(final String message) {
+		
+		if (verbose) {
+			log("INFO", message, null);
+		}
+		
+	}
+	
+	@Override
+	public void warning(final String message, final Throwable e) {
+		
+		log("WARNING", message, e);
+		
+	}
+	
+	@Override
+	public void error(final String message, final Throwable e) {
+		
+		log("ERROR", message, e);
+		
+	}
+	
+	private synchronized void log(final String level, final String message,
+			final Throwable e) {
+		
+		out.println(timeFormat.format(new Date()) + " " + level + " " + message);
+		if (e != null) {
+			e.printStackTrace(out);
+		}
+		out.flush();
+		
+	}
+	
+}
@@ -0,0 +1,67 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * Counts USB transfers and the number of bytes they carried. Only one thread
+ * (the one talking to the device) is supposed to count, any other thread
+ * may read the values.
+ * 
+ * @author RasPelikan
+ */
+public class TransferStatistics {
+
+	private volatile long transfers;
+	private volatile long bytes;
+	
+	/**
+	 * Count one USB transfer
+	 * 
+	 * @param bytesTransferred The number of payload bytes of the transfer
+	 */
+	public void count(final int bytesTransferred) {
+		
+		this.transfers = this.transfers + 1;
+		this.bytes = this.bytes + bytesTransferred;
+		
+	}
+	
+	/**
+	 * @return The number of USB transfers
+	 */
+	public long getTransfers() {
+		
+		return transfers;
+		
+	}
+	
+	/**
+	 * @return The number of payload bytes transferred
+	 */
+	public long getBytes() {
+		
+		return bytes;
+		
+	}
+	
+	/**
+	 * @return The average number of payload bytes per USB transfer
+	 */
+	public double getBytesPerTransfer() {
+		
+		final long transfers = this.transfers;
+		if (transfers == 0) {
+			return 0;
+		}
+		
+		return (double) this.bytes / transfers;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("%d bytes in %d USB transfers (%.2f bytes per transfer)",
+				getBytes(), getTransfers(), getBytesPerTransfer());
+		
+	}
+	
+}
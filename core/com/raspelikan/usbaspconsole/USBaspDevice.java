@@ -0,0 +1,106 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summarize USBasp+ functionality
+ * 
+ * @author RasPelikan
+ */
+public interface USBaspDevice {
+
+	/**
+	 * Returned instead of a byte if the device did not send any data
+	 */
+	int NO_DATA = -1;
+
+	/**
+	 * Retrieve the number of bytes available (received from connected MCU) 
+	 * which are ready to retrieve
+	 * 
+	 * @return The number of bytes
+	 */
+	int getNumberOfBytesAvailable();
+	
+	/**
+	 * Retrieve one byte (previously received from connected MCU)
+	 * 
+	 * @return The byte (0-255) or NO_DATA if no byte was available
+	 */
+	int getByte();
+	
+	String getString();
+
+	/**
+	 * Read the bytes available (received from connected MCU) into the given
+	 * buffer. Several bytes are fetched per USB transfer if the firmware
+	 * supports it.
+	 * 
+	 * @param dst The buffer to fill, at most dst.remaining() bytes are read
+	 * @return The number of bytes read, 0 if there was nothing to read
+	 */
+	int read(final ByteBuffer dst);
+	
+	/**
+	 * @return The number of USB transfers and bytes used for reading
+	 */
+	TransferStatistics getReadStatistics();
+	
+	/**
+	 * Send bytes to the connected MCU. Several bytes are passed per USB
+	 * transfer if the firmware supports it.
+	 * 
+	 * @param src The bytes to send, the position is moved by the number of
+	 *            bytes sent
+	 * @return The number of bytes sent, 0 if the device did not accept any
+	 */
+	int write(final ByteBuffer src);
+	
+	/**
+	 * @return The number of USB transfers and bytes used for writing
+	 */
+	TransferStatistics getWriteStatistics();
+
+	/**
+	 * Used to set the baud rate
+	 * 
+	 * @param deviceHandle
+	 * @param baudRate
+	 */
+	void setBaudRate(final int baudRate);
+	
+	/**
+	 * @return The baud rate set most recently
+	 */
+	int getBaudRate();
+	
+	/**
+	 * Overruns are detected if the device reports its receive buffer to be
+	 * full since any bytes received meanwhile got lost.
+	 * 
+	 * @return The number of receive buffer overruns detected
+	 */
+	long getOverruns();
+	
+	/**
+	 * Test command
+	 * 
+	 * @return test result
+	 */
+	int testCmd1();
+	
+	/**
+	 * Test command
+	 * 
+	 * @return test result
+	 */
+	int testCmd2();
+	
+	/**
+	 * Test command
+	 * 
+	 * @return test result
+	 */
+	int testCmd3();
+	
+}
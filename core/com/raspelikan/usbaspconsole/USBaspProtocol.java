@@ -0,0 +1,38 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * The USB ids and vendor requests of the USBasp+ firmware. Kept apart from
+ * the activator so the device classes do not depend on Eclipse.
+ * 
+ * @author RasPelikan
+ */
+public final class USBaspProtocol {
+	
+	public static final short USBasp_idVendor = 5824;
+	public static final short USBasp_idProduct = 1500;
+	public static final short USBasp_interface = 0;
+	
+	public static final byte USBASP_FUNC_UART_PUTBYTE = 50;
+	public static final byte USBASP_FUNC_UART_GETBYTE = 51;
+	public static final byte USBASP_FUNC_UART_GETBYTECOUNT = 52;
+	public static final byte USBASP_FUNC_UART_SETBAUDRATE = 53;
+	public static final byte USBASP_RESULT_UART_SETBAUDRATE = 0x53;
+	public static final byte USBASP_FUNC_TEST_CMD1 = 61;
+	public static final byte USBASP_FUNC_TEST_CMD2 = 62;
+	public static final byte USBASP_FUNC_TEST_CMD3 = 63;
+	
+	/** max. payload of one control transfer of a low speed device */
+	public static final int USBASP_MAX_TRANSFER_SIZE = 8;
+	/** size of the USBasp+ firmware's UART receive buffer */
+	public static final int USBASP_UART_FIFO_SIZE = 64;
+	/** max. bytes passed by wValue and wIndex of one packed write */
+	public static final int USBASP_MAX_PACKED_WRITE_SIZE = 4;
+	
+	/** the baud rate used unless configured otherwise */
+	public static final int BAUDRATE_DEFAULT = 9600;
+	
+	private USBaspProtocol() {
+		// constants only
+	}
+	
+}
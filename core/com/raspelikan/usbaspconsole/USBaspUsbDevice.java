@@ -0,0 +1,522 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+
+import org.usb4java.Device;
+import org.usb4java.DeviceHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+
+/**
+ * One USBasp+ device connected by libusb. Every device has its own handle,
+ * transfer buffers and statistics and all transfers are synchronized on the
+ * device itself, so the readers of several devices never share a lock.
+ * The object outlives the handle: if the device is plugged in again at the
+ * same port it is opened again.
+ * 
+ * @author RasPelikan
+ */
+public class USBaspUsbDevice implements USBaspDevice {
+	
+	// max. depth of USB hubs
+	private static final int MAX_PORT_NUMBERS = 7;
+	
+	private final String path;
+	
+	private DeviceHandle usbaspDeviceHandle;
+	private boolean usbDetachedFromSystemDriver;
+	private volatile UsbAsyncTransferEngine asyncTransferEngine;
+	private volatile int baudRate = USBaspProtocol.BAUDRATE_DEFAULT;
+	private volatile long overruns;
+	private final TransferStatistics readStatistics = new TransferStatistics();
+	private final TransferStatistics writeStatistics = new TransferStatistics();
+	private volatile boolean packedWrites = false;
+	
+	/**
+	 * Direct buffers reused for every control transfer. The buffer at index
+	 * n has a capacity of n + 1 bytes since the capacity determines the
+	 * number of bytes requested. Used by the thread talking to the device only.
+	 */
+	private final ByteBuffer[] transferBuffers =
+			new ByteBuffer[USBaspProtocol.USBASP_MAX_TRANSFER_SIZE];
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param path The bus/port path the device is plugged in at
+	 */
+	public USBaspUsbDevice(final String path) {
+		
+		this.path = path;
+		
+		for (int i = 0; i < transferBuffers.length; ++i) {
+			transferBuffers[i] = ByteBuffer.allocateDirect(i + 1);
+		}
+		
+	}
+	
+	/**
+	 * The path identifies the port a device is plugged in at, e.g. "1-2.4"
+	 * for port 4 of the hub at port 2 of bus 1. Unlike the device's address
+	 * it stays the same if the device is plugged in again.
+	 * 
+	 * @param device The libusb device
+	 * @return The bus/port path
+	 */
+	public static String getPath(final Device device) {
+		
+		final StringBuilder path = new StringBuilder();
+		path.append(LibUsb.getBusNumber(device));
+		
+		final ByteBuffer portNumbers = ByteBuffer.allocateDirect(MAX_PORT_NUMBERS);
+		final int numberOfPorts = LibUsb.getPortNumbers(device, portNumbers);
+		for (int i = 0; i < numberOfPorts; ++i) {
+			path.append(i == 0 ? '-' : '.');
+			path.append(portNumbers.get(i) & 0xff);
+		}
+		
+		// no port numbers on some platforms, the address has to do
+		if (numberOfPorts <= 0) {
+			path.append(':').append(LibUsb.getDeviceAddress(device));
+		}
+		
+		return path.toString();
+		
+	}
+	
+	/**
+	 * @return The bus/port path the device is plugged in at
+	 */
+	public String getPath() {
+		
+		return path;
+		
+	}
+	
+	/**
+	 * Open the device, claim its interface and set the baud rate
+	 * 
+	 * @param device The libusb device plugged in at this device's path
+	 * @param baudRate The baud rate to be used
+	 * @param async Whether to keep several transfers in flight
+	 */
+	public synchronized void open(final Device device, final int baudRate, final boolean async) {
+		
+		// maybe the device was unplugged unnoticed
+		close();
+		
+		final DeviceHandle deviceHandle = new DeviceHandle();
+		int result = LibUsb.open(device, deviceHandle);
+		if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to open device "
+				+ path, result);
+		usbaspDeviceHandle = deviceHandle;
+		
+		// detach any system driver if attached
+		usbDetachedFromSystemDriver = false;
+		boolean supportsDetachKernelDriver = LibUsb.hasCapability(LibUsb.CAP_SUPPORTS_DETACH_KERNEL_DRIVER);
+		if (supportsDetachKernelDriver) {
+			int detach = LibUsb.kernelDriverActive(usbaspDeviceHandle, USBaspProtocol.USBasp_interface);
+			
+			// Detach the kernel driver
+			if (detach != 0) {
+			    result = LibUsb.detachKernelDriver(usbaspDeviceHandle, USBaspProtocol.USBasp_interface);
+			    if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to detach kernel driver", result);
+			    usbDetachedFromSystemDriver = true;
+			}
+		}
+		
+		// claim the interface
+		result = LibUsb.claimInterface(usbaspDeviceHandle, USBaspProtocol.USBasp_interface);
+		if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to claim interface "
+				+ USBaspProtocol.USBasp_interface, result);
+		
+		// set baud rate
+		setBaudRate(baudRate);
+		
+		// keep transfers in flight completed by the event handling thread
+		if (async) {
+			asyncTransferEngine = new UsbAsyncTransferEngine(usbaspDeviceHandle, readStatistics);
+		}
+		
+	}
+	
+	/**
+	 * close usb device handle
+	 */
+	public synchronized void close() {
+		
+		if (usbaspDeviceHandle == null) {
+			return;
+		}
+		
+		// cancel any transfers in flight
+		if (asyncTransferEngine != null) {
+			
+			final UsbAsyncTransferEngine engine = asyncTransferEngine;
+			final boolean freed = engine.stop();
+			asyncTransferEngine = null;
+			overruns = overruns + engine.getOverruns();
+			
+			// libusb would complete the transfers left on a closed handle
+			if (!freed) {
+				usbaspDeviceHandle = null;
+				throw new RuntimeException("Transfers of " + path
+						+ " could not be cancelled, leaving its handle open");
+			}
+			
+		}
+		
+		// unclaim the interface
+		int result = LibUsb.releaseInterface(usbaspDeviceHandle, USBaspProtocol.USBasp_interface);
+		if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to release interface "
+				+ USBaspProtocol.USBasp_interface, result);
+		
+		// attach system driver if it was previously detached
+		if (usbDetachedFromSystemDriver) {
+			result = LibUsb.attachKernelDriver(usbaspDeviceHandle, USBaspProtocol.USBasp_interface);
+		    if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to re-attach kernel driver", result);
+		}
+		
+		// close device handle
+		LibUsb.close(usbaspDeviceHandle);
+		usbaspDeviceHandle = null;
+		
+	}
+	
+	/**
+	 * @return Whether the device is open
+	 */
+	public synchronized boolean isOpen() {
+		
+		return usbaspDeviceHandle != null;
+		
+	}
+	
+	/**
+	 * Set the baud rate used for communication
+	 */
+	public synchronized void setBaudRate(final int baudRate) {
+		
+		short param1 = (short) baudRate;
+		short param2 = (short) (baudRate >> 16);
+		
+		final ByteBuffer dataBuf = getTransferBuffer(USBaspProtocol.USBASP_MAX_TRANSFER_SIZE);
+		
+		final int result = LibUsb.controlTransfer(
+				usbaspDeviceHandle,
+				(byte) (LibUsb.REQUEST_TYPE_VENDOR | LibUsb.RECIPIENT_DEVICE | LibUsb.ENDPOINT_IN),
+				USBaspProtocol.USBASP_FUNC_UART_SETBAUDRATE,
+				param1,
+				param2,
+				dataBuf,
+				5000);
+		
+		if (result < 0) {
+			throw new RuntimeException(LibUsb.strError(result));
+		}
+		
+		this.baudRate = baudRate;
+		
+	}
+	
+	/**
+	 * @return The baud rate set most recently
+	 */
+	public int getBaudRate() {
+		
+		return baudRate;
+		
+	}
+	
+	/**
+	 * @return The number of receive buffer overruns detected
+	 */
+	public long getOverruns() {
+		
+		final UsbAsyncTransferEngine asyncTransferEngine = this.asyncTransferEngine;
+		if (asyncTransferEngine != null) {
+			return overruns + asyncTransferEngine.getOverruns();
+		}
+		
+		return overruns;
+		
+	}
+	
+	/**
+	 * Run a simple USBasp+ command
+	 * 
+	 * @param cmd The command
+	 * @return The result (0-255) or NO_DATA if the device did not answer
+	 */
+	private synchronized int simpleCmd(byte cmd) {
+		
+		final ByteBuffer dataBuf = getTransferBuffer(4);
+		
+		final int bytesRead = controlTransferIn(cmd, dataBuf);
+		
+		if (bytesRead == 0) {
+			return NO_DATA;
+		}
+		
+		return dataBuf.get(0) & 0xff;
+		
+	}
+	
+	/**
+	 * @param size The number of bytes to be requested
+	 * @return The reusable transfer buffer of the given capacity
+	 */
+	private ByteBuffer getTransferBuffer(final int size) {
+		
+		final ByteBuffer dataBuf = transferBuffers[size - 1];
+		dataBuf.clear();
+		
+		return dataBuf;
+		
+	}
+	
+	/**
+	 * Run a USBasp+ command which returns data. The number of bytes requested
+	 * is the capacity of the given buffer.
+	 * 
+	 * @param cmd The command
+	 * @param dataBuf The buffer receiving the data
+	 * @return The number of bytes received
+	 */
+	private int controlTransferIn(final byte cmd, final ByteBuffer dataBuf) {
+		
+		final int bytesRead = LibUsb.controlTransfer(
+				usbaspDeviceHandle,
+				(byte) (LibUsb.REQUEST_TYPE_VENDOR | LibUsb.RECIPIENT_DEVICE | LibUsb.ENDPOINT_IN),
+				cmd,
+				(short) cmd,
+				(short) 0,
+				dataBuf,
+				5000);
+		
+		if (bytesRead < 0) {
+			throw new RuntimeException(LibUsb.strError(bytesRead));
+		}
+		
+		// only GETBYTE carries UART bytes, any other answer counts as a transfer
+		readStatistics.count(cmd == USBaspProtocol.USBASP_FUNC_UART_GETBYTE ? bytesRead : 0);
+		
+		return bytesRead;
+		
+	}
+	
+	/**
+	 * Run test-command which forces the device to blink
+	 */
+	public int testCmd1() {
+		
+		return simpleCmd(USBaspProtocol.USBASP_FUNC_TEST_CMD1);
+		
+	}
+	
+	public int testCmd2() {
+		
+		return simpleCmd(USBaspProtocol.USBASP_FUNC_TEST_CMD2);
+		
+	}
+	
+	public int testCmd3() {
+		
+		return simpleCmd(USBaspProtocol.USBASP_FUNC_TEST_CMD3);
+		
+	}
+	
+	/**
+	 * Retrieve the number of bytes available (received from connected MCU)
+	 * which are ready to retrieve
+	 */
+	public int getNumberOfBytesAvailable() {
+		
+		final int numberOfBytesAvailable = simpleCmd(USBaspProtocol.USBASP_FUNC_UART_GETBYTECOUNT);
+		if (numberOfBytesAvailable == NO_DATA) {
+			return 0;
+		}
+		
+		return numberOfBytesAvailable;
+		
+	}
+	
+	/**
+	 * Retrieve one byte (previously received from connected MCU)
+	 */
+	public int getByte() {
+		
+		return simpleCmd(USBaspProtocol.USBASP_FUNC_UART_GETBYTE);
+		
+	}
+	
+	/**
+	 * Get all bytes available as a string
+	 */
+	public String getString() {
+		
+		final ByteBuffer bytesRead = ByteBuffer.allocate(256);
+		
+		final int numberOfBytesRead = read(bytesRead);
+		if (numberOfBytesRead == 0) {
+			return null;
+		}
+		
+		final StringBuffer result = new StringBuffer(numberOfBytesRead);
+		
+		for (int i = 0; i < numberOfBytesRead; ++i) {
+			
+			result.append((char) (bytesRead.get(i) & 0xff));
+			
+		}
+		
+		return result.toString();
+		
+	}
+	
+	/**
+	 * Read all bytes available which fit into the given buffer. The number
+	 * of bytes available is requested once, afterwards the bytes are fetched
+	 * back to back. Each transfer asks for up to USBASP_MAX_TRANSFER_SIZE
+	 * bytes: the original USBasp+ firmware answers with one byte only, a
+	 * firmware capable of sending more will be drained much faster.
+	 */
+	public int read(final ByteBuffer dst) {
+		
+		final UsbAsyncTransferEngine asyncTransferEngine = this.asyncTransferEngine;
+		if (asyncTransferEngine != null) {
+			return asyncTransferEngine.read(dst);
+		}
+		
+		return readSynchronously(dst);
+		
+	}
+	
+	/**
+	 * Read bytes by synchronous transfers
+	 */
+	private synchronized int readSynchronously(final ByteBuffer dst) {
+		
+		final int numberOfBytesAvailable = getNumberOfBytesAvailable();
+		
+		// a full receive buffer means bytes received meanwhile got lost
+		if (numberOfBytesAvailable >= USBaspProtocol.USBASP_UART_FIFO_SIZE) {
+			overruns = overruns + 1;
+		}
+		
+		int numberOfBytesToRead = Math.min(numberOfBytesAvailable, dst.remaining());
+		if (numberOfBytesToRead <= 0) {
+			return 0;
+		}
+		
+		int numberOfBytesRead = 0;
+		while (numberOfBytesToRead > 0) {
+			
+			// never ask for more bytes than are known to be available
+			final ByteBuffer transferBuf = getTransferBuffer(
+					Math.min(numberOfBytesToRead, USBaspProtocol.USBASP_MAX_TRANSFER_SIZE));
+			
+			final int bytesReceived = controlTransferIn(
+					USBaspProtocol.USBASP_FUNC_UART_GETBYTE, transferBuf);
+			if (bytesReceived == 0) {
+				break; // avoid further access
+			}
+			
+			for (int i = 0; i < bytesReceived; ++i) {
+				dst.put(transferBuf.get(i));
+			}
+			
+			numberOfBytesRead += bytesReceived;
+			numberOfBytesToRead -= bytesReceived;
+			
+		}
+		
+		return numberOfBytesRead;
+		
+	}
+	
+	/**
+	 * @return The number of USB transfers and bytes used for reading
+	 */
+	public TransferStatistics getReadStatistics() {
+		
+		return readStatistics;
+		
+	}
+	
+	/**
+	 * Send bytes to the MCU. The original USBasp+ firmware takes one byte
+	 * per transfer, passed by wValue. If packed writes are enabled up to
+	 * USBASP_MAX_PACKED_WRITE_SIZE bytes are passed by wValue and wIndex
+	 * (little endian) and wLength tells how many. Such a firmware may answer
+	 * the number of bytes accepted, otherwise all bytes are assumed to be
+	 * accepted.
+	 */
+	public synchronized int write(final ByteBuffer src) {
+		
+		final boolean packedWrites = this.packedWrites;
+		final int numberOfBytes = Math.min(src.remaining(),
+				packedWrites ? USBaspProtocol.USBASP_MAX_PACKED_WRITE_SIZE : 1);
+		if (numberOfBytes <= 0) {
+			return 0;
+		}
+		
+		int value = 0;
+		for (int i = 0; i < numberOfBytes; ++i) {
+			value |= (src.get(src.position() + i) & 0xff) << (8 * i);
+		}
+		
+		// the original firmware is asked like any other simple command
+		final ByteBuffer dataBuf = getTransferBuffer(packedWrites ? numberOfBytes : 4);
+		
+		final int bytesRead = LibUsb.controlTransfer(
+				usbaspDeviceHandle,
+				(byte) (LibUsb.REQUEST_TYPE_VENDOR | LibUsb.RECIPIENT_DEVICE | LibUsb.ENDPOINT_IN),
+				USBaspProtocol.USBASP_FUNC_UART_PUTBYTE,
+				(short) value,
+				(short) (value >>> 16),
+				dataBuf,
+				5000);
+		
+		if (bytesRead < 0) {
+			throw new RuntimeException(LibUsb.strError(bytesRead));
+		}
+		
+		int numberOfBytesAccepted = numberOfBytes;
+		if (packedWrites && (bytesRead > 0)) {
+			numberOfBytesAccepted = Math.min(dataBuf.get(0) & 0xff, numberOfBytes);
+		}
+		
+		writeStatistics.count(numberOfBytesAccepted);
+		src.position(src.position() + numberOfBytesAccepted);
+		
+		return numberOfBytesAccepted;
+		
+	}
+	
+	/**
+	 * @return The number of USB transfers and bytes used for writing
+	 */
+	public TransferStatistics getWriteStatistics() {
+		
+		return writeStatistics;
+		
+	}
+	
+	/**
+	 * @param packedWrites Whether several bytes are sent per transfer
+	 */
+	public void setPackedWrites(final boolean packedWrites) {
+		
+		this.packedWrites = packedWrites;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return "USBasp at " + path;
+		
+	}
+	
+}
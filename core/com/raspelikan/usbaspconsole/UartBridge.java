@@ -0,0 +1,775 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves the bytes received from a device to other tools like test
+ * scripts or plotters while the console keeps showing them. The reader
+ * passes the bytes by publish into the bridge's own buffer and never
+ * waits for the bridge, like it never waits for the CaptureRecorder: if
+ * the bridge fell behind by more than its buffer the bytes are dropped and
+ * counted. One thread serves all clients by non-blocking channels and a
+ * selector: it copies the bytes published into a ring buffer per client
+ * and passes them on as fast as each client takes them. What happens to a
+ * client falling behind by more than its buffer is up to the
+ * SlowClientPolicy.
+ * Bytes sent by clients are forwarded to the MCU by the device's
+ * UartWriter. A client sending faster than the device accepts is not read
+ * from until the writer caught up, so TCP flow control slows it down.
+ * 
+ * @author RasPelikan
+ */
+public class UartBridge extends Thread {
+	
+	/**
+	 * What to do with a client whose buffer is full
+	 */
+	public enum SlowClientPolicy {
+		/** disconnect the client, the others are not affected */
+		DISCONNECT,
+		/** drop the oldest bytes the client did not take yet */
+		DROP_OLDEST,
+		/** wait for the client, which holds back the other clients too */
+		BLOCK
+	}
+	
+	public static final int CLIENT_BUFFER_DEFAULT = 65536;
+	
+	/** a client taking no bytes for longer is disconnected even by BLOCK */
+	private static final long STALL_TIMEOUT_NANOS = 2000000000L; // 2 s
+	
+	private static final long MAX_WAIT = 500; // ms
+	/** retry passing on bytes a client had no room for and input not accepted by the writer */
+	private static final long RETRY_WAIT = 10; // ms
+	
+	private static final int INTAKE_CAPACITY = 1024 * 1024;
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+	private static final int INPUT_BUFFER_SIZE = 1024;
+	
+	// file type bits of the "unix:mode" attribute
+	private static final int S_IFMT = 0170000;
+	private static final int S_IFSOCK = 0140000;
+	
+	/**
+	 * A client connected
+	 */
+	private static class Client {
+		
+		final SocketChannel channel;
+		final String name;
+		final ByteRingBuffer buffer;
+		SelectionKey key;
+		
+		// used by the bridge's thread only
+		final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+		final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+		long lastWritten = System.nanoTime();
+		
+		volatile String closeReason;
+		
+		Client(final SocketChannel channel, final String name, final ByteRingBuffer buffer) {
+			
+			this.channel = channel;
+			this.name = name;
+			this.buffer = buffer;
+			
+			// nothing to send yet
+			this.output.flip();
+			
+		}
+		
+	}
+	
+	private final Log log;
+	private final String endpoint;
+	private final SlowClientPolicy policy;
+	private final int clientBufferSize;
+	
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final File unixSocketFile;
+	private final Object unixSocketKey;
+	
+	private volatile boolean shutdown;
+	private volatile UartWriter writer;
+	
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+	
+	// written by publish only, read by the bridge's thread
+	private final ByteRingBuffer intake = new ByteRingBuffer(INTAKE_CAPACITY,
+			ByteRingBuffer.OverflowPolicy.BLOCK);
+	private volatile long intakeDroppedBytes;
+	
+	// used by the bridge's thread only
+	private final byte[] distributed = new byte[OUTPUT_BUFFER_SIZE];
+	
+	// set if the selector is woken up already, avoids a wakeup per publish
+	private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+	
+	private int clientNumber;
+	private volatile long connectedClients;
+	private volatile long slowClients;
+	private volatile long droppedBytes;
+	private volatile long forwardedBytes;
+	private volatile long discardedInputBytes;
+	
+	/**
+	 * Constructor, binds the endpoint
+	 * 
+	 * @param endpoint "tcp:&lt;port&gt;" for a TCP port of 127.0.0.1 or
+	 *            "unix:&lt;path&gt;" for a Unix domain socket (Java 16+)
+	 * @param policy What to do with a client whose buffer is full
+	 * @param clientBufferSize The bytes buffered per client
+	 */
+	public UartBridge(final Log log, final String endpoint, final SlowClientPolicy policy,
+			final int clientBufferSize) throws IOException {
+		
+		super("USBasp+ bridge (" + endpoint + ")");
+		setDaemon(true);
+		
+		this.log = log;
+		this.endpoint = endpoint;
+		this.policy = policy;
+		this.clientBufferSize = clientBufferSize;
+		
+		if (endpoint.startsWith("tcp:")) {
+			
+			this.unixSocketFile = null;
+			this.unixSocketKey = null;
+			this.serverChannel = ServerSocketChannel.open();
+			try {
+				// local tools only
+				serverChannel.socket().setReuseAddress(true);
+				serverChannel.socket().bind(new InetSocketAddress(
+						InetAddress.getByName("127.0.0.1"),
+						Integer.parseInt(endpoint.substring(4))));
+			} catch (IOException e) {
+				serverChannel.close();
+				throw e;
+			}
+			
+		} else if (endpoint.startsWith("unix:")) {
+			
+			this.unixSocketFile = new File(endpoint.substring(5));
+			removeStaleSocket(unixSocketFile);
+			this.serverChannel = openUnixServerChannel(unixSocketFile);
+			
+			// identifies the socket file when deleting it on close
+			this.unixSocketKey = getFileAttribute(unixSocketFile, "basic:fileKey");
+			
+		} else {
+			
+			throw new IllegalArgumentException("Unknown bridge endpoint '" + endpoint
+					+ "', expected tcp:<port> or unix:<path>");
+			
+		}
+		
+		try {
+			serverChannel.configureBlocking(false);
+			this.selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeServerChannel();
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Open a server channel bound to a Unix domain socket. Looked up by
+	 * reflection since it needs Java 16 while the plugin is built for Java 6.
+	 */
+	private static ServerSocketChannel openUnixServerChannel(final File file)
+			throws IOException {
+		
+		final Object address = unixSocketAddress(file);
+		final ServerSocketChannel channel = (ServerSocketChannel) invoke(
+				unixMethod(ServerSocketChannel.class, "open"), null, unixProtocolFamily());
+		try {
+			
+			invoke(unixMethod(ServerSocketChannel.class, "bind"), channel, address);
+			return channel;
+			
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		
+	}
+	
+	/**
+	 * Remove a socket file left over by a crash since it prevents binding.
+	 * A socket another process still listens at and anything else but a
+	 * socket are left alone.
+	 */
+	private static void removeStaleSocket(final File file) throws IOException {
+		
+		if (!file.exists()) {
+			return;
+		}
+		if (!isSocketFile(file)) {
+			throw new IOException(file + " exists and is not a socket");
+		}
+		
+		// a socket nobody listens at refuses the connection
+		final SocketChannel probe = (SocketChannel) invoke(
+				unixMethod(SocketChannel.class, "open"), null, unixProtocolFamily());
+		try {
+			
+			invoke(unixMethod(SocketChannel.class, "connect"), probe, unixSocketAddress(file));
+			throw new IOException(file + " is in use by another process");
+			
+		} catch (ConnectException e) {
+			// stale
+		} finally {
+			probe.close();
+		}
+		
+		if (!file.delete()) {
+			throw new IOException("Could not remove the stale socket " + file);
+		}
+		
+	}
+	
+	/**
+	 * @return Whether the file is a socket. Without Unix file attributes
+	 *         anything which is neither a file nor a directory counts.
+	 */
+	private static boolean isSocketFile(final File file) {
+		
+		final Object mode = getFileAttribute(file, "unix:mode");
+		if (mode instanceof Integer) {
+			return (((Integer) mode).intValue() & S_IFMT) == S_IFSOCK;
+		}
+		return !file.isFile() && !file.isDirectory();
+		
+	}
+	
+	/**
+	 * Read a file's attribute without following links, e.g. "basic:fileKey".
+	 * Looked up by reflection since it needs Java 7.
+	 * 
+	 * @return The attribute's value or null if not available
+	 */
+	private static Object getFileAttribute(final File file, final String attribute) {
+		
+		try {
+			
+			final Class<?> path = Class.forName("java.nio.file.Path");
+			final Class<?> linkOption = Class.forName("java.nio.file.LinkOption");
+			final Object options = Array.newInstance(linkOption, 1);
+			Array.set(options, 0, linkOption.getField("NOFOLLOW_LINKS").get(null));
+			
+			return Class.forName("java.nio.file.Files")
+					.getMethod("getAttribute", path, String.class, options.getClass())
+					.invoke(null, File.class.getMethod("toPath").invoke(file), attribute, options);
+			
+		} catch (Exception e) {
+			return null;
+		}
+		
+	}
+	
+	private static Object unixProtocolFamily() throws IOException {
+		
+		try {
+			return Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+		} catch (Exception e) {
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		}
+		
+	}
+	
+	private static Object unixSocketAddress(final File file) throws IOException {
+		
+		try {
+			return Class.forName("java.net.UnixDomainSocketAddress")
+					.getMethod("of", String.class).invoke(null, file.getPath());
+		} catch (Exception e) {
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		}
+		
+	}
+	
+	/**
+	 * @return The method open(ProtocolFamily), bind(SocketAddress) or
+	 *         connect(SocketAddress) of the channel class given
+	 */
+	private static Method unixMethod(final Class<?> channelClass, final String name)
+			throws IOException {
+		
+		try {
+			return channelClass.getMethod(name, "open".equals(name)
+					? Class.forName("java.net.ProtocolFamily")
+					: SocketAddress.class);
+		} catch (Exception e) {
+			throw new IOException("Unix domain sockets need Java 16 or later", e);
+		}
+		
+	}
+	
+	/**
+	 * Invoke a method looked up by reflection, passing on its IOException
+	 */
+	private static Object invoke(final Method method, final Object target,
+			final Object... args) throws IOException {
+		
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(method.getName() + " failed", e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IOException(method.getName() + " failed", e);
+		}
+		
+	}
+	
+	/**
+	 * @param writer The writer sending the bytes received from clients to
+	 *            the device or null to discard them
+	 */
+	public void setWriter(final UartWriter writer) {
+		
+		this.writer = writer;
+		
+	}
+	
+	/**
+	 * Pass bytes received from the device to all clients, called by the
+	 * reader only. Never blocks.
+	 */
+	public void publish(final byte[] src, final int offset, final int length) {
+		
+		if (clients.isEmpty() || (length == 0)) {
+			return;
+		}
+		
+		// the bytes have to fit, otherwise drop them
+		if (intake.getCapacity() - intake.size() < length) {
+			intakeDroppedBytes = intakeDroppedBytes + length;
+			return;
+		}
+		
+		intake.write(src, offset, length);
+		wakeUp();
+		
+	}
+	
+	/**
+	 * Copy the bytes published into the buffers of the clients
+	 * 
+	 * @return Whether bytes are left since a client had no room for them
+	 */
+	private boolean distribute() {
+		
+		while (!intake.isEmpty()) {
+			
+			int length = Math.min(intake.size(), distributed.length);
+			
+			// pass on only what every client has room for
+			if (policy == SlowClientPolicy.BLOCK) {
+				for (final Client client : clients) {
+					if (client.closeReason == null) {
+						length = Math.min(length,
+								client.buffer.getCapacity() - client.buffer.size());
+					}
+				}
+				if (length == 0) {
+					return true;
+				}
+			}
+			
+			length = intake.read(distributed, 0, length);
+			for (final Client client : clients) {
+				
+				if (client.closeReason != null) {
+					continue;
+				}
+				
+				final ByteRingBuffer buffer = client.buffer;
+				if ((policy == SlowClientPolicy.DISCONNECT)
+						&& (buffer.getCapacity() - buffer.size() < length)) {
+					client.closeReason = "too slow";
+					slowClients = slowClients + 1;
+					continue;
+				}
+				
+				buffer.write(distributed, 0, length);
+				
+			}
+			
+		}
+		
+		return false;
+		
+	}
+	
+	private void wakeUp() {
+		
+		if (!wakeUpPending.getAndSet(true)) {
+			selector.wakeup();
+		}
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		this.shutdown = true;
+		
+		// no interrupt since it would close the channels
+		selector.wakeup();
+		
+		try {
+			this.join(10000);
+		} catch (InterruptedException e) {
+			// never mind
+		}
+		
+	}
+	
+	/**
+	 * the thread's main routine
+	 */
+	@Override
+	public void run() {
+		
+		long timeout = MAX_WAIT;
+		
+		try {
+			
+			while (!shutdown) {
+				
+				selector.select(timeout);
+				wakeUpPending.set(false);
+				
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						read((Client) key.attachment());
+					}
+					
+				}
+				
+				// pass on the bytes published, retry bytes left and input
+				// not forwarded
+				timeout = distribute() ? RETRY_WAIT : MAX_WAIT;
+				final long now = System.nanoTime();
+				for (final Client client : clients) {
+					
+					if (client.closeReason == null) {
+						write(client);
+					}
+					if (client.closeReason == null) {
+						if (!forwardInput(client)) {
+							timeout = RETRY_WAIT;
+						}
+						checkStalled(client, now);
+					}
+					if (client.closeReason != null) {
+						close(client);
+					}
+					
+				}
+				
+			}
+			
+		} catch (IOException e) {
+			
+			log.error("USBasp+ bridge at " + endpoint + " failed", e);
+			
+		} finally {
+			
+			for (final Client client : clients) {
+				client.closeReason = "shutdown";
+				close(client);
+			}
+			
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// never mind
+			}
+			closeServerChannel();
+			
+		}
+		
+	}
+	
+	private void closeServerChannel() {
+		
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			// never mind
+		}
+		
+		// another bridge may have replaced the socket file in the meantime
+		if ((unixSocketFile != null)
+				&& ((unixSocketKey != null)
+						? unixSocketKey.equals(getFileAttribute(unixSocketFile, "basic:fileKey"))
+						: isSocketFile(unixSocketFile))) {
+			unixSocketFile.delete();
+		}
+		
+	}
+	
+	/**
+	 * Accept the clients connecting
+	 */
+	private void accept() throws IOException {
+		
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			
+			channel.configureBlocking(false);
+			
+			String name = "#" + (++clientNumber);
+			if (unixSocketFile == null) {
+				channel.socket().setTcpNoDelay(true);
+				name = name + " (" + channel.socket().getRemoteSocketAddress() + ")";
+			}
+			
+			final Client client = new Client(channel, name, new ByteRingBuffer(clientBufferSize,
+					policy == SlowClientPolicy.DROP_OLDEST
+							? ByteRingBuffer.OverflowPolicy.DROP_OLDEST
+							: ByteRingBuffer.OverflowPolicy.BLOCK));
+			client.key = channel.register(selector, SelectionKey.OP_READ, client);
+			clients.add(client);
+			connectedClients = connectedClients + 1;
+			
+			log.info("USBasp+ bridge at " + endpoint + " connected client " + name);
+			
+		}
+		
+	}
+	
+	/**
+	 * Read the bytes sent by a client
+	 */
+	private void read(final Client client) {
+		
+		try {
+			
+			if (client.channel.read(client.input) < 0) {
+				client.closeReason = "disconnected";
+			}
+			
+		} catch (IOException e) {
+			
+			client.closeReason = e.getMessage();
+			
+		}
+		
+	}
+	
+	/**
+	 * Pass the bytes read from a client to the device, stops reading from
+	 * the client while the writer's queue is full
+	 * 
+	 * @return Whether all bytes read are forwarded
+	 */
+	private boolean forwardInput(final Client client) {
+		
+		final ByteBuffer input = client.input;
+		if (input.position() == 0) {
+			return true;
+		}
+		
+		input.flip();
+		
+		final UartWriter writer = this.writer;
+		if ((writer == null) || !writer.isEnabled()) {
+			
+			// no device to send to
+			discardedInputBytes = discardedInputBytes + input.remaining();
+			input.position(input.limit());
+			
+		} else {
+			
+			final int n = writer.offer(input.array(), input.position(), input.remaining());
+			input.position(input.position() + n);
+			forwardedBytes = forwardedBytes + n;
+			
+		}
+		
+		input.compact();
+		
+		final boolean forwarded = input.position() == 0;
+		setInterest(client, SelectionKey.OP_READ, forwarded);
+		
+		return forwarded;
+		
+	}
+	
+	/**
+	 * Send the bytes published to a client as far as it takes them
+	 */
+	private void write(final Client client) {
+		
+		final ByteBuffer output = client.output;
+		
+		try {
+			
+			while (true) {
+				
+				if (!output.hasRemaining()) {
+					
+					output.clear();
+					final int n = client.buffer.read(output.array(), 0, output.capacity());
+					output.limit(n);
+					if (n == 0) {
+						setInterest(client, SelectionKey.OP_WRITE, false);
+						return;
+					}
+					
+				}
+				
+				if (client.channel.write(output) > 0) {
+					client.lastWritten = System.nanoTime();
+				}
+				
+				// the socket's buffer is full, wait until writable
+				if (output.hasRemaining()) {
+					setInterest(client, SelectionKey.OP_WRITE, true);
+					return;
+				}
+				
+			}
+			
+		} catch (IOException e) {
+			
+			client.closeReason = e.getMessage();
+			
+		}
+		
+	}
+	
+	/**
+	 * Disconnect a client not taking any of the bytes pending for too long
+	 * since it keeps publish waiting
+	 */
+	private void checkStalled(final Client client, final long now) {
+		
+		if ((policy != SlowClientPolicy.BLOCK)
+				|| (!client.output.hasRemaining() && (client.buffer.size() == 0))) {
+			client.lastWritten = now;
+			return;
+		}
+		
+		if (now - client.lastWritten >= STALL_TIMEOUT_NANOS) {
+			client.closeReason = "stalled for " + STALL_TIMEOUT_NANOS / 1000000 + " ms";
+			slowClients = slowClients + 1;
+		}
+		
+	}
+	
+	private static void setInterest(final Client client, final int operation, final boolean on) {
+		
+		final SelectionKey key = client.key;
+		if (!key.isValid()) {
+			return;
+		}
+		
+		final int ops = key.interestOps();
+		key.interestOps(on ? ops | operation : ops & ~operation);
+		
+	}
+	
+	/**
+	 * Disconnect a client
+	 */
+	private void close(final Client client) {
+		
+		clients.remove(client);
+		
+		droppedBytes = droppedBytes + client.buffer.getDroppedBytes();
+		
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			// never mind
+		}
+		
+		log.info("USBasp+ bridge at " + endpoint + " disconnected client "
+				+ client.name + ": " + client.closeReason);
+		
+	}
+	
+	/**
+	 * @return The endpoint clients connect to
+	 */
+	public String getEndpoint() {
+		
+		return endpoint;
+		
+	}
+	
+	/**
+	 * @return The number of clients connected at the moment
+	 */
+	public int getClientCount() {
+		
+		return clients.size();
+		
+	}
+	
+	/**
+	 * @return The number of bytes dropped since clients or the bridge were
+	 *         too slow
+	 */
+	public long getDroppedBytes() {
+		
+		long result = droppedBytes + intakeDroppedBytes;
+		for (final Client client : clients) {
+			result += client.buffer.getDroppedBytes();
+		}
+		
+		return result;
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return connectedClients + " clients connected to " + endpoint + ", "
+				+ slowClients + " disconnected as too slow, "
+				+ getDroppedBytes() + " bytes dropped for slow clients or bridge, "
+				+ forwardedBytes + " bytes forwarded to the device, "
+				+ discardedInputBytes + " discarded without device";
+		
+	}
+	
+}
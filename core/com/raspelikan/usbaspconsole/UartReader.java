@@ -0,0 +1,350 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The task responsible for reading USART contents from the device into
+ * the buffer drained by ConsoleLogger. So a busy console does not stop
+ * polling the device. Each step polls the device once and is run by the
+ * DeviceExecutor shared by all devices.
+ * 
+ * @author RasPelikan
+ */
+public class UartReader implements DeviceExecutor.Task {
+	
+	private static final int READ_BUFFER_SIZE = 1024;
+	
+	private Log log;
+	
+	private volatile DeviceExecutor.Handle handle;
+	private volatile boolean enabled;
+	
+	private USBaspDevice device;
+	private volatile ByteRingBuffer buffer;
+	private volatile CaptureRecorder recorder;
+	private volatile UartBridge bridge;
+	
+	private volatile int batchSize = READ_BUFFER_SIZE;
+	private final PollingScheduler scheduler;
+	
+	// arrival of the first byte written since the buffer was empty
+	private volatile long arrivalTime;
+	
+	// time the device was plugged in until the first byte arrived
+	private volatile long plugTime;
+	private final LatencyStatistics firstByteLatency = new LatencyStatistics();
+	
+	// time the USB transfers of one read take and time between reads
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final LatencyHistogram pollInterval = new LatencyHistogram();
+	
+	// UART bytes passed on, written by the reader thread only
+	private volatile long bytesRead;
+	
+	// used by the reader thread only
+	private long lastPollTime;
+	private long pollArrivalTime;
+	
+	// reused for every read to avoid garbage while streaming
+	private final byte[] readBytes = new byte[READ_BUFFER_SIZE];
+	private final ByteBuffer readBuffer = ByteBuffer.wrap(readBytes);
+	
+	/**
+	 * Constructor
+	 */
+	public UartReader(final Log log, final USBaspDevice device, final ByteRingBuffer buffer,
+			final long minPollInterval, final long maxPollInterval) {
+		
+		this.log = log;
+		this.device = device;
+		this.buffer = buffer;
+		this.scheduler = new PollingScheduler(minPollInterval, maxPollInterval);
+		
+	}
+	
+	/**
+	 * Start polling the device
+	 * 
+	 * @param executor The executor running the steps
+	 */
+	public void start(final DeviceExecutor executor) {
+		
+		this.handle = executor.schedule("USBasp+ UART reader", this);
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		// stop waiting for free space
+		this.buffer.close();
+		
+		final DeviceExecutor.Handle handle = this.handle;
+		if (handle != null) {
+			handle.cancel();
+		}
+		
+	}
+	
+	/**
+	 * Poll the device once
+	 * 
+	 * @return The time to wait before the next poll
+	 */
+	@Override
+	public long runStep() {
+		
+		boolean dataArrived = false;
+		boolean batchFilled = false;
+		
+		// a full buffer keeps the bytes in the device rather than blocking
+		// a thread the console draining the buffer may need
+		final ByteRingBuffer buffer = this.buffer;
+		if ((buffer.getPolicy() == ByteRingBuffer.OverflowPolicy.BLOCK)
+				&& (buffer.getCapacity() - buffer.size() < batchSize)) {
+			return TimeUnit.MILLISECONDS.toNanos(Math.max(1, scheduler.getMinInterval()));
+		}
+		
+		// if not disabled (no usb device connected)
+		if (enabled) {
+			
+			try {
+				
+				// fetch the bytes available and pass them to the console
+				final int numberOfBytesRead = readDevice();
+				if (numberOfBytesRead > 0) {
+					
+					dataArrived = true;
+					batchFilled = numberOfBytesRead >= batchSize;
+					
+					if (plugTime != 0) {
+						firstByteArrived();
+					}
+					
+					if (buffer.isEmpty()) {
+						arrivalTime = pollArrivalTime;
+					}
+					buffer.write(readBytes, 0, numberOfBytesRead, pollArrivalTime);
+					bytesRead = bytesRead + numberOfBytesRead;
+					
+					final CaptureRecorder recorder = this.recorder;
+					if (recorder != null) {
+						recorder.record(pollArrivalTime, readBytes, 0, numberOfBytesRead);
+					}
+					
+					// other tools get the bytes as they are, whatever the console drops
+					final UartBridge bridge = this.bridge;
+					if (bridge != null) {
+						bridge.publish(readBytes, 0, numberOfBytesRead);
+					}
+					
+				}
+				
+			} catch (Throwable e) {
+				
+				// errors will be ignored if occur during unplugging the device
+				if (enabled) {
+					
+					this.log.warning("Error reading data from device", e);
+					
+				}
+				
+			}
+			
+		}
+		
+		// a full batch means more data is waiting, read again once the
+		// tasks sharing the thread had their turn
+		final long interval = scheduler.nextInterval(dataArrived);
+		if (batchFilled) {
+			return 0;
+		}
+		
+		// otherwise wait as long as the scheduler says
+		return TimeUnit.MILLISECONDS.toNanos(interval);
+		
+	}
+	
+	/**
+	 * Measure the time from plugging in the device to its first byte
+	 */
+	private void firstByteArrived() {
+		
+		final long latency = Math.max(0, pollArrivalTime - plugTime);
+		plugTime = 0;
+		firstByteLatency.add(latency);
+		
+		this.log.info("USBasp+ received the first byte " + latency / 1000000
+				+ " ms after plugging in");
+		
+	}
+	
+	/**
+	 * @return The times from plugging in the device to its first byte
+	 */
+	public LatencyStatistics getFirstByteLatency() {
+		
+		return firstByteLatency;
+		
+	}
+	
+	/**
+	 * Read the bytes available into readBytes
+	 * 
+	 * @return The number of bytes read
+	 */
+	private int readDevice() {
+		
+		// bytes read arrived somewhere between the previous poll and this one
+		final long pollTime = System.nanoTime();
+		if (lastPollTime == 0) {
+			lastPollTime = pollTime;
+		} else {
+			pollInterval.add(pollTime - lastPollTime);
+		}
+		pollArrivalTime = lastPollTime + (pollTime - lastPollTime) / 2;
+		lastPollTime = pollTime;
+		
+		readBuffer.clear();
+		readBuffer.limit(batchSize);
+		
+		final int numberOfBytesRead = device.read(readBuffer);
+		readLatency.add(System.nanoTime() - pollTime);
+		
+		return numberOfBytesRead;
+		
+	}
+	
+	/**
+	 * @return The time the USB transfers of one read of the device take
+	 */
+	public LatencyHistogram getReadLatency() {
+		
+		return readLatency;
+		
+	}
+	
+	/**
+	 * @return The time between two reads of the device
+	 */
+	public LatencyHistogram getPollInterval() {
+		
+		return pollInterval;
+		
+	}
+	
+	/**
+	 * @return The number of UART bytes read from the device, unlike the
+	 *         device's read statistics without any USB protocol overhead
+	 */
+	public long getBytesRead() {
+		
+		return bytesRead;
+		
+	}
+	
+	/**
+	 * Adjust poll interval and batch size to the device's baud rate so the
+	 * receive buffer of the firmware does not overflow
+	 */
+	private void adjustToBaudRate() {
+		
+		final UartTiming timing = new UartTiming(device.getBaudRate(),
+				USBaspProtocol.USBASP_UART_FIFO_SIZE);
+		
+		this.scheduler.setIntervalLimit(timing.getMaxPollInterval());
+		this.batchSize = timing.getBatchSize(READ_BUFFER_SIZE);
+		
+	}
+	
+	/**
+	 * @return The estimated arrival time (System.nanoTime()) of the first
+	 *         byte written since the buffer was empty
+	 */
+	public long getArrivalTime() {
+		
+		return arrivalTime;
+		
+	}
+	
+	/**
+	 * Replace the buffer, the bytes of the current buffer have to be
+	 * consumed by the consumer anyway
+	 */
+	public void setBuffer(final ByteRingBuffer buffer) {
+		
+		this.buffer = buffer;
+		
+	}
+	
+	/**
+	 * @param recorder The recorder every byte read is passed to or null
+	 */
+	public void setRecorder(final CaptureRecorder recorder) {
+		
+		this.recorder = recorder;
+		
+	}
+	
+	/**
+	 * @param bridge The bridge every byte read is passed to or null
+	 */
+	public void setBridge(final UartBridge bridge) {
+		
+		this.bridge = bridge;
+		
+	}
+	
+	/**
+	 * Called once a device is connected
+	 * 
+	 * @param plugTime The time the device was plugged in (System.nanoTime())
+	 */
+	public void enable(final long plugTime) {
+		
+		adjustToBaudRate();
+		
+		this.plugTime = plugTime;
+		this.enabled = true;
+		
+		final DeviceExecutor.Handle handle = this.handle;
+		if (handle != null) {
+			handle.wakeUp();
+		}
+		
+	}
+	
+	/**
+	 * Called once the baud rate of the device changed
+	 */
+	public void baudRateChanged() {
+		
+		adjustToBaudRate();
+		
+	}
+	
+	/**
+	 * Change the polling intervals
+	 * 
+	 * @param minPollInterval The interval used while data is arriving in ms
+	 * @param maxPollInterval The interval used for an idle device in ms
+	 */
+	public void setPollingIntervals(final long minPollInterval, final long maxPollInterval) {
+		
+		this.scheduler.setIntervals(minPollInterval, maxPollInterval);
+		
+	}
+	
+	/**
+	 * Called once a device is disconnected
+	 */
+	public void disable() {
+		
+		this.enabled = false;
+		
+	}
+	
+}
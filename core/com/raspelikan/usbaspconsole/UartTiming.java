@@ -0,0 +1,78 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * Calculates how fast the receive buffer of the USBasp+ firmware fills up
+ * at a certain baud rate and therefore how often it has to be polled.
+ * 
+ * @author RasPelikan
+ */
+public class UartTiming {
+
+	/** start bit + 8 data bits + stop bit */
+	public static final int BITS_PER_BYTE = 10;
+	
+	private final int baudRate;
+	private final int fifoSize;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param baudRate The baud rate configured
+	 * @param fifoSize The size of the firmware's receive buffer
+	 */
+	public UartTiming(final int baudRate, final int fifoSize) {
+		
+		this.baudRate = Math.max(1, baudRate);
+		this.fifoSize = fifoSize;
+		
+	}
+	
+	/**
+	 * @return The number of bytes received per second at most
+	 */
+	public int getBytesPerSecond() {
+		
+		return Math.max(1, baudRate / BITS_PER_BYTE);
+		
+	}
+	
+	/**
+	 * @return The time the receive buffer needs to fill up in ms
+	 */
+	public long getFifoFillTime() {
+		
+		return fifoSize * 1000L / getBytesPerSecond();
+		
+	}
+	
+	/**
+	 * @return The longest poll interval which does not overflow the receive
+	 *         buffer: half the fill time to leave time for reading
+	 */
+	public long getMaxPollInterval() {
+		
+		return Math.max(1, getFifoFillTime() / 2);
+		
+	}
+	
+	/**
+	 * @param maxBatchSize The size of the read buffer
+	 * @return The number of bytes to read per poll: at least the receive
+	 *         buffer plus what arrives while it is read
+	 */
+	public int getBatchSize(final int maxBatchSize) {
+		
+		final long arriving = getBytesPerSecond() * getMaxPollInterval() / 1000;
+		return (int) Math.min(maxBatchSize, Math.max(fifoSize, fifoSize + arriving));
+		
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("%d bytes/s, receive buffer full after %d ms",
+				getBytesPerSecond(), getFifoFillTime());
+		
+	}
+	
+}
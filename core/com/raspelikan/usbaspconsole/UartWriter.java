@@ -0,0 +1,278 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The task responsible for sending bytes to the MCU. Bytes to be sent
+ * are queued by send and transmitted no faster than the baud rate allows,
+ * so typed or pasted input does not overflow the device. Senders wait if
+ * the queue is full, offer never waits. Each step sends one burst and is
+ * run by the DeviceExecutor shared by all devices.
+ * 
+ * @author RasPelikan
+ */
+public class UartWriter implements DeviceExecutor.Task {
+	
+	private static final int QUEUE_CAPACITY = 4096;
+	private static final long MAX_WAIT_NANOS = 500000000; // 500 ms
+	
+	// bytes sent back to back before pacing applies
+	private static final int BURST_SIZE = 8;
+	
+	private Log log;
+	
+	private volatile DeviceExecutor.Handle handle;
+	private volatile boolean enabled;
+	
+	private USBaspDevice device;
+	private final ByteRingBuffer queue = new ByteRingBuffer(QUEUE_CAPACITY,
+			ByteRingBuffer.OverflowPolicy.BLOCK);
+	
+	// senders take turns since the queue has a single producer
+	private final ReentrantLock sendLock = new ReentrantLock();
+	
+	private volatile long nanosPerByte;
+	private volatile long droppedBytes;
+	
+	// used by the steps only
+	private long nextSendTime = System.nanoTime();
+	
+	// reused for every transfer to avoid garbage
+	private final byte[] sendBytes = new byte[BURST_SIZE];
+	private final ByteBuffer sendBuffer = ByteBuffer.wrap(sendBytes);
+	
+	/**
+	 * Constructor
+	 */
+	public UartWriter(final Log log, final USBaspDevice device) {
+		
+		this.log = log;
+		this.device = device;
+		
+	}
+	
+	/**
+	 * Queue bytes to be sent, waits while the queue is full. May be called
+	 * by several threads.
+	 * 
+	 * @return The number of bytes queued, less than length only on shutdown
+	 */
+	public int send(final byte[] src, final int offset, final int length) {
+		
+		sendLock.lock();
+		try {
+			
+			// the queue is filled in parts if it is full
+			int queued = 0;
+			while (queued < length) {
+				
+				final int n = queue.write(src, offset + queued,
+						Math.min(length - queued, QUEUE_CAPACITY / 2));
+				wakeUp();
+				if (n == 0) {
+					break; // shutdown
+				}
+				queued += n;
+				
+			}
+			
+			return queued;
+			
+		} finally {
+			sendLock.unlock();
+		}
+		
+	}
+	
+	/**
+	 * Queue as many bytes as fit without waiting, neither for free space
+	 * nor for another sender. May be called by several threads.
+	 * 
+	 * @return The number of bytes queued
+	 */
+	public int offer(final byte[] src, final int offset, final int length) {
+		
+		if (!sendLock.tryLock()) {
+			return 0;
+		}
+		try {
+			
+			// only the steps free space meanwhile, so this never waits
+			final int n = Math.min(length, queue.getCapacity() - queue.size());
+			if (n <= 0) {
+				return 0;
+			}
+			
+			final int queued = queue.write(src, offset, n);
+			wakeUp();
+			
+			return queued;
+			
+		} finally {
+			sendLock.unlock();
+		}
+		
+	}
+	
+	private void wakeUp() {
+		
+		final DeviceExecutor.Handle handle = this.handle;
+		if (handle != null) {
+			handle.wakeUp();
+		}
+		
+	}
+	
+	/**
+	 * Start sending bytes queued
+	 * 
+	 * @param executor The executor running the steps
+	 */
+	public void start(final DeviceExecutor executor) {
+		
+		this.handle = executor.schedule("USBasp+ UART writer", this);
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		// stop senders waiting for free space
+		this.queue.close();
+		
+		final DeviceExecutor.Handle handle = this.handle;
+		if (handle != null) {
+			handle.cancel();
+		}
+		
+	}
+	
+	/**
+	 * Send one burst of bytes queued
+	 * 
+	 * @return The time to wait before the next burst
+	 */
+	@Override
+	public long runStep() {
+		
+		// send wakes up the writer
+		if (queue.isEmpty()) {
+			return MAX_WAIT_NANOS;
+		}
+		
+		// bytes typed while no device is connected are not sent later
+		if (!enabled) {
+			droppedBytes = droppedBytes + queue.read(sendBytes, 0, sendBytes.length);
+			return 0;
+		}
+		
+		// wait until the bytes sent before are transmitted by the device
+		final long now = System.nanoTime();
+		final long wait = nextSendTime - BURST_SIZE * nanosPerByte - now;
+		if (wait > 0) {
+			return wait;
+		}
+		
+		final int numberOfBytes = queue.read(sendBytes, 0, sendBytes.length);
+		
+		try {
+			
+			sendBuffer.clear();
+			sendBuffer.limit(numberOfBytes);
+			while (sendBuffer.hasRemaining()) {
+				if (device.write(sendBuffer) == 0) {
+					throw new RuntimeException("Device did not accept data");
+				}
+			}
+			
+		} catch (Throwable e) {
+			
+			droppedBytes = droppedBytes + sendBuffer.remaining();
+			
+			// errors will be ignored if occur during unplugging the device
+			if (enabled) {
+				
+				this.log.warning("Error sending data to device", e);
+				
+			}
+			
+		}
+		
+		nextSendTime = Math.max(nextSendTime, now) + numberOfBytes * nanosPerByte;
+		
+		return 0;
+		
+	}
+	
+	/**
+	 * Pace sending to the device's baud rate
+	 */
+	private void adjustToBaudRate() {
+		
+		final UartTiming timing = new UartTiming(device.getBaudRate(),
+				USBaspProtocol.USBASP_UART_FIFO_SIZE);
+		
+		this.nanosPerByte = 1000000000L / timing.getBytesPerSecond();
+		
+	}
+	
+	/**
+	 * @return Whether a device is connected to send bytes to
+	 */
+	public boolean isEnabled() {
+		
+		return enabled;
+		
+	}
+	
+	/**
+	 * @return The number of bytes queued but not sent yet
+	 */
+	public int getQueuedBytes() {
+		
+		return queue.size();
+		
+	}
+	
+	/**
+	 * @return The number of bytes not sent since no device was connected or
+	 *         sending failed
+	 */
+	public long getDroppedBytes() {
+		
+		return droppedBytes;
+		
+	}
+	
+	/**
+	 * Called once a device is connected
+	 */
+	public void enable() {
+		
+		adjustToBaudRate();
+		this.enabled = true;
+		
+	}
+	
+	/**
+	 * Called once the baud rate of the device changed
+	 */
+	public void baudRateChanged() {
+		
+		adjustToBaudRate();
+		
+	}
+	
+	/**
+	 * Called once a device is disconnected
+	 */
+	public void disable() {
+		
+		this.enabled = false;
+		
+	}
+	
+}
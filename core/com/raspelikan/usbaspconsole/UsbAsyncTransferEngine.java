@@ -0,0 +1,359 @@
+package com.raspelikan.usbaspconsole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.usb4java.DeviceHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
+
+/**
+ * Keeps several GETBYTE control transfers in flight by using libusb's
+ * asynchronous API. The transfers are completed by UsbEventHandlingThread.
+ * The reading thread only collects the bytes received and resubmits the
+ * transfers, so it never has to wait for the device. A GETBYTECOUNT
+ * transfer is kept in flight as well: it detects overruns like the
+ * synchronous read does and GETBYTE transfers are only submitted while
+ * bytes are known to be available, so an idle device is asked for its
+ * count only.
+ * 
+ * @author RasPelikan
+ */
+public class UsbAsyncTransferEngine implements TransferCallback {
+	
+	public static final int TRANSFERS_IN_FLIGHT = 4;
+	
+	private static final long TRANSFER_TIMEOUT = 1000;
+	private static final long STOP_TIMEOUT = 2 * TRANSFER_TIMEOUT;
+	
+	private static final int IDLE = 0;
+	private static final int SUBMITTED = 1;
+	private static final int COMPLETED = 2;
+	private static final int FREED = 3;
+	
+	/**
+	 * One transfer and its buffer (setup packet followed by data)
+	 */
+	private static class Slot {
+		
+		final AtomicInteger state = new AtomicInteger(IDLE);
+		Transfer transfer;
+		ByteBuffer buffer;
+		volatile int status;
+		volatile int length;
+		
+	}
+	
+	private final TransferStatistics statistics;
+	private final Slot[] slots;
+	private final Slot countSlot;
+	
+	// slots are submitted and collected in the same order, used by the
+	// reading thread only
+	private int nextSubmit;
+	private int nextCollect;
+	private int bytesAvailable;
+	
+	private volatile long overruns;
+	private volatile boolean stopped;
+	private String failure;
+	
+	/**
+	 * Constructor
+	 */
+	public UsbAsyncTransferEngine(final DeviceHandle deviceHandle,
+			final TransferStatistics statistics) {
+		
+		this.statistics = statistics;
+		this.slots = new Slot[TRANSFERS_IN_FLIGHT];
+		
+		for (int i = 0; i < slots.length; ++i) {
+			slots[i] = createSlot(deviceHandle, USBaspProtocol.USBASP_FUNC_UART_GETBYTE,
+					USBaspProtocol.USBASP_MAX_TRANSFER_SIZE);
+		}
+		
+		// the firmware is asked like by USBaspUsbDevice.simpleCmd
+		countSlot = createSlot(deviceHandle, USBaspProtocol.USBASP_FUNC_UART_GETBYTECOUNT, 4);
+		
+	}
+	
+	/**
+	 * One transfer and its buffer for the given command
+	 */
+	private Slot createSlot(final DeviceHandle deviceHandle, final byte cmd, final int length) {
+		
+		final Slot slot = new Slot();
+		slot.buffer = ByteBuffer.allocateDirect(LibUsb.CONTROL_SETUP_SIZE + length);
+		LibUsb.fillControlSetup(slot.buffer,
+				(byte) (LibUsb.REQUEST_TYPE_VENDOR | LibUsb.RECIPIENT_DEVICE | LibUsb.ENDPOINT_IN),
+				cmd,
+				(short) cmd,
+				(short) 0,
+				(short) length);
+		
+		slot.transfer = LibUsb.allocTransfer();
+		LibUsb.fillControlTransfer(slot.transfer, deviceHandle, slot.buffer,
+				this, slot, TRANSFER_TIMEOUT);
+		
+		return slot;
+		
+	}
+	
+	/**
+	 * Collect the bytes of all transfers completed so far (in the order the
+	 * transfers were submitted) and resubmit them while bytes are available.
+	 * Never blocks.
+	 * 
+	 * @param dst The buffer to fill
+	 * @return The number of bytes read
+	 */
+	public synchronized int read(final ByteBuffer dst) {
+		
+		if (stopped) {
+			return 0;
+		}
+		
+		collectCount();
+		
+		// keep the order: stop at the first transfer still in flight
+		int numberOfBytesRead = 0;
+		for (int i = 0; i < slots.length; ++i) {
+			
+			final Slot slot = slots[nextCollect];
+			if (slot.state.get() != COMPLETED) {
+				break;
+			}
+			
+			final int length = slot.length;
+			if (length > dst.remaining()) {
+				break; // collect on next read
+			}
+			
+			for (int j = 0; j < length; ++j) {
+				dst.put(slot.buffer.get(LibUsb.CONTROL_SETUP_SIZE + j));
+			}
+			numberOfBytesRead += length;
+			statistics.count(length);
+			
+			// the device's buffer is drained, wait for the next count
+			if (length == 0) {
+				bytesAvailable = 0;
+			}
+			
+			checkStatus(slot.status);
+			slot.state.set(IDLE);
+			nextCollect = (nextCollect + 1) % slots.length;
+			
+		}
+		
+		// slots collected are submitted again in the same order
+		for (int i = 0; (i < slots.length) && (bytesAvailable > 0); ++i) {
+			
+			final Slot slot = slots[nextSubmit];
+			if ((slot.state.get() != IDLE) || !submit(slot)) {
+				break;
+			}
+			nextSubmit = (nextSubmit + 1) % slots.length;
+			
+		}
+		
+		// report failures once there is no data to be lost
+		if ((failure != null) && (numberOfBytesRead == 0)) {
+			
+			final String message = failure;
+			failure = null;
+			throw new RuntimeException(message);
+			
+		}
+		
+		return numberOfBytesRead;
+		
+	}
+	
+	/**
+	 * Evaluate the last GETBYTECOUNT answer and ask again
+	 */
+	private void collectCount() {
+		
+		final int state = countSlot.state.get();
+		if (state == SUBMITTED) {
+			return;
+		}
+		
+		if (state == COMPLETED) {
+			
+			// no UART bytes, counts as a transfer only
+			statistics.count(0);
+			checkStatus(countSlot.status);
+			
+			if (countSlot.length > 0) {
+				
+				bytesAvailable = countSlot.buffer.get(LibUsb.CONTROL_SETUP_SIZE) & 0xff;
+				
+				// a full receive buffer means bytes received meanwhile got lost
+				if (bytesAvailable >= USBaspProtocol.USBASP_UART_FIFO_SIZE) {
+					overruns = overruns + 1;
+				}
+				
+			}
+			countSlot.state.set(IDLE);
+			
+		}
+		
+		submit(countSlot);
+		
+	}
+	
+	/**
+	 * @return The number of receive buffer overruns detected
+	 */
+	public long getOverruns() {
+		
+		return overruns;
+		
+	}
+	
+	/**
+	 * Remember failed transfers
+	 */
+	private void checkStatus(final int status) {
+		
+		if ((status == LibUsb.TRANSFER_COMPLETED)
+				|| (status == LibUsb.TRANSFER_CANCELLED)) {
+			return;
+		}
+		
+		if (status == LibUsb.TRANSFER_NO_DEVICE) {
+			stopped = true;
+		}
+		
+		failure = "Asynchronous transfer failed with status " + status;
+		
+	}
+	
+	/**
+	 * Submit a transfer unless stopped
+	 * 
+	 * @return Whether the transfer was submitted
+	 */
+	private boolean submit(final Slot slot) {
+		
+		if (stopped) {
+			return false;
+		}
+		
+		// has to be set before since the transfer may complete immediately
+		slot.state.set(SUBMITTED);
+		
+		final int result = LibUsb.submitTransfer(slot.transfer);
+		if (result != LibUsb.SUCCESS) {
+			
+			slot.state.set(IDLE);
+			if (result == LibUsb.ERROR_NO_DEVICE) {
+				stopped = true;
+			}
+			failure = "Unable to submit transfer: " + LibUsb.strError(result);
+			return false;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	/**
+	 * Called by libusb on the event handling thread
+	 */
+	@Override
+	public void processTransfer(final Transfer transfer) {
+		
+		final Slot slot = (Slot) transfer.userData();
+		
+		// transfers completing after stop are not needed any more
+		if (stopped && slot.state.compareAndSet(SUBMITTED, FREED)) {
+			LibUsb.freeTransfer(transfer);
+			return;
+		}
+		
+		final int status = transfer.status();
+		slot.status = status;
+		slot.length = status == LibUsb.TRANSFER_COMPLETED ? transfer.actualLength() : 0;
+		slot.state.set(COMPLETED);
+		
+	}
+	
+	/**
+	 * Cancel all transfers in flight and free them. Waits for the event
+	 * handling thread to process the cancellation, so it has to be running
+	 * and this must not be called on it.
+	 * 
+	 * @return Whether all transfers are freed, otherwise the device's
+	 *         handle must not be closed
+	 */
+	public boolean stop() {
+		
+		synchronized (this) {
+			
+			stopped = true;
+			
+			for (final Slot slot : getAllSlots()) {
+				if (slot.state.get() == SUBMITTED) {
+					LibUsb.cancelTransfer(slot.transfer);
+				}
+			}
+			
+		}
+		
+		// the event handling thread can't complete a cancellation it waits for
+		final long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+		while (!(Thread.currentThread() instanceof UsbEventHandlingThread)
+				&& isAnySubmitted() && (System.currentTimeMillis() < deadline)) {
+			
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				break;
+			}
+			
+		}
+		
+		// transfers still in flight are freed once completed
+		synchronized (this) {
+			
+			for (final Slot slot : getAllSlots()) {
+				if (slot.state.compareAndSet(IDLE, FREED)
+						|| slot.state.compareAndSet(COMPLETED, FREED)) {
+					LibUsb.freeTransfer(slot.transfer);
+				}
+			}
+			
+		}
+		
+		return !isAnySubmitted();
+		
+	}
+	
+	private Slot[] getAllSlots() {
+		
+		final Slot[] allSlots = new Slot[slots.length + 1];
+		System.arraycopy(slots, 0, allSlots, 0, slots.length);
+		allSlots[slots.length] = countSlot;
+		
+		return allSlots;
+		
+	}
+	
+	private boolean isAnySubmitted() {
+		
+		for (final Slot slot : getAllSlots()) {
+			if (slot.state.get() == SUBMITTED) {
+				return true;
+			}
+		}
+		
+		return false;
+		
+	}
+	
+}
@@ -1,12 +1,14 @@
 package com.raspelikan.usbaspconsole;
 
+import org.usb4java.Context;
 import org.usb4java.LibUsb;
 import org.usb4java.LibUsbException;
 
 /**
  * This is the event handling thread. libusb doesn't start threads by its
  * own so it is our own responsibility to give libusb time to handle the
- * events in our own thread.
+ * events in our own thread. This includes completing the asynchronous
+ * transfers of UsbAsyncTransferEngine.
  * 
  * @author RasPelikan
  */
@@ -14,6 +16,18 @@ public class UsbEventHandlingThread extends Thread {
 	
     /** If thread should abort. */
     private volatile boolean abort;
+    
+    /** The libusb context whose events are handled. */
+    private final Context context;
+    
+    /**
+     * Constructor
+     */
+    public UsbEventHandlingThread(final Context context) {
+    	
+    	this.context = context;
+    	
+    }
 
     /**
      * Aborts the event handling thread.
@@ -33,7 +47,7 @@ public class UsbEventHandlingThread extends Thread {
             // have been handled, a hotplug callback has been deregistered
             // or the specified time of 1 second (Specified in
             // Microseconds) has passed.
-            int result = LibUsb.handleEventsTimeout(null, 1000000);
+            int result = LibUsb.handleEventsTimeout(context, 1000000);
             if (result != LibUsb.SUCCESS) {
                 throw new LibUsbException("Unable to handle events", result);
             }
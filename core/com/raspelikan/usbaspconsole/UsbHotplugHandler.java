@@ -1,6 +1,5 @@
 package com.raspelikan.usbaspconsole;
 
-import org.eclipse.core.runtime.Status;
 import org.usb4java.Context;
 import org.usb4java.Device;
 import org.usb4java.DeviceDescriptor;
@@ -13,11 +12,11 @@ import org.usb4java.LibUsbException;
  */
 public class UsbHotplugHandler implements HotplugCallback {
 	
-	private USBaspConsoleActivator plugin;
+	private DeviceLifecycleWorker lifecycleWorker;
 	
-	public UsbHotplugHandler(final USBaspConsoleActivator plugin) {
+	public UsbHotplugHandler(final DeviceLifecycleWorker lifecycleWorker) {
 		
-		this.plugin = plugin;
+		this.lifecycleWorker = lifecycleWorker;
 		
 	}
 	
@@ -37,26 +36,22 @@ public class UsbHotplugHandler implements HotplugCallback {
         final short idVendor = descriptor.idVendor();
         final short idProduct = descriptor.idProduct();
         
-        if ((idVendor == USBaspConsoleActivator.USBasp_idVendor)
-        		&& (idProduct == USBaspConsoleActivator.USBasp_idProduct)) {
+        if ((idVendor == USBaspProtocol.USBasp_idVendor)
+        		&& (idProduct == USBaspProtocol.USBasp_idProduct)) {
 
+            // each device is told apart by the port it is plugged in at,
+            // opening or closing is done by the worker to keep this
+            // callback short since it blocks all other USB events
+            final String path = USBaspUsbDevice.getPath(device);
+            
             if (event == LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED) {
             	
-            	plugin.enableLogger();
-
-	        	plugin.getLog().log(new Status(Status.INFO,
-	        			USBaspConsoleActivator.PLUGIN_ID,
-	        			"USBasp plugged in. Enabled USBasp+ console at baud rate '"
-	        			+ plugin.getBaudRateByPreferences() + "'!"));
+            	lifecycleWorker.deviceArrived(device, path);
             	
             }
             else if (event == LibUsb.HOTPLUG_EVENT_DEVICE_LEFT) {
             	
-            	plugin.disableLogger();
-
-	        	plugin.getLog().log(new Status(Status.INFO,
-	        			USBaspConsoleActivator.PLUGIN_ID,
-	        			"USBasp unplugged. Disabled USBasp+ console!"));
+            	lifecycleWorker.deviceLeft(path);
             	
             }
         	
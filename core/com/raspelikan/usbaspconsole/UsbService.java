@@ -0,0 +1,240 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.usb4java.Context;
+import org.usb4java.Device;
+import org.usb4java.HotplugCallbackHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+
+/**
+ * The libusb context, its event handling thread and the hotplug handling
+ * (or the polling monitor if libusb has no hotplug support on this
+ * system). USBasp devices plugged in or unplugged are passed to a
+ * DeviceListener which opens or closes them. Used by the Eclipse plugin
+ * as well as by HeadlessCapture.
+ * 
+ * @author RasPelikan
+ */
+public class UsbService {
+	
+	/** ms between two scans for devices if libusb doesn't support hotplug */
+	public static final long DEVICE_SCAN_INTERVAL = 1000;
+	
+	private final Log log;
+	private final DeviceListener listener;
+	
+	private Context usbContext;
+	private HotplugCallbackHandle usbHotplugCallbackHandle;
+	private UsbEventHandlingThread usbEventHandlingThread;
+	private DeviceLifecycleWorker lifecycleWorker;
+	private DevicePollingMonitor pollingMonitor;
+	
+	// the paths of the devices opened successfully, closed on stop
+	private final Set<String> openPaths = Collections.synchronizedSet(new HashSet<String>());
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param listener Opens and closes the devices plugged in or unplugged
+	 */
+	public UsbService(final Log log, final DeviceListener listener) {
+		
+		this.log = log;
+		this.listener = listener;
+		
+	}
+	
+	/**
+	 * initialize libusb and start listening for devices, devices already
+	 * connected are reported as plugged in
+	 */
+	public synchronized void start() {
+		
+		if (usbContext != null) {
+			return;
+		}
+		
+		// build libusb context
+		final Context context = new Context();
+		final int result = LibUsb.init(context);
+		if (result != LibUsb.SUCCESS) {
+			throw new LibUsbException("Unable to initialize libusb.", result);
+		}
+		usbContext = context;
+		
+		// start lister for device-plugin and device-unplug events
+		enableUsbHotplugHandler();
+		
+	}
+	
+	/**
+	 * stop listening for devices, close any device open and shutdown libusb
+	 */
+	public synchronized void stop() {
+		
+		if (usbContext == null) {
+			return;
+		}
+		
+		// disable USB hotplug listener
+		disableUsbHotplugHandler();
+		
+		// stop reading further data and close any device connected while
+		// the event handling thread still completes cancelled transfers
+		final List<String> paths;
+		synchronized (openPaths) {
+			paths = new ArrayList<String>(openPaths);
+			openPaths.clear();
+		}
+		for (final String path : paths) {
+			try {
+				listener.deviceLeft(path);
+			} catch (Throwable e) {
+				log.warning("Could not close USBasp at " + path, e);
+			}
+		}
+		
+		stopUsbEventHandlingThread();
+		
+		// shutdown libusb
+		LibUsb.exit(usbContext);
+		usbContext = null;
+		
+	}
+	
+	/**
+	 * @return Whether libusb is initialized
+	 */
+	public synchronized boolean isStarted() {
+		
+		return usbContext != null;
+		
+	}
+	
+	/**
+	 * start lister for device-plugin and device-unplug events
+	 */
+	private void enableUsbHotplugHandler() {
+		
+		int result;
+		
+		// Start the event handling thread
+		usbEventHandlingThread = new UsbEventHandlingThread(usbContext);
+		usbEventHandlingThread.start();
+		
+		// devices are opened and closed off the event handling thread
+		lifecycleWorker = new DeviceLifecycleWorker(log, new DeviceListener() {
+			
+			@Override
+			public void deviceArrived(final Device device, final long plugTime) {
+				
+				listener.deviceArrived(device, plugTime);
+				openPaths.add(USBaspUsbDevice.getPath(device));
+				
+			}
+			
+			@Override
+			public void deviceLeft(final String path) {
+				
+				openPaths.remove(path);
+				listener.deviceLeft(path);
+				
+			}
+			
+		});
+		lifecycleWorker.start();
+		
+		// check whether hotplug is available
+		if (!LibUsb.hasCapability(LibUsb.CAP_HAS_HOTPLUG)) {
+			
+			log.warning("Libusb doesn't support hotplug on this system!"
+					+ " Scanning for USBasp devices every "
+					+ DEVICE_SCAN_INTERVAL + " ms instead.", null);
+			
+			// the first scan reports all devices connected
+			pollingMonitor = new DevicePollingMonitor(log, usbContext,
+					new UsbHotplugHandler(lifecycleWorker), DEVICE_SCAN_INTERVAL);
+			pollingMonitor.start();
+			
+		} else {
+			
+			usbHotplugCallbackHandle = new HotplugCallbackHandle();
+			result = LibUsb.hotplugRegisterCallback(usbContext,
+					LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED
+						| LibUsb.HOTPLUG_EVENT_DEVICE_LEFT,
+					LibUsb.HOTPLUG_ENUMERATE,
+					LibUsb.HOTPLUG_MATCH_ANY,
+					LibUsb.HOTPLUG_MATCH_ANY,
+					LibUsb.HOTPLUG_MATCH_ANY,
+					new UsbHotplugHandler(lifecycleWorker),
+					null,
+					usbHotplugCallbackHandle);
+			if (result != LibUsb.SUCCESS) {
+				throw new LibUsbException("Unable to register hotplug callback",
+					result);
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * stop lister for device-plugin and device-unplug events, the event
+	 * handling thread keeps running
+	 */
+	private void disableUsbHotplugHandler() {
+		
+		if (this.pollingMonitor != null) {
+			
+			this.pollingMonitor.shutdown();
+			this.pollingMonitor = null;
+			
+		} else if (this.usbHotplugCallbackHandle != null) {
+			
+			LibUsb.hotplugDeregisterCallback(usbContext, usbHotplugCallbackHandle);
+			this.usbHotplugCallbackHandle = null;
+			
+		}
+		
+		if (this.lifecycleWorker != null) {
+			
+			this.lifecycleWorker.shutdown();
+			
+			log.info("USBasp+ ignored " + this.lifecycleWorker.getBounces()
+					+ " devices unplugged within "
+					+ DeviceLifecycleWorker.DEBOUNCE_NANOS / 1000000 + " ms");
+			
+			this.lifecycleWorker = null;
+			
+		}
+		
+	}
+	
+	/**
+	 * stop handling libusb events once no device is open
+	 */
+	private void stopUsbEventHandlingThread() {
+		
+		// if thread is running then abort the thread
+		if (this.usbEventHandlingThread != null) {
+			
+			this.usbEventHandlingThread.abort();
+			
+			try {
+				this.usbEventHandlingThread.join();
+			} catch (InterruptedException e) {
+				// never mind
+			}
+			this.usbEventHandlingThread = null;
+			
+		}
+		
+	}
+	
+}
@@ -0,0 +1,110 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.ui.console.IOConsole;
+
+/**
+ * The thread responsible for passing the text typed into the console to
+ * the UartWriter. The console passes a line once it is completed by the
+ * return key. If the console is replaced the new one is used.
+ * 
+ * @author RasPelikan
+ */
+public class ConsoleInputReader extends Thread {
+	
+	private static final int READ_BUFFER_SIZE = 256;
+	private static final long RETRY_INTERVAL = 100; // ms
+	
+	private volatile boolean shutdown;
+	
+	private final ConsoleLogger logger;
+	private final UartWriter writer;
+	
+	private volatile InputStream input;
+	
+	// reused for every read to avoid garbage
+	private final byte[] readBytes = new byte[READ_BUFFER_SIZE];
+	
+	/**
+	 * Constructor
+	 */
+	public ConsoleInputReader(final ConsoleLogger logger, final UartWriter writer) {
+		
+		super("USBasp+ console input reader");
+		setDaemon(true);
+		
+		this.logger = logger;
+		this.writer = writer;
+		
+	}
+	
+	/**
+	 * shutdown and wait for being entirely shut down
+	 */
+	public void shutdown() {
+		
+		this.shutdown = true;
+		
+		// stop waiting for input
+		final InputStream input = this.input;
+		if (input != null) {
+			try {
+				input.close();
+			} catch (IOException e) {
+				// never mind
+			}
+		}
+		this.interrupt();
+		
+		try {
+			
+			this.join(10000);
+			
+		} catch (InterruptedException e) {
+			// never mind
+		}
+		
+	}
+	
+	/**
+	 * the thread's main routine
+	 */
+	@Override
+	public void run() {
+		
+		// repeat unless shutdown
+		while (!shutdown) {
+			
+			int numberOfBytesRead = -1;
+			
+			final IOConsole console = logger.getConsole();
+			if (console != null) {
+				
+				input = console.getInputStream();
+				try {
+					numberOfBytesRead = input.read(readBytes);
+				} catch (IOException e) {
+					// console closed, maybe replaced
+				}
+				
+			}
+			
+			if (numberOfBytesRead > 0) {
+				writer.send(readBytes, 0, numberOfBytesRead);
+				continue;
+			}
+			
+			// no console (yet) or closed
+			try {
+				Thread.sleep(RETRY_INTERVAL);
+			} catch (InterruptedException e) {
+				// maybe shutdown called?
+			}
+			
+		}
+		
+	}
+	
+}
@@ -1,24 +1,66 @@
 package com.raspelikan.usbaspconsole;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.console.ConsolePlugin;
+import org.eclipse.ui.console.IConsoleManager;
 import org.eclipse.ui.console.IOConsole;
 import org.eclipse.ui.console.IOConsoleOutputStream;
 
 /**
- * The thread responsible for writing USART contents to Eclipse' console.
+ * The task responsible for writing USART contents to Eclipse' console.
+ * The contents are read from the device by UartReader and passed by a
+ * ByteRingBuffer. Each step writes one chunk and is run by the
+ * DeviceExecutor shared by all devices, the reader wakes it up once the
+ * buffer is no longer empty.
  * 
  * @author RasPelikan
  */
-public class ConsoleLogger extends Thread {
+public class ConsoleLogger implements DeviceExecutor.Task {
 
+	/**
+	 * How the bytes received are shown
+	 */
+	public enum DisplayMode {
+		/** as text decoded by the console's charset */
+		TEXT,
+		/** as hex dump */
+		HEX,
+		/** as hex dump followed by the printable ASCII characters */
+		HEX_ASCII
+	}
+	
 	public static final String CONSOLE_NAME = "USBasp+ Console";
+	public static final String CONSOLE_TYPE = "com.raspelikan.usbaspconsole.console";
+	
+	// the console's encoding if bytes are passed as they are
+	private static final String RAW_ENCODING = "ISO-8859-1";
+	
+	private static final int WRITE_BUFFER_SIZE = 1024;
+	private static final long MAX_WAIT_NANOS = 500000000; // 500 ms
+	
+	// coalesce console writes: flush if one of these limits is reached
+	private static final int FLUSH_SIZE = 4096;
+	private static final long FLUSH_INTERVAL_NANOS = 50000000; // 50 ms
+	
+	private static final long WARN_INTERVAL_NANOS = 500000000; // 500 ms
+	
+	// a pause ends the current row of a hex dump
+	private static final long ROW_TIMEOUT_NANOS = 100000000; // 100 ms
+	
+	private static final byte[] FRAME_HEADER = ascii("Frame of ");
+	private static final byte[] FRAME_BYTES = ascii(" bytes:\n");
+	private static final byte[] FRAME_BAD_CRC = ascii(" bytes, bad CRC:\n");
+	
+	// bytes per chunk expected on average, sizes the chunk index
+	private static final int BYTES_PER_CHUNK = 8;
 	
 	private ILog log;
 	
@@ -26,16 +68,113 @@ public class ConsoleLogger extends Thread {
 	private volatile boolean enabled;
 	
 	private USBaspDevice device;
-	private IOConsole console;
+	private final String consoleName;
+	private volatile IOConsole console;
+	private IConsoleManager consoleManager;
+	
+	private volatile int lowWaterMark = -1;
+	private volatile int highWaterMark = -1;
+	private IOConsoleOutputStream noticeStream;
+	
+	private volatile String charsetName;
+	private String consoleCharsetName;
+	
+	private volatile DisplayMode displayMode = DisplayMode.TEXT;
+	private DisplayMode consoleDisplayMode = DisplayMode.TEXT;
+	private HexDumpFormatter hexDump;
+	
+	private volatile FrameDecoder frameDecoder;
+	private FrameDecoder consoleFrameDecoder;
+	private HexDumpFormatter frameDump;
+	private CharsetAlignedOutputStream frameStream;
+	private long frameTimestamp;
+	private final FrameListener frameListener = new FrameListener() {
+		@Override
+		public void frameDecoded(final ByteBuffer frame, final boolean crcValid) {
+			try {
+				writeFrame(frame, crcValid);
+			} catch (IOException e) {
+				// ignore at the moment
+			}
+		}
+	};
+	
+	private volatile boolean timestamps;
+	private long startTime;
+	private boolean atLineStart = true;
+	
+	private final DeviceExecutor executor;
+	private final UartReader reader;
+	private final UartWriter writer;
+	private final ConsoleInputReader inputReader;
+	private CaptureRecorder recorder;
+	private volatile UartBridge bridge;
+	private volatile ByteRingBuffer buffer;
+	private volatile int bufferCapacity;
+	private volatile DeviceExecutor.Handle handle;
+	
+	// state of the steps draining the buffer
+	private CharsetAlignedOutputStream consoleStream;
+	private ByteRingBuffer drainedBuffer;
+	private boolean bufferWasEmpty = true;
+	private long arrivalTime;
+	private int unflushedChars;
+	private long lastFlushTime;
+	private boolean contentChanged;
+	private long lastWarnTime;
+	private long lastReadTime;
+	
+	private long overrunsReported;
+	private long droppedBytesReported;
+	
+	// time from arrival to console, time to write a chunk and to flush
+	private final LatencyHistogram latencyStatistics = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+	private final DeviceMetrics metrics;
+	
+	// reused for every write to avoid garbage while streaming
+	private final byte[] byteBuffer = new byte[WRITE_BUFFER_SIZE];
+	private final byte[] timestampBytes = new byte[32];
+	private final byte[] dumpBuffer = new byte[4 * WRITE_BUFFER_SIZE];
+	private final ByteBuffer chunk = ByteBuffer.wrap(byteBuffer);
 	
 	/**
 	 * Constructor
+	 * 
+	 * @param executor The executor running this logger and the device's
+	 *            reader and writer
+	 * @param consoleName The name of the console showing the device's bytes
 	 */
-	public ConsoleLogger(final ILog log, final USBaspDevice device, final boolean enabled) {
+	public ConsoleLogger(final ILog log, final USBaspDevice device,
+			final DeviceExecutor executor, final String consoleName, final boolean enabled,
+			final long minPollInterval, final long maxPollInterval,
+			final int bufferCapacity, final ByteRingBuffer.OverflowPolicy overflowPolicy,
+			final String charsetName) {
 		
 		this.log = log;
 		this.device = device;
+		this.executor = executor;
+		this.consoleName = consoleName;
 		this.enabled = enabled;
+		this.bufferCapacity = bufferCapacity;
+		this.charsetName = charsetName;
+		this.buffer = newBuffer(bufferCapacity, overflowPolicy);
+		this.reader = new UartReader(new EclipseLog(log), device, this.buffer,
+				minPollInterval, maxPollInterval);
+		this.writer = new UartWriter(new EclipseLog(log), device);
+		this.inputReader = new ConsoleInputReader(this, this.writer);
+		this.metrics = new DeviceMetrics(device, this);
+		
+	}
+	
+	/**
+	 * Start draining the buffer and reading and writing the device
+	 */
+	public void start() {
+		
+		this.handle = executor.schedule("USBasp+ console logger", this);
+		this.buffer.setConsumerHandle(this.handle);
 		
 	}
 	
@@ -44,127 +183,558 @@ public class ConsoleLogger extends Thread {
 	 */
 	public void shutdown() {
 		
-		synchronized (this) {
-
-			this.shutdown = true;
-			this.notifyAll();
+		this.shutdown = true;
+		
+		// no step in progress any more, so the console is ours
+		final DeviceExecutor.Handle handle = this.handle;
+		if (handle != null) {
+			handle.cancel();
+		}
+		
+		this.inputReader.shutdown();
+		this.writer.shutdown();
+		this.reader.shutdown();
+		stopCapture();
+		stopBridge();
+		
+		if (consoleStream != null) {
+			try {
+				consoleStream.close();
+			} catch (IOException e) {
+				// never mind any more
+			}
+		}
+		
+		// free any resources acquired during console initialization
+		shutdownConsole();
+		
+	}
+	
+	/**
+	 * Write one chunk of the bytes buffered to the console
+	 * 
+	 * @return The time to wait for the reader at most
+	 */
+	@Override
+	public long runStep() {
+		
+		if (shutdown) {
+			return -1;
+		}
+		
+		// the console is built by the first step
+		if (consoleStream == null) {
+			
+			consoleStream = initializeConsole();
+			
+			// start reading the device
+			reader.start(executor);
+			
+			// start sending console input to the device
+			writer.start(executor);
+			inputReader.start();
+			
+			drainedBuffer = this.buffer;
+			lastFlushTime = System.nanoTime();
+			lastWarnTime = lastFlushTime;
+			lastReadTime = lastFlushTime;
 			
 		}
-
-		try {
+		
+		// a new charset needs a new console since the encoding is fixed
+		if (!consoleCharsetName.equals(this.charsetName)) {
+			try {
+				consoleStream.close();
+			} catch (IOException e) {
+				// never mind
+			}
+			consoleStream = initializeConsole();
+			unflushedChars = 0;
+		}
+		
+		// the display mode is switched without a new console
+		if ((consoleDisplayMode != this.displayMode)
+				|| (consoleFrameDecoder != this.frameDecoder)) {
+			try {
+				switchDisplayMode(consoleStream);
+			} catch (IOException e) {
+				// ignore at the moment
+			}
+			++unflushedChars;
+		}
+		
+		// print the bytes buffered to console
+		final ByteRingBuffer buffer = this.drainedBuffer;
+		final int numberOfBytesRead = buffer.read(byteBuffer, 0, byteBuffer.length);
+		if (numberOfBytesRead > 0) {
+			
+			if (bufferWasEmpty) {
+				arrivalTime = reader.getArrivalTime();
+				bufferWasEmpty = false;
+			}
+			lastReadTime = System.nanoTime();
+			
+			final long writeTime = System.nanoTime();
+			try {
+				write(consoleStream, buffer, numberOfBytesRead);
+			} catch (IOException e) {
+				// ignore at the moment
+			}
+			writeLatency.add(System.nanoTime() - writeTime);
+			unflushedChars += numberOfBytesRead;
+			
+		}
+		
+		// a pause ends the current row of a hex dump
+		final long now = System.nanoTime();
+		final boolean rowOpen = (hexDump != null) && !hexDump.isAtRowStart();
+		if (rowOpen && (numberOfBytesRead == 0)
+				&& (now - lastReadTime >= ROW_TIMEOUT_NANOS)) {
+			try {
+				consoleStream.write(dumpBuffer, 0, hexDump.endRow(dumpBuffer, 0));
+			} catch (IOException e) {
+				// ignore at the moment
+			}
+			++unflushedChars;
+		}
+		
+		// flush on a size or time boundary only
+		if ((unflushedChars >= FLUSH_SIZE)
+				|| ((unflushedChars > 0) && (now - lastFlushTime >= FLUSH_INTERVAL_NANOS))) {
+			
+			try {
+				consoleStream.flush();
+			} catch (IOException e) {
+				// ignore at the moment
+			}
+			flushLatency.add(System.nanoTime() - now);
+			unflushedChars = 0;
+			lastFlushTime = now;
+			contentChanged = true;
+			
+			if (arrivalTime != 0) {
+				latencyStatistics.add(Math.max(0, System.nanoTime() - arrivalTime));
+				arrivalTime = 0;
+			}
+			
+		}
+		
+		// show that console changed, but not too often
+		if (contentChanged && (now - lastWarnTime >= WARN_INTERVAL_NANOS)) {
 			
-			this.join(10000);
+			consoleManager.warnOfContentChange(console);
+			contentChanged = false;
+			lastWarnTime = now;
 			
-		} catch (InterruptedException e) {
-			// never mind
 		}
 		
+		// more bytes are drained once the tasks sharing the thread had their turn
+		if (numberOfBytesRead > 0) {
+			return 0;
+		}
+		
+		// a new buffer is used once the current one is drained
+		if (buffer != this.buffer) {
+			drainedBuffer = this.buffer;
+			return 0;
+		}
+		
+		bufferWasEmpty = true;
+		
+		if (enabled) {
+			reportOverruns();
+			reportDroppedBytes(buffer);
+		}
+		
+		// no data any more? the reader wakes this task up, but wait
+		// not longer than the next flush or warning is due
+		long timeout = MAX_WAIT_NANOS;
+		if (unflushedChars > 0) {
+			timeout = Math.min(timeout, lastFlushTime + FLUSH_INTERVAL_NANOS - now);
+		}
+		if (contentChanged) {
+			timeout = Math.min(timeout, lastWarnTime + WARN_INTERVAL_NANOS - now);
+		}
+		if (rowOpen) {
+			timeout = Math.min(timeout, lastReadTime + ROW_TIMEOUT_NANOS - now);
+		}
+		return Math.max(1, timeout);
+		
 	}
 	
 	/**
-	 * the thread's main routine
+	 * Run the next step now, e.g. to apply a setting
 	 */
-	@Override
-	public void run() {
+	private void wakeUp() {
 		
-		Writer consoleWriter = null;
-		try {
-			
-			// initialize the console writer
-			consoleWriter = initializeConsole();
+		final DeviceExecutor.Handle handle = this.handle;
+		if (handle != null) {
+			handle.wakeUp();
+		}
+		
+	}
+	
+	/**
+	 * Write the bytes read to the console, each line prefixed by the time
+	 * of arrival of its first byte if timestamps are enabled
+	 * 
+	 * @param buffer The buffer the bytes were read from
+	 * @param length The number of bytes read
+	 */
+	private void write(final CharsetAlignedOutputStream consoleStream, final ByteRingBuffer buffer,
+			final int length) throws IOException {
+		
+		final boolean timestamps = this.timestamps;
+		final long readPosition = buffer.getReadPosition();
+		
+		if (consoleFrameDecoder != null) {
+			writeFrames(consoleStream, buffer, length, readPosition);
+			return;
+		}
+		
+		if (hexDump != null) {
+			writeHexDump(consoleStream, buffer, length, timestamps, readPosition);
+			return;
+		}
+		
+		int written = 0;
+		for (int i = 0; i < length; ++i) {
 			
-			// repeat unless shutdown
-			while (!shutdown) {
-
-				// if console not disabled (no usb device connected)
-				if (enabled) {
-					
-					try {
-						
-						// fetch all strings available and print to console
-						String deviceOutput;
-						while ((deviceOutput = device.getString()) != null) {
-							
-							try {
-								consoleWriter.write(deviceOutput);
-								consoleWriter.flush();
-							} catch (IOException e) {
-								// ignore at the moment
-							}
-							
-						}
-						
-					} catch (Throwable e) {
-						
-						// errors will be ignored if occur during unplugging the device
-						if (enabled) {
-							
-				        	this.log.log(new Status(Status.WARNING,
-				        			USBaspConsoleActivator.PLUGIN_ID,
-				        			"Error reading data from device", e));
-			        	
-						}
-						
-					}
-					
-					// show that console changed
-					USBaspConsoleActivator.warnOfContentChange();
-					
-				}
-                
-				// no data any more? wait half a second
-				synchronized (this) {
-					
-					try {
-						this.wait(500);
-					} catch (InterruptedException e) {
-						// maybe shutdown called?
-					}
-					
+			if (atLineStart && timestamps) {
+				
+				consoleStream.write(byteBuffer, written, i - written);
+				written = i;
+				
+				long timestamp = buffer.getTimestamp(readPosition + i);
+				if (timestamp == 0) {
+					timestamp = System.nanoTime();
 				}
+				consoleStream.write(timestampBytes, 0, formatTimestamp(timestamp));
 				
 			}
 			
-		} finally {
+			atLineStart = byteBuffer[i] == '\n';
+			
+		}
 		
-			try {
-				consoleWriter.close();
-			} catch (IOException e) {
-				// never mind any more
+		consoleStream.write(byteBuffer, written, length - written);
+		
+	}
+	
+	/**
+	 * Write the bytes read to the console as hex dump, each row prefixed by
+	 * the time of arrival of its first byte if timestamps are enabled
+	 */
+	private void writeHexDump(final CharsetAlignedOutputStream consoleStream,
+			final ByteRingBuffer buffer, final int length, final boolean timestamps,
+			final long readPosition) throws IOException {
+		
+		int position = 0;
+		for (int i = 0; i < length; ++i) {
+			
+			if ((position > dumpBuffer.length - HexDumpFormatter.MAX_BYTES_PER_FORMAT)
+					|| (timestamps && hexDump.isAtRowStart())) {
+				consoleStream.write(dumpBuffer, 0, position);
+				position = 0;
 			}
 			
-			// free any resources acquired during console initialization
-			shutdownConsole();
+			if (timestamps && hexDump.isAtRowStart()) {
+				
+				long timestamp = buffer.getTimestamp(readPosition + i);
+				if (timestamp == 0) {
+					timestamp = System.nanoTime();
+				}
+				consoleStream.write(timestampBytes, 0, formatTimestamp(timestamp));
+				
+			}
 			
+			position = hexDump.format(byteBuffer[i], dumpBuffer, position);
+			
+		}
+		
+		consoleStream.write(dumpBuffer, 0, position);
+		
+	}
+	
+	/**
+	 * Pass the bytes read to the frame decoder, the frames completed are
+	 * written by the frame listener
+	 */
+	private void writeFrames(final CharsetAlignedOutputStream consoleStream,
+			final ByteRingBuffer buffer, final int length, final long readPosition) {
+		
+		// frames completed by this chunk arrived with its first byte at the latest
+		frameTimestamp = buffer.getTimestamp(readPosition);
+		if (frameTimestamp == 0) {
+			frameTimestamp = System.nanoTime();
 		}
+		frameStream = consoleStream;
+		
+		chunk.clear();
+		chunk.limit(length);
+		consoleFrameDecoder.decode(chunk, frameListener);
 		
 	}
 	
 	/**
-	 * initialize the console writer
+	 * Write a frame as hex dump following a header line
+	 */
+	private void writeFrame(final ByteBuffer frame, final boolean crcValid) throws IOException {
+		
+		int position = 0;
+		if (timestamps) {
+			position = formatTimestamp(frameTimestamp);
+			System.arraycopy(timestampBytes, 0, dumpBuffer, 0, position);
+		}
+		
+		final int length = frame.remaining();
+		position = append(FRAME_HEADER, position);
+		position = appendDecimal(length, position);
+		position = append(crcValid ? FRAME_BYTES : FRAME_BAD_CRC, position);
+		
+		frameDump.reset();
+		for (int i = frame.position(); i < frame.limit(); ++i) {
+			
+			if (position > dumpBuffer.length - HexDumpFormatter.MAX_BYTES_PER_FORMAT) {
+				frameStream.write(dumpBuffer, 0, position);
+				position = 0;
+			}
+			position = frameDump.format(frame.get(i), dumpBuffer, position);
+			
+		}
+		position = frameDump.endRow(dumpBuffer, position);
+		
+		frameStream.write(dumpBuffer, 0, position);
+		
+	}
+	
+	/**
+	 * Append bytes to the dumpBuffer
+	 * 
+	 * @return The new position
+	 */
+	private int append(final byte[] bytes, final int position) {
+		
+		System.arraycopy(bytes, 0, dumpBuffer, position, bytes.length);
+		return position + bytes.length;
+		
+	}
+	
+	/**
+	 * Append a number to the dumpBuffer without creating garbage
 	 * 
-	 * @return the writer
+	 * @return The new position
 	 */
-	private Writer initializeConsole() {
+	private int appendDecimal(int value, int position) {
+		
+		int digits = 1;
+		for (int v = value / 10; v > 0; v /= 10) {
+			++digits;
+		}
+		
+		position += digits;
+		for (int i = 1; i <= digits; ++i) {
+			dumpBuffer[position - i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		
+		return position;
+		
+	}
+	
+	private static byte[] ascii(final String text) {
+		
+		final byte[] result = new byte[text.length()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = (byte) text.charAt(i);
+		}
+		return result;
+		
+	}
+	
+	/**
+	 * Finish the output of the current display mode or frame decoder and
+	 * start the new one
+	 */
+	private void switchDisplayMode(final CharsetAlignedOutputStream consoleStream)
+			throws IOException {
+		
+		if (consoleFrameDecoder != null) {
+			// frames are written as a whole
+		} else if (hexDump != null) {
+			consoleStream.write(dumpBuffer, 0, hexDump.endRow(dumpBuffer, 0));
+		} else if (!atLineStart) {
+			consoleStream.write('\n');
+		}
+		atLineStart = true;
+		
+		consoleDisplayMode = this.displayMode;
+		switch (consoleDisplayMode) {
+		case HEX:
+			hexDump = new HexDumpFormatter(false);
+			break;
+		case HEX_ASCII:
+			hexDump = new HexDumpFormatter(true);
+			break;
+		default:
+			hexDump = null;
+		}
+		
+		consoleFrameDecoder = this.frameDecoder;
+		if (consoleFrameDecoder != null) {
+			consoleFrameDecoder.reset();
+			frameDump = new HexDumpFormatter(consoleDisplayMode != DisplayMode.HEX);
+		}
+		
+	}
+	
+	/**
+	 * Format a timestamp as seconds since the console was started, e.g.
+	 * "[    12.345678] ", into timestampBytes without creating garbage
+	 * 
+	 * @param timestamp The System.nanoTime() to be formatted
+	 * @return The number of characters
+	 */
+	private int formatTimestamp(final long timestamp) {
+		
+		final long micros = Math.max(0, timestamp - startTime) / 1000;
+		long seconds = micros / 1000000;
+		long fraction = micros % 1000000;
+		
+		int position = timestampBytes.length;
+		timestampBytes[--position] = ' ';
+		timestampBytes[--position] = ']';
+		for (int i = 0; i < 6; ++i) {
+			timestampBytes[--position] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		timestampBytes[--position] = '.';
+		do {
+			timestampBytes[--position] = (byte) ('0' + seconds % 10);
+			seconds /= 10;
+		} while ((seconds > 0) && (position > 1));
+		while (position > timestampBytes.length - 15) {
+			timestampBytes[--position] = ' ';
+		}
+		timestampBytes[--position] = '[';
+		
+		// move to the beginning
+		final int length = timestampBytes.length - position;
+		System.arraycopy(timestampBytes, position, timestampBytes, 0, length);
+		return length;
+		
+	}
+	
+	/**
+	 * Tell the user about receive buffer overruns detected since last call
+	 */
+	private void reportOverruns() {
+		
+		final long overruns = device.getOverruns();
+		if (overruns == overrunsReported) {
+			return;
+		}
+		
+		final long newOverruns = overruns - overrunsReported;
+		overrunsReported = overruns;
+		
+		try {
+			noticeStream.write("\n[USBasp+ receive buffer overrun, data lost "
+					+ newOverruns + "x (" + overruns + " overruns in total). "
+					+ "Try a lower baud rate or poll interval.]\n");
+		} catch (IOException e) {
+			// ignore at the moment
+		}
+		
+	}
+	
+	/**
+	 * Tell the user about bytes dropped since the console did not keep up
+	 */
+	private void reportDroppedBytes(final ByteRingBuffer buffer) {
+		
+		final long droppedBytes = buffer.getDroppedBytes();
+		if (droppedBytes <= droppedBytesReported) {
+			droppedBytesReported = droppedBytes;
+			return;
+		}
+		
+		final long newDroppedBytes = droppedBytes - droppedBytesReported;
+		droppedBytesReported = droppedBytes;
+		
+		try {
+			noticeStream.write("\n[USBasp+ console did not keep up, "
+					+ newDroppedBytes + " bytes dropped]\n");
+		} catch (IOException e) {
+			// ignore at the moment
+		}
+		
+	}
+	
+	/**
+	 * initialize the console stream
+	 * 
+	 * @return the stream
+	 */
+	private CharsetAlignedOutputStream initializeConsole() {
 		
 		// shutdown any console previously initialized
 		this.shutdownConsole();
 		
+		// bytes are decoded by the console, raw bytes are shown one char each
+		final String charsetName = this.charsetName;
+		Charset charset = null;
+		String encoding = RAW_ENCODING;
+		if (!USBaspConsoleActivator.CONSOLE_CHARSET_RAW.equals(charsetName)) {
+			try {
+				charset = Charset.forName(charsetName);
+				encoding = charset.name();
+			} catch (IllegalArgumentException e) {
+				this.log.log(new Status(Status.WARNING,
+						USBaspConsoleActivator.PLUGIN_ID,
+						"Charset '" + charsetName + "' not supported, showing raw bytes", e));
+			}
+		}
+		this.consoleCharsetName = charsetName;
+		this.atLineStart = true;
+		if (this.hexDump != null) {
+			this.hexDump = new HexDumpFormatter(this.consoleDisplayMode == DisplayMode.HEX_ASCII);
+		}
+		
 		// build new console
-		this.console = new IOConsole(CONSOLE_NAME,
-				USBaspConsoleActivator.getImageDescriptor("icons/usbasp_console.png"));
+		this.console = new IOConsole(consoleName, CONSOLE_TYPE,
+				USBaspConsoleActivator.getImageDescriptor("icons/usbasp_console.png"),
+				encoding, false);
+		this.console.setWaterMarks(lowWaterMark, highWaterMark);
+		this.startTime = System.nanoTime();
 
-		// build writer for new console
+		// build stream for new console, bytes are passed without re-encoding
 		final IOConsoleOutputStream stream = this.console.newOutputStream();
-		final Writer consoleWriter = new PrintWriter(new OutputStreamWriter(
-				stream), true);
+		final CharsetAlignedOutputStream consoleStream = new CharsetAlignedOutputStream(
+				stream, charset, FLUSH_SIZE + WRITE_BUFFER_SIZE);
+		
+		// build stream for messages of the plugin itself
+		this.noticeStream = this.console.newOutputStream();
+		this.noticeStream.setActivateOnWrite(false);
+		final IOConsoleOutputStream noticeStream = this.noticeStream;
+		final Display display = Display.getDefault();
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				noticeStream.setColor(display.getSystemColor(SWT.COLOR_RED));
+			}
+		});
 		
 		// add console to list of consoles
 		final ConsolePlugin consolePlugin = ConsolePlugin.getDefault();
-		consolePlugin.getConsoleManager().addConsoles(
+		this.consoleManager = consolePlugin.getConsoleManager();
+		this.consoleManager.addConsoles(
 				new IOConsole[] { this.console } );
+		if (this.enabled) {
+			this.console.activate();
+		}
 		
-		return consoleWriter;
+		return consoleStream;
 		
 	}
 	
@@ -186,13 +756,331 @@ public class ConsoleLogger extends Thread {
 		
 	}
 	
+	/**
+	 * Limit the console's content: once there are more characters than
+	 * the high water mark it is trimmed to the low water mark.
+	 * 
+	 * @param lowWaterMark The characters kept or -1 for no limit
+	 * @param highWaterMark The characters allowed at most
+	 */
+	public void setWaterMarks(final int lowWaterMark, final int highWaterMark) {
+		
+		this.lowWaterMark = lowWaterMark;
+		this.highWaterMark = highWaterMark;
+		
+		final IOConsole console = this.console;
+		if (console != null) {
+			console.setWaterMarks(lowWaterMark, highWaterMark);
+		}
+		
+	}
+	
+	/**
+	 * @param timestamps Whether each line is prefixed by the time of
+	 *            arrival of its first byte
+	 */
+	public void setTimestamps(final boolean timestamps) {
+		
+		this.timestamps = timestamps;
+		
+	}
+	
+	/**
+	 * Change the charset the bytes received are decoded by. The console is
+	 * replaced since its encoding cannot be changed.
+	 * 
+	 * @param charsetName The charset's name or CONSOLE_CHARSET_RAW
+	 */
+	public void setCharset(final String charsetName) {
+		
+		this.charsetName = charsetName;
+		wakeUp();
+		
+	}
+	
+	/**
+	 * Change how the bytes received are shown, applies to bytes received
+	 * from now on
+	 */
+	public void setDisplayMode(final DisplayMode displayMode) {
+		
+		this.displayMode = displayMode;
+		wakeUp();
+		
+	}
+	
+	/**
+	 * Split the bytes received into frames before they are shown
+	 * 
+	 * @param frameDecoder The decoder or null to show the bytes as they are
+	 */
+	public void setFrameDecoder(final FrameDecoder frameDecoder) {
+		
+		this.frameDecoder = frameDecoder;
+		wakeUp();
+		
+	}
+	
+	/**
+	 * @return The frame decoder in use or null
+	 */
+	public FrameDecoder getFrameDecoder() {
+		
+		return frameDecoder;
+		
+	}
+	
+	/**
+	 * @return The USBasp+ console or null if not initialized yet
+	 */
+	public IOConsole getConsole() {
+		
+		return console;
+		
+	}
+	
 	/**
 	 * Called once a device is connected
+	 * 
+	 * @param plugTime The time the device was plugged in (System.nanoTime())
 	 */
-	public void enable() {
+	public void enable(final long plugTime) {
+		
+		// apply a new buffer capacity
+		if (this.bufferCapacity != this.buffer.getCapacity()) {
+			this.buffer = newBuffer(this.bufferCapacity, this.buffer.getPolicy());
+			this.buffer.setConsumerHandle(this.handle);
+			this.droppedBytesReported = 0;
+			this.reader.setBuffer(this.buffer);
+		}
+		
+		this.reader.enable(plugTime);
+		this.writer.enable();
 		
 		this.enabled = true;
-		this.console.activate();
+		
+		// the console is activated once built if not built yet
+		final IOConsole console = this.console;
+		if (console != null) {
+			console.activate();
+		}
+		
+	}
+	
+	/**
+	 * Build a buffer able to remember the time of arrival of its chunks
+	 */
+	private static ByteRingBuffer newBuffer(final int capacity,
+			final ByteRingBuffer.OverflowPolicy overflowPolicy) {
+		
+		return new ByteRingBuffer(capacity, overflowPolicy,
+				Math.max(64, capacity / BYTES_PER_CHUNK));
+		
+	}
+	
+	/**
+	 * Called once the baud rate of the device changed
+	 */
+	public void baudRateChanged() {
+		
+		this.reader.baudRateChanged();
+		this.writer.baudRateChanged();
+		
+	}
+	
+	/**
+	 * Change the buffer between reader and console. The policy is applied
+	 * immediately, the capacity once a device is connected next time.
+	 */
+	public void setBuffer(final int bufferCapacity,
+			final ByteRingBuffer.OverflowPolicy overflowPolicy) {
+		
+		this.bufferCapacity = bufferCapacity;
+		this.buffer.setPolicy(overflowPolicy);
+		
+	}
+	
+	/**
+	 * Start writing every byte received to capture files, stops any
+	 * capturing started before
+	 * 
+	 * @param directory The directory for the capture files
+	 * @param segmentSize The size of each capture file in bytes
+	 */
+	public synchronized void startCapture(final File directory, final int segmentSize) {
+		
+		stopCapture();
+		
+		this.recorder = new CaptureRecorder(new EclipseLog(log), directory, segmentSize);
+		this.recorder.start();
+		this.reader.setRecorder(this.recorder);
+		
+	}
+	
+	/**
+	 * Stop writing capture files
+	 */
+	public synchronized void stopCapture() {
+		
+		if (this.recorder == null) {
+			return;
+		}
+		
+		this.reader.setRecorder(null);
+		this.recorder.shutdown();
+		
+		this.log.log(new Status(Status.INFO, USBaspConsoleActivator.PLUGIN_ID,
+				"USBasp+ capture stopped: " + this.recorder));
+		
+		this.recorder = null;
+		
+	}
+	
+	/**
+	 * Start passing every byte received to the clients of a bridge and
+	 * the bytes of the clients to the device, stops any bridge started
+	 * before
+	 * 
+	 * @param endpoint See UartBridge
+	 * @param policy What to do with a client whose buffer is full
+	 * @param clientBufferSize The bytes buffered per client
+	 */
+	public synchronized void startBridge(final String endpoint,
+			final UartBridge.SlowClientPolicy policy, final int clientBufferSize)
+			throws IOException {
+		
+		stopBridge();
+		
+		final UartBridge bridge = new UartBridge(new EclipseLog(log), endpoint,
+				policy, clientBufferSize);
+		bridge.setWriter(this.writer);
+		bridge.start();
+		this.bridge = bridge;
+		this.reader.setBridge(bridge);
+		
+		this.log.log(new Status(Status.INFO, USBaspConsoleActivator.PLUGIN_ID,
+				"USBasp+ bridge of " + consoleName + " started at " + endpoint));
+		
+	}
+	
+	/**
+	 * Stop the bridge
+	 */
+	public synchronized void stopBridge() {
+		
+		final UartBridge bridge = this.bridge;
+		if (bridge == null) {
+			return;
+		}
+		
+		this.reader.setBridge(null);
+		this.bridge = null;
+		bridge.shutdown();
+		
+		this.log.log(new Status(Status.INFO, USBaspConsoleActivator.PLUGIN_ID,
+				"USBasp+ bridge stopped: " + bridge));
+		
+	}
+	
+	/**
+	 * @return The writer sending bytes to the device
+	 */
+	public UartWriter getWriter() {
+		
+		return writer;
+		
+	}
+	
+	/**
+	 * @return The buffer between reader and console
+	 */
+	public ByteRingBuffer getBuffer() {
+		
+		return buffer;
+		
+	}
+	
+	/**
+	 * Change the polling intervals
+	 * 
+	 * @param minPollInterval The interval used while data is arriving in ms
+	 * @param maxPollInterval The interval used for an idle device in ms
+	 */
+	public void setPollingIntervals(final long minPollInterval, final long maxPollInterval) {
+		
+		this.reader.setPollingIntervals(minPollInterval, maxPollInterval);
+		
+	}
+	
+	/**
+	 * @return The observed latency from byte arrival to console write
+	 */
+	public LatencyHistogram getLatencyStatistics() {
+		
+		return latencyStatistics;
+		
+	}
+	
+	/**
+	 * @return The time decoding and writing a chunk read to the console takes
+	 */
+	public LatencyHistogram getWriteLatency() {
+		
+		return writeLatency;
+		
+	}
+	
+	/**
+	 * @return The time flushing the console takes
+	 */
+	public LatencyHistogram getFlushLatency() {
+		
+		return flushLatency;
+		
+	}
+	
+	/**
+	 * @return The time the USB transfers of one read of the device take
+	 */
+	public LatencyHistogram getReadLatency() {
+		
+		return reader.getReadLatency();
+		
+	}
+	
+	/**
+	 * @return The time between two reads of the device
+	 */
+	public LatencyHistogram getPollInterval() {
+		
+		return reader.getPollInterval();
+		
+	}
+	
+	/**
+	 * @return The number of UART bytes read from the device
+	 */
+	public long getBytesRead() {
+		
+		return reader.getBytesRead();
+		
+	}
+	
+	/**
+	 * @return The metrics of the device and this console
+	 */
+	public DeviceMetrics getMetrics() {
+		
+		return metrics;
+		
+	}
+	
+	/**
+	 * @return The times from plugging in the device to its first byte
+	 */
+	public LatencyStatistics getFirstByteLatency() {
+		
+		return reader.getFirstByteLatency();
 		
 	}
 	
@@ -201,6 +1089,8 @@ public class ConsoleLogger extends Thread {
 	 */
 	public void disable() {
 		
+		this.reader.disable();
+		this.writer.disable();
 		this.enabled = false;
 		
 	}
@@ -0,0 +1,308 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.File;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.IStatusLineManager;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.IInputValidator;
+import org.eclipse.jface.dialogs.InputDialog;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+import org.eclipse.jface.window.Window;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.ui.console.IConsole;
+import org.eclipse.ui.console.IConsoleConstants;
+import org.eclipse.ui.console.IConsolePageParticipant;
+import org.eclipse.ui.part.IPageBookViewPage;
+
+/**
+ * Adds the actions of the USBasp+ console to the console view's toolbar
+ * and shows the metrics of its device in the status line
+ * 
+ * @author RasPelikan
+ */
+public class ConsolePageParticipant implements IConsolePageParticipant,
+		IPropertyChangeListener {
+	
+	private static final String[] DISPLAY_MODE_LABELS = { "Text", "Hex", "Hex+ASCII" };
+	
+	private static final int STATUS_LINE_INTERVAL = 1000; // ms
+	
+	/**
+	 * Shows the bytes received in one of the display modes
+	 */
+	private static class DisplayModeAction extends Action {
+		
+		private final ConsoleLogger.DisplayMode displayMode;
+		
+		DisplayModeAction(final ConsoleLogger.DisplayMode displayMode) {
+			
+			super(DISPLAY_MODE_LABELS[displayMode.ordinal()], IAction.AS_RADIO_BUTTON);
+			setToolTipText("Display as "
+					+ PreferencesPage.CONSOLE_DISPLAY_MODE_LABELS[displayMode.ordinal()]);
+			this.displayMode = displayMode;
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			// radio buttons run on being unchecked too
+			if (!isChecked()) {
+				return;
+			}
+			
+			final USBaspConsoleActivator plugin = USBaspConsoleActivator.getDefault();
+			plugin.getPreferenceStore().setValue(
+					USBaspConsoleActivator.CONSOLE_DISPLAY_MODE_PROPERTY, displayMode.name());
+			plugin.displayModePreferencesChanged(displayMode);
+			
+		}
+		
+	}
+	
+	/**
+	 * Asks for a file and sends it to the MCU
+	 */
+	private static class SendFileAction extends Action {
+		
+		private final IPageBookViewPage page;
+		private final ConsoleLogger logger;
+		
+		SendFileAction(final IPageBookViewPage page, final ConsoleLogger logger) {
+			
+			super("Send file\u2026");
+			setToolTipText("Send a file to the MCU");
+			this.page = page;
+			this.logger = logger;
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			final FileDialog dialog = new FileDialog(page.getSite().getShell(), SWT.OPEN);
+			dialog.setText("Send file to the MCU");
+			
+			final String fileName = dialog.open();
+			if (fileName == null) {
+				return;
+			}
+			
+			USBaspConsoleActivator.getDefault().sendFile(logger, new File(fileName));
+			
+		}
+		
+	}
+	
+	/**
+	 * Asks for the baud rate of the console's device
+	 */
+	private static class BaudRateAction extends Action implements IInputValidator {
+		
+		private final IPageBookViewPage page;
+		private final String path;
+		
+		BaudRateAction(final IPageBookViewPage page, final String path) {
+			
+			super("Baud rate\u2026");
+			setToolTipText("Set the baud rate of the USBasp at " + path);
+			this.page = page;
+			this.path = path;
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			final USBaspConsoleActivator plugin = USBaspConsoleActivator.getDefault();
+			final InputDialog dialog = new InputDialog(page.getSite().getShell(),
+					"USBasp+ Console", "Baud rate of the USBasp at " + path + ":",
+					Integer.toString(plugin.getBaudRateByPreferences(path)), this);
+			if (dialog.open() != Window.OK) {
+				return;
+			}
+			
+			plugin.deviceBaudRateChanged(path, Integer.parseInt(dialog.getValue().trim()));
+			
+		}
+		
+		@Override
+		public String isValid(final String text) {
+			
+			try {
+				if (Integer.parseInt(text.trim()) > 0) {
+					return null;
+				}
+			} catch (NumberFormatException e) {
+				// not a number
+			}
+			
+			return "Please enter a positive number";
+			
+		}
+		
+	}
+	
+	/**
+	 * Shows the metrics of the console's device in the status line every
+	 * STATUS_LINE_INTERVAL while the console is shown
+	 */
+	private static class StatusLineUpdater implements Runnable {
+		
+		private final IStatusLineManager statusLine;
+		private final DeviceMetrics metrics;
+		private boolean active;
+		
+		StatusLineUpdater(final IStatusLineManager statusLine, final DeviceMetrics metrics) {
+			
+			this.statusLine = statusLine;
+			this.metrics = metrics;
+			
+		}
+		
+		void start() {
+			
+			if (active) {
+				return;
+			}
+			active = true;
+			run();
+			
+		}
+		
+		void stop() {
+			
+			active = false;
+			Display.getDefault().timerExec(-1, this);
+			statusLine.setMessage(null);
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			if (!active) {
+				return;
+			}
+			
+			statusLine.setMessage(metrics.getStatusLine());
+			Display.getDefault().timerExec(STATUS_LINE_INTERVAL, this);
+			
+		}
+		
+	}
+	
+	private DisplayModeAction[] displayModeActions;
+	private StatusLineUpdater statusLineUpdater;
+	
+	/**
+	 * Called once the console's page is created
+	 */
+	@Override
+	public void init(final IPageBookViewPage page, final IConsole console) {
+		
+		final ConsoleLogger.DisplayMode[] displayModes = ConsoleLogger.DisplayMode.values();
+		displayModeActions = new DisplayModeAction[displayModes.length];
+		
+		final IToolBarManager toolBarManager = page.getSite().getActionBars().getToolBarManager();
+		for (int i = 0; i < displayModes.length; ++i) {
+			displayModeActions[i] = new DisplayModeAction(displayModes[i]);
+			toolBarManager.appendToGroup(IConsoleConstants.OUTPUT_GROUP, displayModeActions[i]);
+		}
+		updateDisplayModeActions();
+		
+		// the other actions apply to the console's device only
+		final USBaspConsoleActivator plugin = USBaspConsoleActivator.getDefault();
+		final ConsoleLogger logger = plugin.getLogger(console);
+		if (logger != null) {
+			toolBarManager.appendToGroup(IConsoleConstants.OUTPUT_GROUP,
+					new SendFileAction(page, logger));
+			toolBarManager.appendToGroup(IConsoleConstants.OUTPUT_GROUP,
+					new BaudRateAction(page, plugin.getPath(logger)));
+			statusLineUpdater = new StatusLineUpdater(
+					page.getSite().getActionBars().getStatusLineManager(), logger.getMetrics());
+		}
+		
+		// the display mode may also be changed by the preference page
+		USBaspConsoleActivator.getDefault().getPreferenceStore().addPropertyChangeListener(this);
+		
+	}
+	
+	/**
+	 * Check the action of the display mode configured
+	 */
+	private void updateDisplayModeActions() {
+		
+		final ConsoleLogger.DisplayMode displayMode = USBaspConsoleActivator.getDefault()
+				.getDisplayModeByPreferences();
+		for (final DisplayModeAction action : displayModeActions) {
+			action.setChecked(action.displayMode == displayMode);
+		}
+		
+	}
+	
+	@Override
+	public void propertyChange(final PropertyChangeEvent event) {
+		
+		if (!USBaspConsoleActivator.CONSOLE_DISPLAY_MODE_PROPERTY.equals(event.getProperty())) {
+			return;
+		}
+		
+		Display.getDefault().asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (displayModeActions != null) {
+					updateDisplayModeActions();
+				}
+			}
+		});
+		
+	}
+	
+	@Override
+	public void dispose() {
+		
+		final IPreferenceStore store = USBaspConsoleActivator.getDefault().getPreferenceStore();
+		store.removePropertyChangeListener(this);
+		displayModeActions = null;
+		
+		if (statusLineUpdater != null) {
+			statusLineUpdater.stop();
+			statusLineUpdater = null;
+		}
+		
+	}
+	
+	@Override
+	public void activated() {
+		
+		if (statusLineUpdater != null) {
+			statusLineUpdater.start();
+		}
+		
+	}
+	
+	@Override
+	public void deactivated() {
+		
+		if (statusLineUpdater != null) {
+			statusLineUpdater.stop();
+		}
+		
+	}
+	
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Object getAdapter(final Class adapter) {
+		
+		return null;
+		
+	}
+	
+}
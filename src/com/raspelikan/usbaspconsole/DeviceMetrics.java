@@ -0,0 +1,245 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * The metrics of a device and its console along the stages the bytes pass:
+ * reading by USB transfers (UartReader), decoding and writing to the
+ * console and flushing the console (ConsoleLogger). Bytes are the UART
+ * bytes passed on by the reader, so status queries of an idle device
+ * count as transfers only. The counters and
+ * histograms are written by the threads of the stages without locking,
+ * this class only reads them. Rates are calculated from the difference
+ * of the counters since the rate was calculated last, at most once per
+ * RATE_INTERVAL.
+ * 
+ * @author RasPelikan
+ */
+public class DeviceMetrics implements DeviceMetricsMBean {
+	
+	private static final long RATE_INTERVAL = 1000000000; // 1 s
+	
+	private final USBaspDevice device;
+	private final ConsoleLogger logger;
+	
+	// guarded by this
+	private long lastRateTime;
+	private long lastBytes;
+	private long lastTransfers;
+	private double bytesPerSecond;
+	private double transfersPerSecond;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param device The device read
+	 * @param logger The console logger showing the device's bytes
+	 */
+	public DeviceMetrics(final USBaspDevice device, final ConsoleLogger logger) {
+		
+		this.device = device;
+		this.logger = logger;
+		
+	}
+	
+	/**
+	 * Calculate the rates if the last calculation is RATE_INTERVAL ago
+	 */
+	private synchronized void updateRates() {
+		
+		final long now = System.nanoTime();
+		final long bytes = logger.getBytesRead();
+		final long transfers = device.getReadStatistics().getTransfers();
+		
+		if (lastRateTime == 0) {
+			
+			lastRateTime = now;
+			lastBytes = bytes;
+			lastTransfers = transfers;
+			return;
+			
+		}
+		
+		final long elapsed = now - lastRateTime;
+		if (elapsed < RATE_INTERVAL) {
+			return;
+		}
+		
+		bytesPerSecond = (bytes - lastBytes) * 1000000000.0 / elapsed;
+		transfersPerSecond = (transfers - lastTransfers) * 1000000000.0 / elapsed;
+		lastRateTime = now;
+		lastBytes = bytes;
+		lastTransfers = transfers;
+		
+	}
+	
+	@Override
+	public String getName() {
+		
+		return device.toString();
+		
+	}
+	
+	@Override
+	public int getBaudRate() {
+		
+		return device.getBaudRate();
+		
+	}
+	
+	@Override
+	public long getBytesRead() {
+		
+		return logger.getBytesRead();
+		
+	}
+	
+	@Override
+	public long getReadTransfers() {
+		
+		return device.getReadStatistics().getTransfers();
+		
+	}
+	
+	@Override
+	public synchronized double getBytesPerSecond() {
+		
+		updateRates();
+		return bytesPerSecond;
+		
+	}
+	
+	@Override
+	public synchronized double getTransfersPerSecond() {
+		
+		updateRates();
+		return transfersPerSecond;
+		
+	}
+	
+	@Override
+	public long getOverruns() {
+		
+		return device.getOverruns();
+		
+	}
+	
+	@Override
+	public long getDroppedBytes() {
+		
+		return logger.getBuffer().getDroppedBytes();
+		
+	}
+	
+	@Override
+	public long getBytesWritten() {
+		
+		return device.getWriteStatistics().getBytes();
+		
+	}
+	
+	@Override
+	public long getDroppedInputBytes() {
+		
+		return logger.getWriter().getDroppedBytes();
+		
+	}
+	
+	@Override
+	public long getReadLatencyP50() {
+		
+		return logger.getReadLatency().getPercentile(50) / 1000;
+		
+	}
+	
+	@Override
+	public long getReadLatencyP99() {
+		
+		return logger.getReadLatency().getPercentile(99) / 1000;
+		
+	}
+	
+	@Override
+	public long getReadLatencyMax() {
+		
+		return logger.getReadLatency().getMax() / 1000;
+		
+	}
+	
+	@Override
+	public long getPollIntervalP50() {
+		
+		return logger.getPollInterval().getPercentile(50) / 1000;
+		
+	}
+	
+	@Override
+	public long getPollIntervalP99() {
+		
+		return logger.getPollInterval().getPercentile(99) / 1000;
+		
+	}
+	
+	@Override
+	public long getPollIntervalMax() {
+		
+		return logger.getPollInterval().getMax() / 1000;
+		
+	}
+	
+	@Override
+	public long getConsoleWriteLatencyP99() {
+		
+		return logger.getWriteLatency().getPercentile(99) / 1000;
+		
+	}
+	
+	@Override
+	public long getConsoleFlushLatencyP99() {
+		
+		return logger.getFlushLatency().getPercentile(99) / 1000;
+		
+	}
+	
+	@Override
+	public long getArrivalToConsoleLatencyP50() {
+		
+		return logger.getLatencyStatistics().getPercentile(50) / 1000;
+		
+	}
+	
+	@Override
+	public long getArrivalToConsoleLatencyP99() {
+		
+		return logger.getLatencyStatistics().getPercentile(99) / 1000;
+		
+	}
+	
+	@Override
+	public long getArrivalToConsoleLatencyMax() {
+		
+		return logger.getLatencyStatistics().getMax() / 1000;
+		
+	}
+	
+	/**
+	 * The rates, the p99 of every stage and the bytes lost, e.g.
+	 * "1152 B/s, 1170 transfers/s | USB read p99 2.1 ms, poll p99 10.0 ms,
+	 * console write p99 0.1 ms, flush p99 3.2 ms, arrival to console p99
+	 * 25.4 ms | 0 overruns, 0 bytes dropped"
+	 */
+	@Override
+	public synchronized String getStatusLine() {
+		
+		updateRates();
+		
+		return String.format("%.0f B/s, %.0f transfers/s | USB read p99 %.1f ms, poll p99 %.1f ms, "
+				+ "console write p99 %.1f ms, flush p99 %.1f ms, arrival to console p99 %.1f ms | "
+				+ "%d overruns, %d bytes dropped",
+				bytesPerSecond, transfersPerSecond,
+				getReadLatencyP99() / 1000.0, getPollIntervalP99() / 1000.0,
+				getConsoleWriteLatencyP99() / 1000.0, getConsoleFlushLatencyP99() / 1000.0,
+				getArrivalToConsoleLatencyP99() / 1000.0,
+				getOverruns(), getDroppedBytes());
+		
+	}
+	
+}
@@ -0,0 +1,58 @@
+package com.raspelikan.usbaspconsole;
+
+/**
+ * The metrics of a device and its console as seen by JMX. Latencies are
+ * given in microseconds.
+ * 
+ * @author RasPelikan
+ */
+public interface DeviceMetricsMBean {
+	
+	String getName();
+	
+	int getBaudRate();
+	
+	long getBytesRead();
+	
+	long getReadTransfers();
+	
+	double getBytesPerSecond();
+	
+	double getTransfersPerSecond();
+	
+	long getOverruns();
+	
+	long getDroppedBytes();
+	
+	long getBytesWritten();
+	
+	long getDroppedInputBytes();
+	
+	long getReadLatencyP50();
+	
+	long getReadLatencyP99();
+	
+	long getReadLatencyMax();
+	
+	long getPollIntervalP50();
+	
+	long getPollIntervalP99();
+	
+	long getPollIntervalMax();
+	
+	long getConsoleWriteLatencyP99();
+	
+	long getConsoleFlushLatencyP99();
+	
+	long getArrivalToConsoleLatencyP50();
+	
+	long getArrivalToConsoleLatencyP99();
+	
+	long getArrivalToConsoleLatencyMax();
+	
+	/**
+	 * @return All metrics in one line as shown by the console
+	 */
+	String getStatusLine();
+	
+}
@@ -0,0 +1,42 @@
+package com.raspelikan.usbaspconsole;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Passes the messages of the core classes to the plugin's error log
+ * 
+ * @author RasPelikan
+ */
+public class EclipseLog implements Log {
+	
+	private final ILog log;
+	
+	public EclipseLog(final ILog log) {
+		
+		this.log = log;
+		
+	}
+	
+	@Override
+	public void info(final String message) {
+		
+		log.log(new Status(Status.INFO, USBaspConsoleActivator.PLUGIN_ID, message));
+		
+	}
+	
+	@Override
+	public void warning(final String message, final Throwable e) {
+		
+		log.log(new Status(Status.WARNING, USBaspConsoleActivator.PLUGIN_ID, message, e));
+		
+	}
+	
+	@Override
+	public void error(final String message, final Throwable e) {
+		
+		log.log(new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID, message, e));
+		
+	}
+	
+}
@@ -0,0 +1,113 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Access to the frame decoders contributed by the extension point
+ * USBaspPlusConsole.frameDecoders
+ * 
+ * @author RasPelikan
+ */
+public class FrameDecoderRegistry {
+	
+	public static final String EXTENSION_POINT_ID = USBaspConsoleActivator.PLUGIN_ID + ".frameDecoders";
+	
+	/**
+	 * A decoder contributed
+	 */
+	public static class Descriptor {
+		
+		private final IConfigurationElement element;
+		
+		Descriptor(final IConfigurationElement element) {
+			
+			this.element = element;
+			
+		}
+		
+		public String getId() {
+			
+			return element.getAttribute("id");
+			
+		}
+		
+		public String getName() {
+			
+			return element.getAttribute("name");
+			
+		}
+		
+		/**
+		 * @return A new instance of the decoder
+		 */
+		public FrameDecoder createDecoder() throws CoreException {
+			
+			return (FrameDecoder) element.createExecutableExtension("class");
+			
+		}
+		
+	}
+	
+	private FrameDecoderRegistry() {
+	}
+	
+	/**
+	 * @return All decoders contributed
+	 */
+	public static List<Descriptor> getDescriptors() {
+		
+		final List<Descriptor> result = new ArrayList<Descriptor>();
+		
+		for (final IConfigurationElement element : Platform.getExtensionRegistry()
+				.getConfigurationElementsFor(EXTENSION_POINT_ID)) {
+			if ("decoder".equals(element.getName())) {
+				result.add(new Descriptor(element));
+			}
+		}
+		
+		return result;
+		
+	}
+	
+	/**
+	 * Build the decoder of the given id
+	 * 
+	 * @param id The decoder's id or an empty string for none
+	 * @return The decoder or null if none or the decoder is not available
+	 */
+	public static FrameDecoder createDecoder(final String id) {
+		
+		if ((id == null) || (id.length() == 0)) {
+			return null;
+		}
+		
+		for (final Descriptor descriptor : getDescriptors()) {
+			
+			if (!id.equals(descriptor.getId())) {
+				continue;
+			}
+			
+			try {
+				return descriptor.createDecoder();
+			} catch (Exception e) {
+				USBaspConsoleActivator.getDefault().getLog().log(new Status(Status.WARNING,
+						USBaspConsoleActivator.PLUGIN_ID,
+						"Could not build frame decoder '" + id + "'", e));
+				return null;
+			}
+			
+		}
+		
+		USBaspConsoleActivator.getDefault().getLog().log(new Status(Status.WARNING,
+				USBaspConsoleActivator.PLUGIN_ID, "Frame decoder '" + id + "' not found"));
+		return null;
+		
+	}
+	
+}
@@ -18,6 +18,48 @@ public class PreferencesInitializer extends AbstractPreferenceInitializer {
 				USBaspConsoleActivator.ACTIVATED_DEFAULT);
 		store.setDefault(USBaspConsoleActivator.BAUDRATE_PROPERTY,
 				USBaspConsoleActivator.BAUDRATE_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.ASYNC_PROPERTY,
+				USBaspConsoleActivator.ASYNC_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.PACKED_WRITES_PROPERTY,
+				USBaspConsoleActivator.PACKED_WRITES_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.POLL_MIN_INTERVAL_PROPERTY,
+				USBaspConsoleActivator.POLL_MIN_INTERVAL_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.POLL_MAX_INTERVAL_PROPERTY,
+				USBaspConsoleActivator.POLL_MAX_INTERVAL_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.BUFFER_CAPACITY_PROPERTY,
+				USBaspConsoleActivator.BUFFER_CAPACITY_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.BUFFER_POLICY_PROPERTY,
+				USBaspConsoleActivator.BUFFER_POLICY_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CONSOLE_LIMITED_PROPERTY,
+				USBaspConsoleActivator.CONSOLE_LIMITED_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CONSOLE_LOW_WATER_MARK_PROPERTY,
+				USBaspConsoleActivator.CONSOLE_LOW_WATER_MARK_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CONSOLE_HIGH_WATER_MARK_PROPERTY,
+				USBaspConsoleActivator.CONSOLE_HIGH_WATER_MARK_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CONSOLE_TIMESTAMPS_PROPERTY,
+				USBaspConsoleActivator.CONSOLE_TIMESTAMPS_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CONSOLE_CHARSET_PROPERTY,
+				USBaspConsoleActivator.CONSOLE_CHARSET_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CONSOLE_DISPLAY_MODE_PROPERTY,
+				USBaspConsoleActivator.CONSOLE_DISPLAY_MODE_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.FRAME_DECODER_PROPERTY,
+				USBaspConsoleActivator.FRAME_DECODER_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.FRAME_CRC_PROPERTY,
+				USBaspConsoleActivator.FRAME_CRC_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CAPTURE_ENABLED_PROPERTY,
+				USBaspConsoleActivator.CAPTURE_ENABLED_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CAPTURE_DIRECTORY_PROPERTY,
+				USBaspConsoleActivator.CAPTURE_DIRECTORY_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_PROPERTY,
+				USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.BRIDGE_ENABLED_PROPERTY,
+				USBaspConsoleActivator.BRIDGE_ENABLED_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.BRIDGE_ENDPOINT_PROPERTY,
+				USBaspConsoleActivator.BRIDGE_ENDPOINT_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.BRIDGE_POLICY_PROPERTY,
+				USBaspConsoleActivator.BRIDGE_POLICY_DEFAULT);
+		store.setDefault(USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_PROPERTY,
+				USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_DEFAULT);
 		
 	}
 
@@ -1,5 +1,7 @@
 package com.raspelikan.usbaspconsole;
 
+import java.util.List;
+
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.layout.GridDataFactory;
@@ -14,8 +16,10 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
@@ -34,11 +38,83 @@ public class PreferencesPage extends PreferencePage implements
 	private static final String CONFIG_TITLE = "Configuration";
 	private static final String ACTIVATE_TITLE = "&Active:";
 	private static final String BAUDRATE_TITLE = "&Baud rate:";
+	private static final String ASYNC_TITLE = "A&synchronous:";
+	private static final String PACKED_WRITES_TITLE = "&Packed writes:";
+	private static final String POLL_MIN_INTERVAL_TITLE = "Poll interval mi&n. (ms):";
+	private static final String POLL_MAX_INTERVAL_TITLE = "Poll interval ma&x. (ms):";
+	private static final String BUFFER_CAPACITY_TITLE = "Buffer si&ze (bytes):";
+	private static final String BUFFER_POLICY_TITLE = "If buffer is &full:";
+	private static final String[] BUFFER_POLICY_LABELS = {
+			"Drop oldest bytes",
+			"Wait for console (may overrun the device)" };
+	private static final String CONSOLE_TITLE = "Console";
+	private static final String CONSOLE_LIMITED_TITLE = "&Limit:";
+	private static final String CONSOLE_LOW_WATER_MARK_TITLE = "Trim to (characters):";
+	private static final String CONSOLE_TIMESTAMPS_TITLE = "&Timestamps:";
+	private static final String CONSOLE_CHARSET_TITLE = "C&haracter set:";
+	private static final String CONSOLE_DISPLAY_MODE_TITLE = "Displa&y as:";
+	private static final String FRAME_DECODER_TITLE = "&Frames:";
+	private static final String FRAME_DECODER_NONE = "None, show the bytes as they are";
+	private static final String FRAME_CRC_TITLE = "CRC:";
+	public static final String[] CONSOLE_DISPLAY_MODE_LABELS = {
+			"Text",
+			"Hex dump",
+			"Hex dump and ASCII" };
+	// character sets compatible to ASCII only since line breaks are detected
+	private static final String[] CONSOLE_CHARSETS = {
+			USBaspConsoleActivator.CONSOLE_CHARSET_RAW,
+			"UTF-8",
+			"US-ASCII",
+			"ISO-8859-15",
+			"windows-1252" };
+	private static final String[] CONSOLE_CHARSET_LABELS = {
+			"Raw bytes (one character each)",
+			"UTF-8",
+			"US-ASCII",
+			"ISO-8859-15",
+			"Windows-1252" };
+	private static final String CONSOLE_HIGH_WATER_MARK_TITLE = "Trim at (characters):";
+	private static final String CAPTURE_TITLE = "Capture to file";
+	private static final String CAPTURE_ENABLED_TITLE = "&Capture:";
+	private static final String CAPTURE_DIRECTORY_TITLE = "&Directory:";
+	private static final String CAPTURE_SEGMENT_SIZE_TITLE = "File size (MB):";
+	private static final String BROWSE_TITLE = "Bro&wse...";
+	private static final String BRIDGE_TITLE = "Bridge to other tools";
+	private static final String BRIDGE_ENABLED_TITLE = "B&ridge:";
+	private static final String BRIDGE_ENDPOINT_TITLE = "&Endpoint:";
+	private static final String BRIDGE_POLICY_TITLE = "If client &is slow:";
+	private static final String[] BRIDGE_POLICY_LABELS = {
+			"Disconnect the client",
+			"Drop the oldest bytes of the client",
+			"Wait for the client (holds back the other clients)" };
+	private static final String BRIDGE_CLIENT_BUFFER_TITLE = "Client buffer (bytes):";
 	private static final String TEST_TITLE = "Test USBasp+";
 	private static final String CMD1_TITLE = "CMD&1";
 
 	private Button activateButton;
 	private Text baudRateText;
+	private Button asyncButton;
+	private Button packedWritesButton;
+	private Text pollMinIntervalText;
+	private Text pollMaxIntervalText;
+	private Text bufferCapacityText;
+	private Combo bufferPolicyCombo;
+	private Button consoleLimitedButton;
+	private Text consoleLowWaterMarkText;
+	private Text consoleHighWaterMarkText;
+	private Button consoleTimestampsButton;
+	private Combo consoleCharsetCombo;
+	private Combo consoleDisplayModeCombo;
+	private Combo frameDecoderCombo;
+	private List<FrameDecoderRegistry.Descriptor> frameDecoders;
+	private Button frameCrcButton;
+	private Button captureEnabledButton;
+	private Text captureDirectoryText;
+	private Text captureSegmentSizeText;
+	private Button bridgeEnabledButton;
+	private Text bridgeEndpointText;
+	private Combo bridgePolicyCombo;
+	private Text bridgeClientBufferText;
 	private Button testButton;
 	
 	private void addSection(Composite composite) {
@@ -62,25 +138,172 @@ public class PreferencesPage extends PreferencePage implements
 		Label baudrateLabel = new Label(configGroup, SWT.NONE);
 		baudrateLabel.setText(BAUDRATE_TITLE);
 		
-		baudRateText = new Text(configGroup, SWT.SHADOW_ETCHED_IN);
-		baudRateText.addListener(SWT.Verify, new Listener() {
+		baudRateText = addNumberText(configGroup);
+		final int baudRate = preferenceStore.getInt(USBaspConsoleActivator.BAUDRATE_PROPERTY);
+		baudRateText.setText(Integer.toString(baudRate));
+
+		Label asyncLabel = new Label(configGroup, SWT.NONE);
+		asyncLabel.setText(ASYNC_TITLE);
+
+		asyncButton = new Button(configGroup, SWT.CHECK);
+		asyncButton.setText("Keep several USB transfers in flight instead of "
+				+ "waiting for each (applies to devices plugged in afterwards)");
+		asyncButton.setSelection(preferenceStore.getBoolean(USBaspConsoleActivator.ASYNC_PROPERTY));
+
+		Label packedWritesLabel = new Label(configGroup, SWT.NONE);
+		packedWritesLabel.setText(PACKED_WRITES_TITLE);
+
+		packedWritesButton = new Button(configGroup, SWT.CHECK);
+		packedWritesButton.setText("Send up to 4 bytes per USB transfer "
+				+ "(requires a firmware supporting it)");
+		packedWritesButton.setSelection(preferenceStore.getBoolean(USBaspConsoleActivator.PACKED_WRITES_PROPERTY));
+
+		Label pollMinIntervalLabel = new Label(configGroup, SWT.NONE);
+		pollMinIntervalLabel.setText(POLL_MIN_INTERVAL_TITLE);
+		
+		pollMinIntervalText = addNumberText(configGroup);
+
+		Label pollMaxIntervalLabel = new Label(configGroup, SWT.NONE);
+		pollMaxIntervalLabel.setText(POLL_MAX_INTERVAL_TITLE);
+		
+		pollMaxIntervalText = addNumberText(configGroup);
+
+		Label bufferCapacityLabel = new Label(configGroup, SWT.NONE);
+		bufferCapacityLabel.setText(BUFFER_CAPACITY_TITLE);
+		
+		bufferCapacityText = addNumberText(configGroup);
+
+		Label bufferPolicyLabel = new Label(configGroup, SWT.NONE);
+		bufferPolicyLabel.setText(BUFFER_POLICY_TITLE);
+		
+		bufferPolicyCombo = new Combo(configGroup, SWT.READ_ONLY);
+		bufferPolicyCombo.setItems(BUFFER_POLICY_LABELS);
+
+		Group consoleGroup = new Group(composite, SWT.SHADOW_ETCHED_IN);
+		consoleGroup.setText(CONSOLE_TITLE);
+		applyLayout(consoleGroup);
+		
+		Label consoleLimitedLabel = new Label(consoleGroup, SWT.NONE);
+		consoleLimitedLabel.setText(CONSOLE_LIMITED_TITLE);
+		
+		consoleLimitedButton = new Button(consoleGroup, SWT.CHECK);
+		consoleLimitedButton.setText("Trim the oldest output to keep memory bounded "
+				+ "during long captures");
+		
+		Label consoleHighWaterMarkLabel = new Label(consoleGroup, SWT.NONE);
+		consoleHighWaterMarkLabel.setText(CONSOLE_HIGH_WATER_MARK_TITLE);
+		
+		consoleHighWaterMarkText = addNumberText(consoleGroup);
+		
+		Label consoleLowWaterMarkLabel = new Label(consoleGroup, SWT.NONE);
+		consoleLowWaterMarkLabel.setText(CONSOLE_LOW_WATER_MARK_TITLE);
+		
+		consoleLowWaterMarkText = addNumberText(consoleGroup);
+		
+		Label consoleTimestampsLabel = new Label(consoleGroup, SWT.NONE);
+		consoleTimestampsLabel.setText(CONSOLE_TIMESTAMPS_TITLE);
+		
+		consoleTimestampsButton = new Button(consoleGroup, SWT.CHECK);
+		consoleTimestampsButton.setText("Prefix each line by the time of arrival "
+				+ "(seconds since the console was started)");
+		
+		Label consoleCharsetLabel = new Label(consoleGroup, SWT.NONE);
+		consoleCharsetLabel.setText(CONSOLE_CHARSET_TITLE);
+		
+		consoleCharsetCombo = new Combo(consoleGroup, SWT.READ_ONLY);
+		consoleCharsetCombo.setItems(CONSOLE_CHARSET_LABELS);
+		
+		Label consoleDisplayModeLabel = new Label(consoleGroup, SWT.NONE);
+		consoleDisplayModeLabel.setText(CONSOLE_DISPLAY_MODE_TITLE);
+		
+		consoleDisplayModeCombo = new Combo(consoleGroup, SWT.READ_ONLY);
+		consoleDisplayModeCombo.setItems(CONSOLE_DISPLAY_MODE_LABELS);
+		
+		Label frameDecoderLabel = new Label(consoleGroup, SWT.NONE);
+		frameDecoderLabel.setText(FRAME_DECODER_TITLE);
+		
+		frameDecoders = FrameDecoderRegistry.getDescriptors();
+		frameDecoderCombo = new Combo(consoleGroup, SWT.READ_ONLY);
+		frameDecoderCombo.add(FRAME_DECODER_NONE);
+		for (final FrameDecoderRegistry.Descriptor frameDecoder : frameDecoders) {
+			frameDecoderCombo.add(frameDecoder.getName());
+		}
+		
+		Label frameCrcLabel = new Label(consoleGroup, SWT.NONE);
+		frameCrcLabel.setText(FRAME_CRC_TITLE);
+		
+		frameCrcButton = new Button(consoleGroup, SWT.CHECK);
+		frameCrcButton.setText("Frames end with a CRC-16/CCITT (big endian) to be checked");
+
+		Group captureGroup = new Group(composite, SWT.SHADOW_ETCHED_IN);
+		captureGroup.setText(CAPTURE_TITLE);
+		applyLayout(captureGroup);
+		
+		Label captureEnabledLabel = new Label(captureGroup, SWT.NONE);
+		captureEnabledLabel.setText(CAPTURE_ENABLED_TITLE);
+		
+		captureEnabledButton = new Button(captureGroup, SWT.CHECK);
+		captureEnabledButton.setText("Write every byte received and its time of "
+				+ "arrival to capture files");
+		
+		Label captureDirectoryLabel = new Label(captureGroup, SWT.NONE);
+		captureDirectoryLabel.setText(CAPTURE_DIRECTORY_TITLE);
+		
+		captureDirectoryText = new Text(captureGroup, SWT.SHADOW_ETCHED_IN);
+		GridDataFactory.generate(captureDirectoryText,
+				captureDirectoryText.computeSize(300, captureDirectoryText.getSize().y));
+		
+		new Label(captureGroup, SWT.NONE);
+		
+		Button browseButton = new Button(captureGroup, SWT.NONE);
+		browseButton.setText(BROWSE_TITLE);
+		browseButton.addListener(SWT.Selection, new Listener() {
 			@Override
-			public void handleEvent(Event event) {
-				final String newText = event.text;
-				if (newText != null) {
-					for (int i = 0; i < newText.length(); ++i) {
-						char c = newText.charAt(i);
-						if (!Character.isDigit(c)) {
-							event.doit = false;
-							return;
-						}
-					}
+			public void handleEvent(Event pushEvent) {
+				final DirectoryDialog dialog = new DirectoryDialog(getShell());
+				dialog.setFilterPath(captureDirectoryText.getText());
+				final String directory = dialog.open();
+				if (directory != null) {
+					captureDirectoryText.setText(directory);
 				}
 			}
 		});
-		GridDataFactory.generate(baudRateText, baudRateText.computeSize(100, baudRateText.getSize().y));
-		final int baudRate = preferenceStore.getInt(USBaspConsoleActivator.BAUDRATE_PROPERTY);
-		baudRateText.setText(Integer.toString(baudRate));
+		
+		Label captureSegmentSizeLabel = new Label(captureGroup, SWT.NONE);
+		captureSegmentSizeLabel.setText(CAPTURE_SEGMENT_SIZE_TITLE);
+		
+		captureSegmentSizeText = addNumberText(captureGroup);
+		
+		Group bridgeGroup = new Group(composite, SWT.SHADOW_ETCHED_IN);
+		bridgeGroup.setText(BRIDGE_TITLE);
+		applyLayout(bridgeGroup);
+		
+		Label bridgeEnabledLabel = new Label(bridgeGroup, SWT.NONE);
+		bridgeEnabledLabel.setText(BRIDGE_ENABLED_TITLE);
+		
+		bridgeEnabledButton = new Button(bridgeGroup, SWT.CHECK);
+		bridgeEnabledButton.setText("Pass the bytes received to clients connecting "
+				+ "and their bytes to the device");
+		
+		Label bridgeEndpointLabel = new Label(bridgeGroup, SWT.NONE);
+		bridgeEndpointLabel.setText(BRIDGE_ENDPOINT_TITLE);
+		
+		bridgeEndpointText = new Text(bridgeGroup, SWT.SHADOW_ETCHED_IN);
+		bridgeEndpointText.setToolTipText("tcp:<port> for a port of 127.0.0.1 or "
+				+ "unix:<path> for a Unix domain socket (Java 16+)");
+		GridDataFactory.generate(bridgeEndpointText,
+				bridgeEndpointText.computeSize(300, bridgeEndpointText.getSize().y));
+		
+		Label bridgePolicyLabel = new Label(bridgeGroup, SWT.NONE);
+		bridgePolicyLabel.setText(BRIDGE_POLICY_TITLE);
+		
+		bridgePolicyCombo = new Combo(bridgeGroup, SWT.READ_ONLY);
+		bridgePolicyCombo.setItems(BRIDGE_POLICY_LABELS);
+		
+		Label bridgeClientBufferLabel = new Label(bridgeGroup, SWT.NONE);
+		bridgeClientBufferLabel.setText(BRIDGE_CLIENT_BUFFER_TITLE);
+		
+		bridgeClientBufferText = addNumberText(bridgeGroup);
 
 		Group testGroup = new Group(composite, SWT.SHADOW_ETCHED_IN);
 		testGroup.setText(TEST_TITLE);
@@ -104,7 +327,7 @@ public class PreferencesPage extends PreferencePage implements
 
 				final USBaspConsoleActivator plugin = USBaspConsoleActivator.getDefault();
 				try {
-					plugin.testCmd1();
+					plugin.testDevices();
 				} catch (Exception e) {
 					final String msg = "Could not run test command 'CMD1'! "
 							+ "Maybe the device is not connected.";
@@ -125,6 +348,114 @@ public class PreferencesPage extends PreferencePage implements
 
 	}
 
+	/**
+	 * Build a text field accepting digits only
+	 */
+	private Text addNumberText(Composite composite) {
+		
+		final Text text = new Text(composite, SWT.SHADOW_ETCHED_IN);
+		text.addListener(SWT.Verify, new Listener() {
+			@Override
+			public void handleEvent(Event event) {
+				final String newText = event.text;
+				if (newText != null) {
+					for (int i = 0; i < newText.length(); ++i) {
+						char c = newText.charAt(i);
+						if (!Character.isDigit(c)) {
+							event.doit = false;
+							return;
+						}
+					}
+				}
+			}
+		});
+		GridDataFactory.generate(text, text.computeSize(100, text.getSize().y));
+		
+		return text;
+		
+	}
+	
+	/**
+	 * Parse the content of a number text field
+	 * 
+	 * @return The number or the default value if the field is empty
+	 */
+	private int getNumber(Text text, int defaultValue) {
+		
+		try {
+			return Integer.parseInt(text.getText());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+		
+	}
+
+	/**
+	 * Select the combo item of a buffer policy
+	 */
+	private void selectBufferPolicy(String policy) {
+		
+		final ByteRingBuffer.OverflowPolicy[] policies = ByteRingBuffer.OverflowPolicy.values();
+		for (int i = 0; i < policies.length; ++i) {
+			if (policies[i].name().equals(policy)) {
+				bufferPolicyCombo.select(i);
+				return;
+			}
+		}
+		
+		selectBufferPolicy(USBaspConsoleActivator.BUFFER_POLICY_DEFAULT);
+		
+	}
+
+	/**
+	 * Select the combo item of a bridge policy
+	 */
+	private void selectBridgePolicy(String policy) {
+		
+		final UartBridge.SlowClientPolicy[] policies = UartBridge.SlowClientPolicy.values();
+		for (int i = 0; i < policies.length; ++i) {
+			if (policies[i].name().equals(policy)) {
+				bridgePolicyCombo.select(i);
+				return;
+			}
+		}
+		
+		selectBridgePolicy(USBaspConsoleActivator.BRIDGE_POLICY_DEFAULT);
+		
+	}
+
+	/**
+	 * Select the combo item of a frame decoder
+	 */
+	private void selectFrameDecoder(String id) {
+		
+		for (int i = 0; i < frameDecoders.size(); ++i) {
+			if (frameDecoders.get(i).getId().equals(id)) {
+				frameDecoderCombo.select(i + 1);
+				return;
+			}
+		}
+		
+		frameDecoderCombo.select(0);
+		
+	}
+	
+	/**
+	 * Select the combo item of a charset
+	 */
+	private void selectCharset(String charset) {
+		
+		for (int i = 0; i < CONSOLE_CHARSETS.length; ++i) {
+			if (CONSOLE_CHARSETS[i].equals(charset)) {
+				consoleCharsetCombo.select(i);
+				return;
+			}
+		}
+		
+		consoleCharsetCombo.select(0);
+		
+	}
+
 	/**
 	 * @see PreferencePage#createContents(Composite)
 	 */
@@ -166,6 +497,29 @@ public class PreferencesPage extends PreferencePage implements
 	
 	private void initializeDefaults() {
 		activateButton.setSelection(USBaspConsoleActivator.ACTIVATED_DEFAULT);
+		asyncButton.setSelection(USBaspConsoleActivator.ASYNC_DEFAULT);
+		packedWritesButton.setSelection(USBaspConsoleActivator.PACKED_WRITES_DEFAULT);
+		baudRateText.setText(Integer.toString(USBaspConsoleActivator.BAUDRATE_DEFAULT));
+		pollMinIntervalText.setText(Integer.toString(USBaspConsoleActivator.POLL_MIN_INTERVAL_DEFAULT));
+		pollMaxIntervalText.setText(Integer.toString(USBaspConsoleActivator.POLL_MAX_INTERVAL_DEFAULT));
+		bufferCapacityText.setText(Integer.toString(USBaspConsoleActivator.BUFFER_CAPACITY_DEFAULT));
+		selectBufferPolicy(USBaspConsoleActivator.BUFFER_POLICY_DEFAULT);
+		consoleLimitedButton.setSelection(USBaspConsoleActivator.CONSOLE_LIMITED_DEFAULT);
+		consoleLowWaterMarkText.setText(Integer.toString(USBaspConsoleActivator.CONSOLE_LOW_WATER_MARK_DEFAULT));
+		consoleHighWaterMarkText.setText(Integer.toString(USBaspConsoleActivator.CONSOLE_HIGH_WATER_MARK_DEFAULT));
+		consoleTimestampsButton.setSelection(USBaspConsoleActivator.CONSOLE_TIMESTAMPS_DEFAULT);
+		selectCharset(USBaspConsoleActivator.CONSOLE_CHARSET_DEFAULT);
+		consoleDisplayModeCombo.select(ConsoleLogger.DisplayMode.valueOf(
+				USBaspConsoleActivator.CONSOLE_DISPLAY_MODE_DEFAULT).ordinal());
+		selectFrameDecoder(USBaspConsoleActivator.FRAME_DECODER_DEFAULT);
+		frameCrcButton.setSelection(USBaspConsoleActivator.FRAME_CRC_DEFAULT);
+		captureEnabledButton.setSelection(USBaspConsoleActivator.CAPTURE_ENABLED_DEFAULT);
+		captureDirectoryText.setText(USBaspConsoleActivator.CAPTURE_DIRECTORY_DEFAULT);
+		captureSegmentSizeText.setText(Integer.toString(USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_DEFAULT));
+		bridgeEnabledButton.setSelection(USBaspConsoleActivator.BRIDGE_ENABLED_DEFAULT);
+		bridgeEndpointText.setText(USBaspConsoleActivator.BRIDGE_ENDPOINT_DEFAULT);
+		selectBridgePolicy(USBaspConsoleActivator.BRIDGE_POLICY_DEFAULT);
+		bridgeClientBufferText.setText(Integer.toString(USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_DEFAULT));
 	}
 	
 	/**
@@ -174,6 +528,28 @@ public class PreferencesPage extends PreferencePage implements
     private void initializeValues() {
         IPreferenceStore store = getPreferenceStore();
 		activateButton.setSelection(store.getBoolean(USBaspConsoleActivator.ACTIVATED_PROPERTY));
+		asyncButton.setSelection(store.getBoolean(USBaspConsoleActivator.ASYNC_PROPERTY));
+		packedWritesButton.setSelection(store.getBoolean(USBaspConsoleActivator.PACKED_WRITES_PROPERTY));
+		pollMinIntervalText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.POLL_MIN_INTERVAL_PROPERTY)));
+		pollMaxIntervalText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.POLL_MAX_INTERVAL_PROPERTY)));
+		bufferCapacityText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.BUFFER_CAPACITY_PROPERTY)));
+		selectBufferPolicy(store.getString(USBaspConsoleActivator.BUFFER_POLICY_PROPERTY));
+		consoleLimitedButton.setSelection(store.getBoolean(USBaspConsoleActivator.CONSOLE_LIMITED_PROPERTY));
+		consoleLowWaterMarkText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.CONSOLE_LOW_WATER_MARK_PROPERTY)));
+		consoleHighWaterMarkText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.CONSOLE_HIGH_WATER_MARK_PROPERTY)));
+		consoleTimestampsButton.setSelection(store.getBoolean(USBaspConsoleActivator.CONSOLE_TIMESTAMPS_PROPERTY));
+		selectCharset(store.getString(USBaspConsoleActivator.CONSOLE_CHARSET_PROPERTY));
+		consoleDisplayModeCombo.select(USBaspConsoleActivator.getDefault()
+				.getDisplayModeByPreferences().ordinal());
+		selectFrameDecoder(store.getString(USBaspConsoleActivator.FRAME_DECODER_PROPERTY));
+		frameCrcButton.setSelection(store.getBoolean(USBaspConsoleActivator.FRAME_CRC_PROPERTY));
+		captureEnabledButton.setSelection(store.getBoolean(USBaspConsoleActivator.CAPTURE_ENABLED_PROPERTY));
+		captureDirectoryText.setText(store.getString(USBaspConsoleActivator.CAPTURE_DIRECTORY_PROPERTY));
+		captureSegmentSizeText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_PROPERTY)));
+		bridgeEnabledButton.setSelection(store.getBoolean(USBaspConsoleActivator.BRIDGE_ENABLED_PROPERTY));
+		bridgeEndpointText.setText(store.getString(USBaspConsoleActivator.BRIDGE_ENDPOINT_PROPERTY));
+		selectBridgePolicy(store.getString(USBaspConsoleActivator.BRIDGE_POLICY_PROPERTY));
+		bridgeClientBufferText.setText(Integer.toString(store.getInt(USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_PROPERTY)));
     }
 	
 	protected void performDefaults() {
@@ -196,6 +572,115 @@ public class PreferencesPage extends PreferencePage implements
 		testButton.setEnabled(activated);
 		
 		store.setValue(USBaspConsoleActivator.ACTIVATED_PROPERTY, activated);
+		store.setValue(USBaspConsoleActivator.ASYNC_PROPERTY, asyncButton.getSelection());
+		
+		final boolean packedWrites = packedWritesButton.getSelection();
+		store.setValue(USBaspConsoleActivator.PACKED_WRITES_PROPERTY, packedWrites);
+		USBaspConsoleActivator.getDefault().writePreferencesChanged(packedWrites);
+		
+		final int baudRate = getNumber(baudRateText, USBaspConsoleActivator.BAUDRATE_DEFAULT);
+		if (baudRate != store.getInt(USBaspConsoleActivator.BAUDRATE_PROPERTY)) {
+			store.setValue(USBaspConsoleActivator.BAUDRATE_PROPERTY, baudRate);
+			USBaspConsoleActivator.getDefault().baudRatePreferencesChanged(baudRate);
+		}
+		
+		final int pollMinInterval = getNumber(pollMinIntervalText,
+				USBaspConsoleActivator.POLL_MIN_INTERVAL_DEFAULT);
+		final int pollMaxInterval = Math.max(pollMinInterval, getNumber(pollMaxIntervalText,
+				USBaspConsoleActivator.POLL_MAX_INTERVAL_DEFAULT));
+		pollMaxIntervalText.setText(Integer.toString(pollMaxInterval));
+		store.setValue(USBaspConsoleActivator.POLL_MIN_INTERVAL_PROPERTY, pollMinInterval);
+		store.setValue(USBaspConsoleActivator.POLL_MAX_INTERVAL_PROPERTY, pollMaxInterval);
+		USBaspConsoleActivator.getDefault().pollingPreferencesChanged(pollMinInterval, pollMaxInterval);
+		
+		final int bufferCapacity = Math.max(1024, getNumber(bufferCapacityText,
+				USBaspConsoleActivator.BUFFER_CAPACITY_DEFAULT));
+		bufferCapacityText.setText(Integer.toString(bufferCapacity));
+		final ByteRingBuffer.OverflowPolicy bufferPolicy =
+				ByteRingBuffer.OverflowPolicy.values()[Math.max(0, bufferPolicyCombo.getSelectionIndex())];
+		store.setValue(USBaspConsoleActivator.BUFFER_CAPACITY_PROPERTY, bufferCapacity);
+		store.setValue(USBaspConsoleActivator.BUFFER_POLICY_PROPERTY, bufferPolicy.name());
+		USBaspConsoleActivator.getDefault().bufferPreferencesChanged(bufferCapacity, bufferPolicy);
+		
+		// the console keeps less than it allows
+		final boolean consoleLimited = consoleLimitedButton.getSelection();
+		final int consoleHighWaterMark = Math.max(1000, getNumber(consoleHighWaterMarkText,
+				USBaspConsoleActivator.CONSOLE_HIGH_WATER_MARK_DEFAULT));
+		int consoleLowWaterMark = getNumber(consoleLowWaterMarkText,
+				USBaspConsoleActivator.CONSOLE_LOW_WATER_MARK_DEFAULT);
+		if (consoleLowWaterMark >= consoleHighWaterMark) {
+			consoleLowWaterMark = consoleHighWaterMark * 4 / 5;
+		}
+		consoleHighWaterMarkText.setText(Integer.toString(consoleHighWaterMark));
+		consoleLowWaterMarkText.setText(Integer.toString(consoleLowWaterMark));
+		store.setValue(USBaspConsoleActivator.CONSOLE_LIMITED_PROPERTY, consoleLimited);
+		store.setValue(USBaspConsoleActivator.CONSOLE_LOW_WATER_MARK_PROPERTY, consoleLowWaterMark);
+		store.setValue(USBaspConsoleActivator.CONSOLE_HIGH_WATER_MARK_PROPERTY, consoleHighWaterMark);
+		final boolean consoleTimestamps = consoleTimestampsButton.getSelection();
+		store.setValue(USBaspConsoleActivator.CONSOLE_TIMESTAMPS_PROPERTY, consoleTimestamps);
+		USBaspConsoleActivator.getDefault().consolePreferencesChanged(consoleLimited,
+				consoleLowWaterMark, consoleHighWaterMark, consoleTimestamps);
+		
+		// a new charset replaces the console, so only if changed
+		final String consoleCharset = CONSOLE_CHARSETS[Math.max(0, consoleCharsetCombo.getSelectionIndex())];
+		if (!consoleCharset.equals(store.getString(USBaspConsoleActivator.CONSOLE_CHARSET_PROPERTY))) {
+			store.setValue(USBaspConsoleActivator.CONSOLE_CHARSET_PROPERTY, consoleCharset);
+			USBaspConsoleActivator.getDefault().charsetPreferencesChanged(consoleCharset);
+		}
+		
+		final ConsoleLogger.DisplayMode consoleDisplayMode = ConsoleLogger.DisplayMode.values()[
+				Math.max(0, consoleDisplayModeCombo.getSelectionIndex())];
+		store.setValue(USBaspConsoleActivator.CONSOLE_DISPLAY_MODE_PROPERTY, consoleDisplayMode.name());
+		USBaspConsoleActivator.getDefault().displayModePreferencesChanged(consoleDisplayMode);
+		
+		// a new decoder starts with new statistics, so only if changed
+		final int frameDecoderIndex = frameDecoderCombo.getSelectionIndex() - 1;
+		final String frameDecoder = frameDecoderIndex >= 0
+				? frameDecoders.get(frameDecoderIndex).getId()
+				: USBaspConsoleActivator.FRAME_DECODER_DEFAULT;
+		final boolean frameCrc = frameCrcButton.getSelection();
+		if (!frameDecoder.equals(store.getString(USBaspConsoleActivator.FRAME_DECODER_PROPERTY))
+				|| (frameCrc != store.getBoolean(USBaspConsoleActivator.FRAME_CRC_PROPERTY))) {
+			store.setValue(USBaspConsoleActivator.FRAME_DECODER_PROPERTY, frameDecoder);
+			store.setValue(USBaspConsoleActivator.FRAME_CRC_PROPERTY, frameCrc);
+			USBaspConsoleActivator.getDefault().framePreferencesChanged(frameDecoder, frameCrc);
+		}
+		
+		// restart capturing only if something changed since it starts new files
+		final boolean captureEnabled = captureEnabledButton.getSelection();
+		final String captureDirectory = captureDirectoryText.getText().trim();
+		final int captureSegmentSize = Math.min(2047, Math.max(1, getNumber(captureSegmentSizeText,
+				USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_DEFAULT)));
+		captureSegmentSizeText.setText(Integer.toString(captureSegmentSize));
+		if ((captureEnabled != store.getBoolean(USBaspConsoleActivator.CAPTURE_ENABLED_PROPERTY))
+				|| !captureDirectory.equals(store.getString(USBaspConsoleActivator.CAPTURE_DIRECTORY_PROPERTY))
+				|| (captureSegmentSize != store.getInt(USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_PROPERTY))) {
+			store.setValue(USBaspConsoleActivator.CAPTURE_ENABLED_PROPERTY, captureEnabled);
+			store.setValue(USBaspConsoleActivator.CAPTURE_DIRECTORY_PROPERTY, captureDirectory);
+			store.setValue(USBaspConsoleActivator.CAPTURE_SEGMENT_SIZE_PROPERTY, captureSegmentSize);
+			USBaspConsoleActivator.getDefault().capturePreferencesChanged(captureEnabled,
+					captureDirectory, captureSegmentSize);
+		}
+		
+		// restart the bridges only if something changed since clients are disconnected
+		final boolean bridgeEnabled = bridgeEnabledButton.getSelection();
+		final String bridgeEndpoint = bridgeEndpointText.getText().trim();
+		final UartBridge.SlowClientPolicy bridgePolicy =
+				UartBridge.SlowClientPolicy.values()[Math.max(0, bridgePolicyCombo.getSelectionIndex())];
+		final int bridgeClientBuffer = Math.max(1024, getNumber(bridgeClientBufferText,
+				USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_DEFAULT));
+		bridgeClientBufferText.setText(Integer.toString(bridgeClientBuffer));
+		if ((bridgeEnabled != store.getBoolean(USBaspConsoleActivator.BRIDGE_ENABLED_PROPERTY))
+				|| !bridgeEndpoint.equals(store.getString(USBaspConsoleActivator.BRIDGE_ENDPOINT_PROPERTY))
+				|| !bridgePolicy.name().equals(store.getString(USBaspConsoleActivator.BRIDGE_POLICY_PROPERTY))
+				|| (bridgeClientBuffer != store.getInt(USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_PROPERTY))) {
+			store.setValue(USBaspConsoleActivator.BRIDGE_ENABLED_PROPERTY, bridgeEnabled);
+			store.setValue(USBaspConsoleActivator.BRIDGE_ENDPOINT_PROPERTY, bridgeEndpoint);
+			store.setValue(USBaspConsoleActivator.BRIDGE_POLICY_PROPERTY, bridgePolicy.name());
+			store.setValue(USBaspConsoleActivator.BRIDGE_CLIENT_BUFFER_PROPERTY, bridgeClientBuffer);
+			USBaspConsoleActivator.getDefault().bridgePreferencesChanged(bridgeEnabled,
+					bridgePolicy, bridgeClientBuffer);
+		}
 		USBaspConsoleActivator.getDefault().activatedPreferencesChanged(activated);
 		
 		return true;
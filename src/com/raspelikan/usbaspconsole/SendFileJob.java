@@ -0,0 +1,216 @@
+package com.raspelikan.usbaspconsole;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Sends a file to the MCU by the UartWriter. The file is memory-mapped
+ * segment by segment instead of being loaded into the heap and passed on
+ * in small chunks, so the writer's queue applies the pacing of the baud
+ * rate and the job can be canceled quickly. Progress is reported by the
+ * bytes actually sent, not the bytes queued.
+ * 
+ * @author RasPelikan
+ */
+public class SendFileJob extends Job {
+	
+	private static final int SEGMENT_SIZE = 1024 * 1024;
+	private static final int CHUNK_SIZE = 64;
+	private static final int WORK_TOTAL = 1000;
+	private static final long PROGRESS_INTERVAL = 250000000; // 250 ms
+	private static final long DRAIN_INTERVAL = 20; // ms
+	
+	private final File file;
+	private final UartWriter writer;
+	
+	// reused for every chunk to avoid garbage
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param file The file to send
+	 * @param writer The writer sending bytes to the device
+	 */
+	public SendFileJob(final File file, final UartWriter writer) {
+		
+		super("Sending " + file.getName() + " to USBasp+");
+		setUser(true);
+		setPriority(Job.LONG);
+		
+		this.file = file;
+		this.writer = writer;
+		
+	}
+	
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		
+		if (!writer.isEnabled()) {
+			return new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID,
+					"No USBasp+ device connected");
+		}
+		
+		// the writer drops bytes if sending fails or the device is unplugged
+		final long droppedBytes = writer.getDroppedBytes();
+		
+		FileInputStream input = null;
+		try {
+			
+			input = new FileInputStream(file);
+			final FileChannel channel = input.getChannel();
+			final long size = channel.size();
+			
+			monitor.beginTask(getName(), WORK_TOTAL);
+			final Progress progress = new Progress(monitor, size);
+			
+			long position = 0;
+			while (position < size) {
+				
+				final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+						position, Math.min(SEGMENT_SIZE, size - position));
+				
+				while (segment.hasRemaining()) {
+					
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					if (!writer.isEnabled()) {
+						return new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID,
+								"USBasp+ device disconnected after "
+								+ progress.getSent() + " of " + size + " bytes");
+					}
+					
+					final int length = Math.min(chunk.length, segment.remaining());
+					segment.get(chunk, 0, length);
+					
+					// waits while the writer's queue is full
+					if (writer.send(chunk, 0, length) < length) {
+						return Status.CANCEL_STATUS;
+					}
+					position += length;
+					
+					progress.update(position - writer.getQueuedBytes());
+					
+				}
+				
+			}
+			
+			// the job is done once the device got the last byte
+			while (writer.getQueuedBytes() > 0) {
+				
+				if (monitor.isCanceled() || !writer.isEnabled()) {
+					break;
+				}
+				try {
+					Thread.sleep(DRAIN_INTERVAL);
+				} catch (InterruptedException e) {
+					break;
+				}
+				progress.update(size - writer.getQueuedBytes());
+				
+			}
+			
+			if (monitor.isCanceled()) {
+				return Status.CANCEL_STATUS;
+			}
+			if (!writer.isEnabled()) {
+				return new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID,
+						"USBasp+ device disconnected after "
+						+ progress.getSent() + " of " + size + " bytes");
+			}
+			
+			final long lostBytes = writer.getDroppedBytes() - droppedBytes;
+			if (lostBytes > 0) {
+				return new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID,
+						lostBytes + " of " + size + " bytes could not be sent to the USBasp+ device");
+			}
+			
+			return Status.OK_STATUS;
+			
+		} catch (IOException e) {
+			
+			return new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID,
+					"Could not read " + file, e);
+			
+		} finally {
+			
+			monitor.done();
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					// never mind
+				}
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Reports the bytes sent, the rate and the time left to the monitor
+	 */
+	private static class Progress {
+		
+		private final IProgressMonitor monitor;
+		private final long size;
+		private final long startTime = System.nanoTime();
+		
+		private long sent;
+		private int worked;
+		private long lastReportTime;
+		
+		Progress(final IProgressMonitor monitor, final long size) {
+			
+			this.monitor = monitor;
+			this.size = size;
+			
+		}
+		
+		long getSent() {
+			
+			return sent;
+			
+		}
+		
+		void update(final long sent) {
+			
+			this.sent = Math.max(this.sent, sent);
+			
+			final int work = (int) (this.sent * WORK_TOTAL / Math.max(1, size));
+			if (work > worked) {
+				monitor.worked(work - worked);
+				worked = work;
+			}
+			
+			final long now = System.nanoTime();
+			if (now - lastReportTime < PROGRESS_INTERVAL) {
+				return;
+			}
+			lastReportTime = now;
+			
+			final long elapsed = now - startTime;
+			final long bytesPerSecond = elapsed == 0 ? 0 : this.sent * 1000000000L / elapsed;
+			
+			final StringBuilder text = new StringBuilder();
+			text.append(this.sent).append(" of ").append(size).append(" bytes");
+			if (bytesPerSecond > 0) {
+				text.append(", ").append(bytesPerSecond).append(" bytes/s, ")
+						.append((size - this.sent) / bytesPerSecond).append(" s left");
+			}
+			monitor.subTask(text.toString());
+			
+		}
+		
+	}
+	
+}
@@ -1,20 +1,24 @@
 package com.raspelikan.usbaspconsole;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.IStartup;
 import org.eclipse.ui.console.ConsolePlugin;
 import org.eclipse.ui.console.IConsole;
-import org.eclipse.ui.console.IConsoleManager;
+import org.eclipse.ui.console.IOConsole;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
-import org.usb4java.Context;
-import org.usb4java.DeviceHandle;
-import org.usb4java.HotplugCallbackHandle;
-import org.usb4java.LibUsb;
-import org.usb4java.LibUsbException;
+import org.usb4java.Device;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -22,26 +26,71 @@ import org.usb4java.LibUsbException;
  * @author RasPelikan
  */
 public class USBaspConsoleActivator extends AbstractUIPlugin
-		implements USBaspDevice, IStartup {
+		implements IStartup, DeviceListener {
 
 	public static final String PLUGIN_SCOPE = "com.raspelikan.usbaspconsole";
 	public static final String ACTIVATED_PROPERTY = "com.raspelikan.usbaspconsole.Active";
 	public static final boolean ACTIVATED_DEFAULT = false;
 	public static final String BAUDRATE_PROPERTY = "com.raspelikan.usbaspconsole.BaudRate";
-	public static final int BAUDRATE_DEFAULT = 9600;
+	public static final int BAUDRATE_DEFAULT = USBaspProtocol.BAUDRATE_DEFAULT;
+	public static final String ASYNC_PROPERTY = "com.raspelikan.usbaspconsole.AsyncTransfers";
+	public static final boolean ASYNC_DEFAULT = false;
+	public static final String PACKED_WRITES_PROPERTY = "com.raspelikan.usbaspconsole.PackedWrites";
+	public static final boolean PACKED_WRITES_DEFAULT = false;
+	public static final String POLL_MIN_INTERVAL_PROPERTY = "com.raspelikan.usbaspconsole.PollMinInterval";
+	public static final int POLL_MIN_INTERVAL_DEFAULT = 5;
+	public static final String POLL_MAX_INTERVAL_PROPERTY = "com.raspelikan.usbaspconsole.PollMaxInterval";
+	public static final int POLL_MAX_INTERVAL_DEFAULT = 500;
+	public static final String BUFFER_CAPACITY_PROPERTY = "com.raspelikan.usbaspconsole.BufferCapacity";
+	public static final int BUFFER_CAPACITY_DEFAULT = 65536;
+	public static final String BUFFER_POLICY_PROPERTY = "com.raspelikan.usbaspconsole.BufferPolicy";
+	public static final String BUFFER_POLICY_DEFAULT = ByteRingBuffer.OverflowPolicy.DROP_OLDEST.name();
+	public static final String CONSOLE_LIMITED_PROPERTY = "com.raspelikan.usbaspconsole.ConsoleLimited";
+	public static final boolean CONSOLE_LIMITED_DEFAULT = true;
+	public static final String CONSOLE_LOW_WATER_MARK_PROPERTY = "com.raspelikan.usbaspconsole.ConsoleLowWaterMark";
+	public static final int CONSOLE_LOW_WATER_MARK_DEFAULT = 800000;
+	public static final String CONSOLE_HIGH_WATER_MARK_PROPERTY = "com.raspelikan.usbaspconsole.ConsoleHighWaterMark";
+	public static final int CONSOLE_HIGH_WATER_MARK_DEFAULT = 1000000;
+	public static final String CONSOLE_TIMESTAMPS_PROPERTY = "com.raspelikan.usbaspconsole.ConsoleTimestamps";
+	public static final boolean CONSOLE_TIMESTAMPS_DEFAULT = false;
+	public static final String CONSOLE_CHARSET_PROPERTY = "com.raspelikan.usbaspconsole.ConsoleCharset";
+	public static final String CONSOLE_CHARSET_RAW = "RAW";
+	public static final String CONSOLE_CHARSET_DEFAULT = CONSOLE_CHARSET_RAW;
+	public static final String CONSOLE_DISPLAY_MODE_PROPERTY = "com.raspelikan.usbaspconsole.ConsoleDisplayMode";
+	public static final String CONSOLE_DISPLAY_MODE_DEFAULT = ConsoleLogger.DisplayMode.TEXT.name();
+	public static final String FRAME_DECODER_PROPERTY = "com.raspelikan.usbaspconsole.FrameDecoder";
+	public static final String FRAME_DECODER_DEFAULT = ""; // none
+	public static final String FRAME_CRC_PROPERTY = "com.raspelikan.usbaspconsole.FrameCrc";
+	public static final boolean FRAME_CRC_DEFAULT = false;
+	public static final String CAPTURE_ENABLED_PROPERTY = "com.raspelikan.usbaspconsole.CaptureEnabled";
+	public static final boolean CAPTURE_ENABLED_DEFAULT = false;
+	public static final String CAPTURE_DIRECTORY_PROPERTY = "com.raspelikan.usbaspconsole.CaptureDirectory";
+	public static final String CAPTURE_DIRECTORY_DEFAULT = new File(
+			System.getProperty("user.home"), "usbasp-captures").getPath();
+	public static final String CAPTURE_SEGMENT_SIZE_PROPERTY = "com.raspelikan.usbaspconsole.CaptureSegmentSize";
+	public static final int CAPTURE_SEGMENT_SIZE_DEFAULT = 64; // MB
+	public static final String BRIDGE_ENABLED_PROPERTY = "com.raspelikan.usbaspconsole.BridgeEnabled";
+	public static final boolean BRIDGE_ENABLED_DEFAULT = false;
+	public static final String BRIDGE_ENDPOINT_PROPERTY = "com.raspelikan.usbaspconsole.BridgeEndpoint";
+	public static final String BRIDGE_ENDPOINT_DEFAULT = "tcp:4711";
+	public static final String BRIDGE_POLICY_PROPERTY = "com.raspelikan.usbaspconsole.BridgePolicy";
+	public static final String BRIDGE_POLICY_DEFAULT = UartBridge.SlowClientPolicy.DISCONNECT.name();
+	public static final String BRIDGE_CLIENT_BUFFER_PROPERTY = "com.raspelikan.usbaspconsole.BridgeClientBuffer";
+	public static final int BRIDGE_CLIENT_BUFFER_DEFAULT = UartBridge.CLIENT_BUFFER_DEFAULT;
 
-	public static final short USBasp_idVendor = 5824;
-	public static final short USBasp_idProduct = 1500;
-	public static final short USBasp_interface = 0;
-	
-	public static final byte USBASP_FUNC_UART_PUTBYTE = 50;
-	public static final byte USBASP_FUNC_UART_GETBYTE = 51;
-	public static final byte USBASP_FUNC_UART_GETBYTECOUNT = 52;
-	public static final byte USBASP_FUNC_UART_SETBAUDRATE = 53;
-	public static final byte USBASP_RESULT_UART_SETBAUDRATE = 0x53;
-	public static final byte USBASP_FUNC_TEST_CMD1 = 61;
-	public static final byte USBASP_FUNC_TEST_CMD2 = 62;
-	public static final byte USBASP_FUNC_TEST_CMD3 = 63;
+	/** max. number of threads polling devices if there are no virtual threads */
+	public static final int EXECUTOR_POOL_SIZE = 4;
+	
+	/** system property: "text", "bursts" or a capture file to simulate a device */
+	public static final String SIMULATOR_PROPERTY = "com.raspelikan.usbaspconsole.simulator";
+	/** system property: µs each control transfer of the simulated device takes */
+	public static final String SIMULATOR_LATENCY_PROPERTY = "com.raspelikan.usbaspconsole.simulator.latency";
+	public static final long SIMULATOR_LATENCY_DEFAULT = 1000;
+	/** system property: bytes per read transfer of the simulated device */
+	public static final String SIMULATOR_TRANSFER_SIZE_PROPERTY = "com.raspelikan.usbaspconsole.simulator.transferSize";
+	public static final int SIMULATOR_TRANSFER_SIZE_DEFAULT = 1;
+	/** the path of the simulated device used for its console and preferences */
+	public static final String SIMULATOR_PATH = "simulated";
 	
 	// The plug-in ID
 	public static final String PLUGIN_ID = "USBaspPlusConsole"; //$NON-NLS-1$
@@ -49,37 +98,45 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 	// The shared instance
 	private static USBaspConsoleActivator plugin;
 
-	private Context usbContext;
-	private boolean usbDetachedFromSystemDriver;
-	private HotplugCallbackHandle usbHotplugCallbackHandle;
-	private UsbEventHandlingThread usbEventHandlingThread;
-	private DeviceHandle usbaspDeviceHandle;
+	private UsbService usbService;
 	
-	private ConsoleLogger logger;
-
-	/**
-	 * The constructor
-	 */
-	public USBaspConsoleActivator() {
-	}
+	private final USBaspDeviceRegistry registry = new USBaspDeviceRegistry();
+	private DeviceExecutor executor;
+	
+	private long activationTime;
+	private UsbStartupJob usbStartupJob;
+	
+	private SimulatedUSBaspDevice simulatedDevice;
+	private ConsoleLogger simulatedLogger;
+	
+	// guards starting and stopping the USB services
+	private final Object usbLock = new Object();
 
 	/**
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#start(org.osgi.framework.BundleContext)
 	 */
 	public void start(BundleContext context) throws Exception {
 		
+		activationTime = System.nanoTime();
+		
 		super.start(context);
 		plugin = this;
-
-		// start console logger thread
-		logger = new ConsoleLogger(plugin.getLog(), this, false);
-		logger.start();
 		
 		// initialize USB hotplug listener and USBasp device (if connected)
+		// in the background since activation blocks the startup of Eclipse,
+		// consoles and threads are built once a device is plugged in
 		if (isEnabledByPreferences()) {
-			startUsb();
+			scheduleStartUsb();
 		}
 		
+		// a simulated device for testing without hardware
+		if (System.getProperty(SIMULATOR_PROPERTY) != null) {
+			startSimulator(System.getProperty(SIMULATOR_PROPERTY));
+		}
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp+ activated in " + (System.nanoTime() - activationTime) / 1000000 + " ms"));
+		
 	}
 	
 	/**
@@ -87,17 +144,79 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 	 */
 	public void stop(BundleContext context) throws Exception {
 		
-		// stop console logger thread
-		this.logger.shutdown();
-		
-		// stop any USB services
+		// stop any USB services, waiting for a start in progress
+		cancelStartUsb();
 		stopUsb();
+		stopSimulator();
+		
+		// stop console loggers
+		for (final USBaspDeviceRegistry.Entry entry : registry.clear()) {
+			unregisterMetrics(entry.getDevice().getPath());
+			entry.getLogger().shutdown();
+		}
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
 		
 		plugin = null;
 		super.stop(context);
 		
 	}
 	
+	/**
+	 * @return The executor running the consoles, readers and writers of
+	 *         all devices, built on first need
+	 */
+	private synchronized DeviceExecutor getExecutor() {
+		
+		// consoles, readers and writers of all devices share a few threads
+		if (executor == null) {
+			executor = DeviceExecutor.create(new EclipseLog(getLog()),
+					Math.min(EXECUTOR_POOL_SIZE, Runtime.getRuntime().availableProcessors()));
+			getLog().log(new Status(Status.INFO, PLUGIN_ID,
+					"USBasp+ devices are polled by " + executor));
+		}
+		
+		return executor;
+		
+	}
+	
+	/**
+	 * Start the USB services by a background job
+	 */
+	private synchronized void scheduleStartUsb() {
+		
+		usbStartupJob = new UsbStartupJob(this, activationTime);
+		usbStartupJob.schedule();
+		
+	}
+	
+	/**
+	 * Cancel starting the USB services and wait for a start in progress
+	 */
+	private void cancelStartUsb() {
+		
+		final UsbStartupJob job;
+		synchronized (this) {
+			job = usbStartupJob;
+			usbStartupJob = null;
+		}
+		if (job == null) {
+			return;
+		}
+		
+		job.cancel();
+		try {
+			job.join();
+		} catch (InterruptedException e) {
+			// never mind
+		}
+		
+	}
+	
 	/**
 	 * @return Enabled by preferences
 	 */
@@ -107,6 +226,82 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 		
 	}
 	
+	/**
+	 * @return Whether asynchronous transfers are enabled by preferences
+	 */
+	private boolean isAsyncEnabledByPreferences() {
+		
+		return getPreferenceStore().getBoolean(ASYNC_PROPERTY);
+		
+	}
+	
+	/**
+	 * @return The policy of the buffer between reader and console
+	 */
+	private ByteRingBuffer.OverflowPolicy getBufferPolicyByPreferences() {
+		
+		try {
+			return ByteRingBuffer.OverflowPolicy.valueOf(
+					getPreferenceStore().getString(BUFFER_POLICY_PROPERTY));
+		} catch (IllegalArgumentException e) {
+			return ByteRingBuffer.OverflowPolicy.valueOf(BUFFER_POLICY_DEFAULT);
+		}
+		
+	}
+	
+	/**
+	 * @return What the bridges do with a client whose buffer is full
+	 */
+	public UartBridge.SlowClientPolicy getBridgePolicyByPreferences() {
+		
+		try {
+			return UartBridge.SlowClientPolicy.valueOf(
+					getPreferenceStore().getString(BRIDGE_POLICY_PROPERTY));
+		} catch (IllegalArgumentException e) {
+			return UartBridge.SlowClientPolicy.valueOf(BRIDGE_POLICY_DEFAULT);
+		}
+		
+	}
+	
+	/**
+	 * @param path The bus/port path of a device
+	 * @return The endpoint of the device's bridge or the one configured
+	 *         for all, a device each needs its own if several are plugged in
+	 */
+	private String getBridgeEndpointByPreferences(final String path) {
+		
+		final String property = getBridgeEndpointProperty(path);
+		if (getPreferenceStore().contains(property)) {
+			return getPreferenceStore().getString(property);
+		}
+		
+		return getPreferenceStore().getString(BRIDGE_ENDPOINT_PROPERTY);
+		
+	}
+	
+	/**
+	 * @return The property of the bridge endpoint of the device at the given path
+	 */
+	private static String getBridgeEndpointProperty(final String path) {
+		
+		return BRIDGE_ENDPOINT_PROPERTY + "." + path;
+		
+	}
+	
+	/**
+	 * @return The console's display mode configured by preferences
+	 */
+	public ConsoleLogger.DisplayMode getDisplayModeByPreferences() {
+		
+		try {
+			return ConsoleLogger.DisplayMode.valueOf(
+					getPreferenceStore().getString(CONSOLE_DISPLAY_MODE_PROPERTY));
+		} catch (IllegalArgumentException e) {
+			return ConsoleLogger.DisplayMode.valueOf(CONSOLE_DISPLAY_MODE_DEFAULT);
+		}
+		
+	}
+	
 	/**
 	 * @return The baud rate configured by preferences
 	 */
@@ -116,43 +311,48 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 		
 	}
 	
+	/**
+	 * @param path The bus/port path of a device
+	 * @return The baud rate of the device or the one configured for all
+	 */
+	public int getBaudRateByPreferences(final String path) {
+		
+		final String property = getBaudRateProperty(path);
+		if (getPreferenceStore().contains(property)) {
+			return getPreferenceStore().getInt(property);
+		}
+		
+		return getBaudRateByPreferences();
+		
+	}
+	
+	/**
+	 * @return The property of the baud rate of the device at the given path
+	 */
+	private static String getBaudRateProperty(final String path) {
+		
+		return BAUDRATE_PROPERTY + "." + path;
+		
+	}
+	
 	/**
 	 * initialize USB hotplug listener and USBasp device (if connected)
 	 */
 	public void startUsb() throws Exception {
 		
-		if (usbContext != null) {
-			return;
+		synchronized (usbLock) {
+			
+			if (usbService != null) {
+				return;
+			}
+			
+			// libusb, hotplug handling and opening the devices plugged in
+			final UsbService service = new UsbService(new EclipseLog(getLog()), this);
+			service.start();
+			usbService = service;
+			
 		}
 		
-		// build libusb context
-		usbContext = new Context();
-		int result = LibUsb.init(usbContext);
-		if (result != LibUsb.SUCCESS) {
-			throw new LibUsbException("Unable to initialize libusb.", result);
-		}
-		
-		// start lister for device-plugin and device-unplug events
-        final boolean hotplugAvailable = enableUsbHotplugHandler();
-        
-        if (! hotplugAvailable) {
-        	
-    		// build device handle if device is connected
-    		final boolean deviceAvailable = buildUsbDeviceHandle();
-    		
-    		if (deviceAvailable) {
-    			
-				this.logger.enable();
-				
-	        	plugin.getLog().log(new Status(Status.INFO,
-	        			USBaspConsoleActivator.PLUGIN_ID,
-	        			"Found USBasp device. Enabled USBasp+ console at baud rate '"
-	        			+ plugin.getBaudRateByPreferences() + "'!"));
-	        	
-        	}
-        
-        }
-		
 	}
 
 	/**
@@ -160,125 +360,285 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 	 */
 	public void stopUsb() throws Exception {
 		
-		if (usbContext != null) {
-			
-			// stop reading further data
-			this.logger.disable();
-			
-			// disable USB hotplug listener
-			disableUsbHotplugHandler();
+		synchronized (usbLock) {
 			
-			// close any device connected
-			closeUsbDeviceHandle();
-			
-			// shutdown libusb
-			LibUsb.exit(usbContext);
-			usbContext = null;
+			if (usbService != null) {
+				
+				// disable USB hotplug listener and close any device connected
+				usbService.stop();
+				usbService = null;
+				
+			}
 			
 		}
 		
 	}
 	
 	/**
-	 * start lister for device-plugin and device-unplug events
+	 * The plugin should start on starting Eclipse. So the plugin has to extend
+	 * org.eclipse.ui.startup. This requires a class implementing IStartup
+	 * even if the plugin is not interested in the event itself. 
+	 */
+	@Override
+	public void earlyStartup() {
+		
+		// do nothing, "start" only schedules the USB services to be started
+		
+	}
+	
+	/**
+	 * Called by DeviceLifecycleWorker if a device is plugged in. A device
+	 * plugged in at a port for the first time gets its own console.
+	 * 
+	 * @param plugTime The time the device was plugged in (System.nanoTime())
+	 */
+	@Override
+	public void deviceArrived(final Device device, final long plugTime) {
+		
+		final String path = USBaspUsbDevice.getPath(device);
+		
+		USBaspDeviceRegistry.Entry entry = registry.get(path);
+		if (entry == null) {
+			entry = addDevice(path);
+		}
+		
+		final int baudRate = getBaudRateByPreferences(path);
+		entry.getDevice().open(device, baudRate, isAsyncEnabledByPreferences());
+		entry.getLogger().enable(plugTime);
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp plugged in at " + path + ". Enabled USBasp+ console at baud rate '"
+				+ baudRate + "' " + (System.nanoTime() - plugTime) / 1000000
+				+ " ms after plugging in!"));
+		
+	}
+	
+	/**
+	 * Called by DeviceLifecycleWorker if a device is unplugged and by
+	 * UsbService on stopping
+	 * 
+	 * @param path The device's bus/port path
 	 */
-	private boolean enableUsbHotplugHandler() {
+	@Override
+	public void deviceLeft(final String path) {
+		
+		final USBaspDeviceRegistry.Entry entry = registry.get(path);
+		if ((entry == null) || !entry.getDevice().isOpen()) {
+			return;
+		}
 		
-		int result;
+		closeDevice(entry);
 		
-		// Start the event handling thread
-		usbEventHandlingThread = new UsbEventHandlingThread();
-		usbEventHandlingThread.start();
-
-		// check whether hotplug is available
-		if (!LibUsb.hasCapability(LibUsb.CAP_HAS_HOTPLUG)) {
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp at " + entry.getDevice().getPath()
+				+ " unplugged. Disabled USBasp+ console!"));
+		
+	}
+	
+	/**
+	 * Build the device and console logger of a port a device is plugged in
+	 * at for the first time
+	 */
+	private USBaspDeviceRegistry.Entry addDevice(final String path) {
+		
+		final USBaspUsbDevice device = new USBaspUsbDevice(path);
+		device.setPackedWrites(getPreferenceStore().getBoolean(PACKED_WRITES_PROPERTY));
+		
+		final ConsoleLogger logger = buildLogger(device, path);
+		registerMetrics(path, logger);
+		
+		return registry.add(device, logger);
+		
+	}
+	
+	/**
+	 * @return The JMX name of the metrics of the device at the given path
+	 */
+	private static ObjectName getMetricsName(final String path)
+			throws MalformedObjectNameException {
+		
+		return new ObjectName(PLUGIN_SCOPE + ":type=Device,path=" + ObjectName.quote(path));
+		
+	}
+	
+	/**
+	 * Expose the metrics of a device and its console by JMX
+	 */
+	private void registerMetrics(final String path, final ConsoleLogger logger) {
+		
+		try {
 			
-			plugin.getLog().log(new Status(Status.WARNING,
-					PLUGIN_ID, "Libusb doesn't support hotplug on this system!"
-					+ " At the moment no USBasp device is connected. "
-					+ "Unfortunataly you have to restart Eclipse once "
-					+ "you plugged in a device!"));
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = getMetricsName(path);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(logger.getMetrics(), name);
+			}
 			
-			return false;
-		    
-		} else {
+		} catch (Exception e) {
+			
+			getLog().log(new Status(Status.WARNING, PLUGIN_ID,
+					"Could not register the metrics of " + path + " by JMX", e));
 			
-		    usbHotplugCallbackHandle = new HotplugCallbackHandle();
-		    result = LibUsb.hotplugRegisterCallback(null,
-		        LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED
-		            | LibUsb.HOTPLUG_EVENT_DEVICE_LEFT,
-		        LibUsb.HOTPLUG_ENUMERATE,
-		        LibUsb.HOTPLUG_MATCH_ANY,
-		        LibUsb.HOTPLUG_MATCH_ANY,
-		        LibUsb.HOTPLUG_MATCH_ANY,
-		        new UsbHotplugHandler(this),
-		        null,
-		        usbHotplugCallbackHandle);
-		    if (result != LibUsb.SUCCESS) {
-		        throw new LibUsbException("Unable to register hotplug callback",
-		            result);
-		    }
-		    
-			return true;
-		    
 		}
 		
 	}
-
+	
 	/**
-	 * stop lister for device-plugin and device-unplug events
+	 * Remove the metrics of a device from JMX
 	 */
-	private void disableUsbHotplugHandler() {
+	private void unregisterMetrics(final String path) {
 		
-		// if thread is running then abort the thread
-		if (this.usbEventHandlingThread != null) {
-			
-			this.usbEventHandlingThread.abort();
+		try {
 			
-			try {
-				this.usbEventHandlingThread.join();
-			} catch (InterruptedException e) {
-				// never mind
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = getMetricsName(path);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
 			}
 			
+		} catch (Exception e) {
+			
+			getLog().log(new Status(Status.WARNING, PLUGIN_ID,
+					"Could not unregister the metrics of " + path + " from JMX", e));
+			
 		}
 		
-		LibUsb.hotplugDeregisterCallback(null, usbHotplugCallbackHandle);
-		
 	}
 	
 	/**
-	 * The plugin should start on starting Eclipse. So the plugin has to extend
-	 * org.eclipse.ui.startup. This requires a class implementing IStartup
-	 * even if the plugin is not interested in the event itself. 
+	 * Build the console logger of a device configured by preferences
 	 */
-	@Override
-	public void earlyStartup() {
+	private ConsoleLogger buildLogger(final USBaspDevice device, final String path) {
+		
+		final ConsoleLogger logger = new ConsoleLogger(getLog(), device, getExecutor(),
+				ConsoleLogger.CONSOLE_NAME + " (" + path + ")", false,
+				getPreferenceStore().getInt(POLL_MIN_INTERVAL_PROPERTY),
+				getPreferenceStore().getInt(POLL_MAX_INTERVAL_PROPERTY),
+				getPreferenceStore().getInt(BUFFER_CAPACITY_PROPERTY),
+				getBufferPolicyByPreferences(),
+				getPreferenceStore().getString(CONSOLE_CHARSET_PROPERTY));
+		applyConsolePreferences(logger,
+				getPreferenceStore().getBoolean(CONSOLE_LIMITED_PROPERTY),
+				getPreferenceStore().getInt(CONSOLE_LOW_WATER_MARK_PROPERTY),
+				getPreferenceStore().getInt(CONSOLE_HIGH_WATER_MARK_PROPERTY),
+				getPreferenceStore().getBoolean(CONSOLE_TIMESTAMPS_PROPERTY));
+		logger.setDisplayMode(getDisplayModeByPreferences());
+		logger.setFrameDecoder(buildFrameDecoder(
+				getPreferenceStore().getString(FRAME_DECODER_PROPERTY),
+				getPreferenceStore().getBoolean(FRAME_CRC_PROPERTY)));
+		logger.start();
+		applyCapturePreferences(logger, path,
+				getPreferenceStore().getBoolean(CAPTURE_ENABLED_PROPERTY),
+				getPreferenceStore().getString(CAPTURE_DIRECTORY_PROPERTY),
+				getPreferenceStore().getInt(CAPTURE_SEGMENT_SIZE_PROPERTY));
+		applyBridgePreferences(logger, path,
+				getPreferenceStore().getBoolean(BRIDGE_ENABLED_PROPERTY),
+				getBridgePolicyByPreferences(),
+				getPreferenceStore().getInt(BRIDGE_CLIENT_BUFFER_PROPERTY));
 		
-		// do nothing, everything is done in "start"
+		return logger;
 		
 	}
 	
 	/**
-	 * Called by UsbHotplugHandler if a device is plugged in
+	 * Start a console showing the bytes of a simulated device
+	 * 
+	 * @param spec The data the simulated MCU sends, see
+	 *            SimulatedUSBaspDevice.createGenerator
 	 */
-	public void enableLogger() {
+	private void startSimulator(final String spec) {
+		
+		try {
+			
+			simulatedDevice = new SimulatedUSBaspDevice(
+					SimulatedUSBaspDevice.createGenerator(spec),
+					USBaspProtocol.USBASP_UART_FIFO_SIZE,
+					Integer.getInteger(SIMULATOR_TRANSFER_SIZE_PROPERTY,
+							SIMULATOR_TRANSFER_SIZE_DEFAULT),
+					Long.getLong(SIMULATOR_LATENCY_PROPERTY,
+							SIMULATOR_LATENCY_DEFAULT) * 1000);
+			
+		} catch (IOException e) {
+			
+			getLog().log(new Status(Status.ERROR, PLUGIN_ID,
+					"Could not start simulated USBasp '" + spec + "'", e));
+			return;
+			
+		}
 		
-		closeUsbDeviceHandle();    // maybe another device was already connected?
-		buildUsbDeviceHandle();
+		final int baudRate = getBaudRateByPreferences(SIMULATOR_PATH);
+		simulatedDevice.setBaudRate(baudRate);
 		
-		this.logger.enable();
+		simulatedLogger = buildLogger(simulatedDevice, SIMULATOR_PATH);
+		registerMetrics(SIMULATOR_PATH, simulatedLogger);
+		simulatedLogger.enable(System.nanoTime());
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"Started simulated USBasp '" + spec + "' at baud rate '" + baudRate + "'"));
 		
 	}
 	
 	/**
-	 * Called by UsbHotplugHandler if a device is unplugged
+	 * Stop the simulated device's console and log its statistics
 	 */
-	public void disableLogger() {
+	private void stopSimulator() {
+		
+		if (simulatedLogger == null) {
+			return;
+		}
+		
+		simulatedLogger.disable();
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp+ console of " + simulatedDevice + " read "
+				+ simulatedDevice.getReadStatistics()
+				+ ", latency from arrival to console: "
+				+ simulatedLogger.getLatencyStatistics()
+				+ ", " + simulatedLogger.getBuffer()));
 		
-		closeUsbDeviceHandle();
+		unregisterMetrics(SIMULATOR_PATH);
+		simulatedLogger.shutdown();
+		simulatedLogger = null;
+		simulatedDevice = null;
 		
-		this.logger.disable();
+	}
+	
+	/**
+	 * Stop reading, close the device and log its statistics
+	 */
+	private void closeDevice(final USBaspDeviceRegistry.Entry entry) {
+		
+		final USBaspUsbDevice device = entry.getDevice();
+		final ConsoleLogger logger = entry.getLogger();
+		
+		logger.disable();
+		device.close();
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp+ console at " + device.getPath() + " read " + device.getReadStatistics()
+				+ ", latency from arrival to console: "
+				+ logger.getLatencyStatistics()
+				+ ", from plugging in to first byte: " + logger.getFirstByteLatency()
+				+ ", " + logger.getBuffer()));
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp+ console at " + device.getPath()
+				+ " USB read: " + logger.getReadLatency()
+				+ ", poll interval: " + logger.getPollInterval()
+				+ ", console write: " + logger.getWriteLatency()
+				+ ", console flush: " + logger.getFlushLatency()));
+		
+		getLog().log(new Status(Status.INFO, PLUGIN_ID,
+				"USBasp+ console at " + device.getPath() + " wrote " + device.getWriteStatistics()
+				+ ", dropped " + logger.getWriter().getDroppedBytes()
+				+ " bytes"));
+		
+		final FrameDecoder frameDecoder = logger.getFrameDecoder();
+		if (frameDecoder != null) {
+			getLog().log(new Status(Status.INFO, PLUGIN_ID,
+					"USBasp+ console at " + device.getPath() + " decoded "
+					+ frameDecoder.getStatistics()));
+		}
 		
 	}
 	
@@ -291,10 +651,11 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 			
 			if (activated) {
 				
-				startUsb();
+				scheduleStartUsb();
 				
 			} else {
 				
+				cancelStartUsb();
 				stopUsb();
 				
 			}
@@ -309,271 +670,397 @@ public class USBaspConsoleActivator extends AbstractUIPlugin
 	}
 
 	/**
-	 * Try to build a usb device handle if plugged in
-	 * 
-	 * @return The usb device handle
+	 * Called once the baud rate preference changes. Applies to all devices
+	 * without a baud rate of their own.
 	 */
-	public boolean buildUsbDeviceHandle() {
-
-		// find device with USBasp's idVendor and idProduct
-		usbaspDeviceHandle = LibUsb.openDeviceWithVidPid(usbContext, USBasp_idVendor, USBasp_idProduct);
-		if (usbaspDeviceHandle == null) {
-			return false;
-		}
+	public void baudRatePreferencesChanged(final int baudRate) {
 		
-		// detach any system driver if attached
-		boolean supportsDetachKernelDriver = LibUsb.hasCapability(LibUsb.CAP_SUPPORTS_DETACH_KERNEL_DRIVER);
-		if (supportsDetachKernelDriver) {
-			int detach = LibUsb.kernelDriverActive(usbaspDeviceHandle, USBasp_interface);
-
-			// Detach the kernel driver
-			if (detach != 0) {
-			    int result = LibUsb.detachKernelDriver(usbaspDeviceHandle, USBasp_interface);
-			    if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to detach kernel driver", result);
-			    usbDetachedFromSystemDriver = true;
+		for (final USBaspDeviceRegistry.Entry entry : registry.getEntries()) {
+			if (!getPreferenceStore().contains(getBaudRateProperty(entry.getDevice().getPath()))) {
+				applyBaudRate(entry, baudRate);
 			}
 		}
 		
-		// claim the interface
-		int result = LibUsb.claimInterface(usbaspDeviceHandle, USBasp_interface);
-		if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to claim interface "
-				+ USBasp_interface, result);
+		final ConsoleLogger simulatedLogger = this.simulatedLogger;
+		if ((simulatedLogger != null)
+				&& !getPreferenceStore().contains(getBaudRateProperty(SIMULATOR_PATH))) {
+			simulatedDevice.setBaudRate(baudRate);
+			simulatedLogger.baudRateChanged();
+		}
+		
+	}
+	
+	/**
+	 * Set the baud rate of one device, kept if the device is plugged in at
+	 * the same port again
+	 * 
+	 * @param path The device's bus/port path
+	 * @param baudRate The baud rate
+	 */
+	public void deviceBaudRateChanged(final String path, final int baudRate) {
+		
+		getPreferenceStore().setValue(getBaudRateProperty(path), baudRate);
+		
+		final USBaspDeviceRegistry.Entry entry = registry.get(path);
+		if (entry != null) {
+			applyBaudRate(entry, baudRate);
+		}
+		
+		final ConsoleLogger simulatedLogger = this.simulatedLogger;
+		if (SIMULATOR_PATH.equals(path) && (simulatedLogger != null)) {
+			simulatedDevice.setBaudRate(baudRate);
+			simulatedLogger.baudRateChanged();
+		}
 		
-		// set baud rate
-		final int baudRate = getBaudRateByPreferences();
-		setBaudRate(baudRate);
+	}
+	
+	/**
+	 * Set the baud rate of a device if connected
+	 */
+	private void applyBaudRate(final USBaspDeviceRegistry.Entry entry, final int baudRate) {
 		
-		return true;
+		try {
+			
+			if (entry.getDevice().isOpen()) {
+				entry.getDevice().setBaudRate(baudRate);
+				entry.getLogger().baudRateChanged();
+			}
+			
+		} catch (Exception e) {
+			
+			this.getLog().log(new Status(Status.ERROR, PLUGIN_ID,
+					"Could not set baud rate of " + entry.getDevice(), e));
+			
+		}
 		
 	}
-
+	
 	/**
-	 * close usb device handle
+	 * Called once the preferences of the buffer between reader and console change
 	 */
-	public void closeUsbDeviceHandle() {
+	public void bufferPreferencesChanged(final int capacity,
+			final ByteRingBuffer.OverflowPolicy policy) {
 		
-		if (usbaspDeviceHandle == null) {
-			return;
+		for (final ConsoleLogger logger : getLoggers()) {
+			logger.setBuffer(capacity, policy);
 		}
 		
-		// unclaim the interface
-		int result = LibUsb.releaseInterface(usbaspDeviceHandle, USBasp_interface);
-		if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to release interface "
-				+ USBasp_interface, result);
-
-		// attach system driver if it was previously detached
-		if (usbDetachedFromSystemDriver) {
-			result = LibUsb.attachKernelDriver(usbaspDeviceHandle, USBasp_interface);
-		    if (result != LibUsb.SUCCESS) throw new LibUsbException("Unable to re-attach kernel driver", result);
+	}
+	
+	/**
+	 * Called once the preferences of the console's content change
+	 */
+	public void consolePreferencesChanged(final boolean limited,
+			final int lowWaterMark, final int highWaterMark, final boolean timestamps) {
+		
+		for (final ConsoleLogger logger : getLoggers()) {
+			applyConsolePreferences(logger, limited, lowWaterMark, highWaterMark, timestamps);
 		}
 		
-		// close device handle
-		if (usbaspDeviceHandle != null) {
-		    LibUsb.close(usbaspDeviceHandle);
-			usbaspDeviceHandle = null;
+	}
+	
+	private static void applyConsolePreferences(final ConsoleLogger logger, final boolean limited,
+			final int lowWaterMark, final int highWaterMark, final boolean timestamps) {
+		
+		logger.setTimestamps(timestamps);
+		
+		if (limited) {
+			logger.setWaterMarks(lowWaterMark, highWaterMark);
+		} else {
+			logger.setWaterMarks(-1, -1);
 		}
 		
 	}
 	
 	/**
-	 * Returns the shared instance
-	 *
-	 * @return the shared instance
+	 * Send a file to the MCU in the background
+	 * 
+	 * @param logger The logger of the device to send to
+	 * @param file The file to send
 	 */
-	public static USBaspConsoleActivator getDefault() {
+	public void sendFile(final ConsoleLogger logger, final File file) {
 		
-		return plugin;
+		new SendFileJob(file, logger.getWriter()).schedule();
 		
 	}
-
+	
 	/**
-	 * Returns an image descriptor for the image file at the given plug-in
-	 * relative path
-	 *
-	 * @param path
-	 *            the path
-	 * @return the image descriptor
+	 * Called once the display mode of the console changes
 	 */
-	public static ImageDescriptor getImageDescriptor(String path) {
+	public void displayModePreferencesChanged(final ConsoleLogger.DisplayMode displayMode) {
 		
-		return imageDescriptorFromPlugin(PLUGIN_ID, path);
+		for (final ConsoleLogger logger : getLoggers()) {
+			logger.setDisplayMode(displayMode);
+		}
 		
 	}
-
+	
 	/**
-	 * Set the baud rate used for communication
+	 * Called once the frame decoder preferences change
+	 * 
+	 * @param decoderId The id of the decoder contributed or an empty string
+	 *            for none
+	 * @param crcEnabled Whether each frame ends with a CRC-16
 	 */
-	public void setBaudRate(final int baudRate) {
+	public void framePreferencesChanged(final String decoderId, final boolean crcEnabled) {
 		
-		short param1 = (short) baudRate;
-		short param2 = (short) (baudRate >> 16);
+		// decoders keep state, so every device needs one of its own
+		for (final ConsoleLogger logger : getLoggers()) {
+			logger.setFrameDecoder(buildFrameDecoder(decoderId, crcEnabled));
+		}
 		
-		final ByteBuffer dataBuf = ByteBuffer.allocateDirect(100);
-
-		//((short) baudBuf[1]) << 8 | baudBuf[0]),
-		//((short) baudBuf[3]) << 8 | baudBuf[2]),
-
-		final int result = LibUsb.controlTransfer(
-				usbaspDeviceHandle,
-				(byte) (LibUsb.REQUEST_TYPE_VENDOR | LibUsb.RECIPIENT_DEVICE | LibUsb.ENDPOINT_IN),
-				USBASP_FUNC_UART_SETBAUDRATE,
-				param1,
-				param2,
-				dataBuf,
-				5000);
+	}
+	
+	/**
+	 * @return A new frame decoder or null for none
+	 */
+	private static FrameDecoder buildFrameDecoder(final String decoderId, final boolean crcEnabled) {
 		
-		if (result < 0) {
-			throw new RuntimeException(LibUsb.strError(result));
+		final FrameDecoder frameDecoder = FrameDecoderRegistry.createDecoder(decoderId);
+		if (frameDecoder != null) {
+			frameDecoder.setCrcEnabled(crcEnabled);
 		}
 		
+		return frameDecoder;
+		
 	}
-
+	
 	/**
-	 * Run a simple USBasp+ command
+	 * Called once the charset of the console changes
 	 * 
-	 * @param cmd The command
-	 * @return The result
+	 * @param charsetName The charset's name or CONSOLE_CHARSET_RAW
 	 */
-	private Integer simpleCmd(byte cmd) {
+	public void charsetPreferencesChanged(final String charsetName) {
 		
-		final ByteBuffer dataBuf = ByteBuffer.allocateDirect(4);
+		for (final ConsoleLogger logger : getLoggers()) {
+			logger.setCharset(charsetName);
+		}
 		
-		final int bytesRead = LibUsb.controlTransfer(
-				usbaspDeviceHandle,
-				(byte) (LibUsb.REQUEST_TYPE_VENDOR | LibUsb.RECIPIENT_DEVICE | LibUsb.ENDPOINT_IN),
-				cmd,
-				(short) cmd,
-				(short) 0,
-				dataBuf,
-				5000);
+	}
+	
+	/**
+	 * Called once the capture preferences change
+	 * 
+	 * @param segmentSize The size of each capture file in MB
+	 */
+	public void capturePreferencesChanged(final boolean enabled,
+			final String directory, final int segmentSize) {
 		
-		if (bytesRead < 0) {
-			throw new RuntimeException(LibUsb.strError(bytesRead));
+		for (final USBaspDeviceRegistry.Entry entry : registry.getEntries()) {
+			applyCapturePreferences(entry.getLogger(), entry.getDevice().getPath(),
+					enabled, directory, segmentSize);
 		}
 		
-		if (bytesRead == 0) {
-			return null;
-		}
+	}
+	
+	/**
+	 * Called once the bridge preferences change
+	 */
+	public void bridgePreferencesChanged(final boolean enabled,
+			final UartBridge.SlowClientPolicy policy, final int clientBufferSize) {
 		
-		return (int) dataBuf.get(0);
+		for (final USBaspDeviceRegistry.Entry entry : registry.getEntries()) {
+			applyBridgePreferences(entry.getLogger(), entry.getDevice().getPath(),
+					enabled, policy, clientBufferSize);
+		}
+		if (simulatedLogger != null) {
+			applyBridgePreferences(simulatedLogger, SIMULATOR_PATH,
+					enabled, policy, clientBufferSize);
+		}
 		
 	}
 	
 	/**
-	 * Run test-command which forces the device to blink
+	 * Start or stop the bridge of a device, a failure to bind the endpoint
+	 * is logged only
 	 */
-	public int testCmd1() {
-
-		return simpleCmd(USBASP_FUNC_TEST_CMD1);
-				
+	private void applyBridgePreferences(final ConsoleLogger logger, final String path,
+			final boolean enabled, final UartBridge.SlowClientPolicy policy,
+			final int clientBufferSize) {
+		
+		if (!enabled) {
+			logger.stopBridge();
+			return;
+		}
+		
+		final String endpoint = getBridgeEndpointByPreferences(path);
+		try {
+			logger.startBridge(endpoint, policy, clientBufferSize);
+		} catch (Exception e) {
+			getLog().log(new Status(Status.WARNING, PLUGIN_ID,
+					"Could not start USBasp+ bridge of " + path + " at '" + endpoint
+					+ "', if several devices are plugged in set '"
+					+ getBridgeEndpointProperty(path) + "' for each", e));
+		}
+		
 	}
 	
-	public int testCmd2() {
-
-		return simpleCmd(USBASP_FUNC_TEST_CMD2);
-				
+	/**
+	 * Each device captures to a sub-directory named by its bus/port path
+	 */
+	private static void applyCapturePreferences(final ConsoleLogger logger, final String path,
+			final boolean enabled, final String directory, final int segmentSize) {
+		
+		if (enabled) {
+			logger.startCapture(new File(directory, path.replace(':', '_')),
+					segmentSize * 1024 * 1024);
+		} else {
+			logger.stopCapture();
+		}
+		
 	}
-
-	public int testCmd3() {
-
-		return simpleCmd(USBASP_FUNC_TEST_CMD3);
-				
+	
+	/**
+	 * Called once the polling preferences change
+	 */
+	public void pollingPreferencesChanged(final int minPollInterval, final int maxPollInterval) {
+		
+		for (final ConsoleLogger logger : getLoggers()) {
+			logger.setPollingIntervals(minPollInterval, maxPollInterval);
+		}
+		
 	}
-
+	
 	/**
-	 * Retrieve the number of bytes available (received from connected MCU) 
-	 * which are ready to retrieve
+	 * @param console A console
+	 * @return The logger showing the given console or null if it is not a
+	 *         USBasp+ console
 	 */
-	public int getNumberOfBytesAvailable() {
+	public ConsoleLogger getLogger(final IConsole console) {
 		
-		return simpleCmd(USBASP_FUNC_UART_GETBYTECOUNT);
+		final ConsoleLogger simulatedLogger = this.simulatedLogger;
+		if ((simulatedLogger != null) && (simulatedLogger.getConsole() == console)) {
+			return simulatedLogger;
+		}
+		
+		final USBaspDeviceRegistry.Entry entry = registry.getByConsole(console);
+		
+		return entry == null ? null : entry.getLogger();
 		
 	}
 	
 	/**
-	 * Retrieve one byte (previously received from connected MCU)
+	 * @return The loggers of all devices, including a simulated one
 	 */
-	public Character getByte() {
+	private Collection<ConsoleLogger> getLoggers() {
 		
-		final Integer byteRead = simpleCmd(USBASP_FUNC_UART_GETBYTE);
+		final Collection<ConsoleLogger> loggers = registry.getLoggers();
 		
-		if (byteRead == null) {
-			return null;
+		final ConsoleLogger simulatedLogger = this.simulatedLogger;
+		if (simulatedLogger != null) {
+			loggers.add(simulatedLogger);
 		}
 		
-		return new Character((char) byteRead.intValue());
+		return loggers;
 		
 	}
 	
 	/**
-	 * Get all bytes available as a string
+	 * @param logger The logger of a device
+	 * @return The bus/port path of the device or null if unknown
 	 */
-	public String getString() {
+	public String getPath(final ConsoleLogger logger) {
 		
-		int numberOfBytesAvailable = getNumberOfBytesAvailable();
-		if (numberOfBytesAvailable == 0) {
-			return null;
+		if ((logger != null) && (logger == simulatedLogger)) {
+			return SIMULATOR_PATH;
 		}
 		
-		final StringBuffer result = new StringBuffer(numberOfBytesAvailable);
-		
-		while (numberOfBytesAvailable > 0) {
-			
-			final Character charRead = getByte();
-			if (charRead == null) {
-				
-				numberOfBytesAvailable = 0; // avoid further access
-				
-			} else {
-				
-				result.append(charRead);
-				--numberOfBytesAvailable;
-				
+		for (final USBaspDeviceRegistry.Entry entry : registry.getEntries()) {
+			if (entry.getLogger() == logger) {
+				return entry.getDevice().getPath();
 			}
-			
 		}
 		
-		return result.toString();
+		return null;
 		
 	}
 	
 	/**
-	 * Brings the console to foreground
+	 * Run the test command on every device connected
+	 * 
+	 * @return The number of devices tested
 	 */
-	public static void bringConsoleToForeground() {
-		
-		final ConsolePlugin consolePlugin = ConsolePlugin.getDefault();
-		final IConsoleManager consoleManager = consolePlugin.getConsoleManager();
+	public int testDevices() {
 		
-		// find the USBasp+ console and show it
-		for (final IConsole console : consoleManager.getConsoles()) {
-			
-			if (console.getName().equals(ConsoleLogger.CONSOLE_NAME)) {
-				consoleManager.showConsoleView(console);
-				break;
+		int numberOfDevices = 0;
+		for (final USBaspDeviceRegistry.Entry entry : registry.getEntries()) {
+			if (entry.getDevice().isOpen()) {
+				entry.getDevice().testCmd1();
+				++numberOfDevices;
 			}
-			
 		}
 		
+		if (numberOfDevices == 0) {
+			throw new IllegalStateException("No USBasp device connected");
+		}
+		
+		return numberOfDevices;
+		
+	}
+	
+	/**
+	 * Returns the shared instance
+	 *
+	 * @return the shared instance
+	 */
+	public static USBaspConsoleActivator getDefault() {
+		
+		return plugin;
+		
+	}
+
+	/**
+	 * Returns an image descriptor for the image file at the given plug-in
+	 * relative path
+	 *
+	 * @param path
+	 *            the path
+	 * @return the image descriptor
+	 */
+	public static ImageDescriptor getImageDescriptor(String path) {
+		
+		return imageDescriptorFromPlugin(PLUGIN_ID, path);
+		
 	}
 
+	/**
+	 * Called once the preferences changes
+	 */
+	public void writePreferencesChanged(final boolean packedWrites) {
+		
+		for (final USBaspDeviceRegistry.Entry entry : registry.getEntries()) {
+			entry.getDevice().setPackedWrites(packedWrites);
+		}
+		
+	}
+	
 	/**
 	 * Brings the console to foreground
 	 */
-	public static void warnOfContentChange() {
+	public static void bringConsoleToForeground() {
 		
-		final ConsolePlugin consolePlugin = ConsolePlugin.getDefault();
-		final IConsoleManager consoleManager = consolePlugin.getConsoleManager();
+		final USBaspConsoleActivator plugin = USBaspConsoleActivator.plugin;
+		if (plugin == null) {
+			return;
+		}
 		
-		// find the USBasp+ console and show it
-		for (final IConsole console : consoleManager.getConsoles()) {
-			
-			if (console.getName().equals(ConsoleLogger.CONSOLE_NAME)) {
-				consoleManager.warnOfContentChange(console);
+		// the console of the first device connected or seen at all
+		IOConsole console = null;
+		final List<USBaspDeviceRegistry.Entry> entries = plugin.registry.getEntries();
+		for (final USBaspDeviceRegistry.Entry entry : entries) {
+			if ((console == null) || entry.getDevice().isOpen()) {
+				console = entry.getLogger().getConsole();
+			}
+			if (entry.getDevice().isOpen()) {
 				break;
 			}
-			
 		}
+		if (console == null) {
+			return;
+		}
+		
+		final ConsolePlugin consolePlugin = ConsolePlugin.getDefault();
+		consolePlugin.getConsoleManager().showConsoleView(console);
 		
 	}
 	
@@ -0,0 +1,143 @@
+package com.raspelikan.usbaspconsole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.ui.console.IConsole;
+
+/**
+ * The USBasp+ devices seen so far keyed by the bus/port path they are
+ * plugged in at. Each device has its own ConsoleLogger and so its own
+ * console, reader and writer. Entries are kept if a device is
+ * unplugged, so the console and its settings are reused once a device is
+ * plugged in at the same port again.
+ * 
+ * @author RasPelikan
+ */
+public class USBaspDeviceRegistry {
+	
+	/**
+	 * A device and the logger showing its bytes
+	 */
+	public static class Entry {
+		
+		private final USBaspUsbDevice device;
+		private final ConsoleLogger logger;
+		
+		Entry(final USBaspUsbDevice device, final ConsoleLogger logger) {
+			
+			this.device = device;
+			this.logger = logger;
+			
+		}
+		
+		public USBaspUsbDevice getDevice() {
+			
+			return device;
+			
+		}
+		
+		public ConsoleLogger getLogger() {
+			
+			return logger;
+			
+		}
+		
+	}
+	
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	/**
+	 * @param path The bus/port path
+	 * @return The entry of the device plugged in at the path or null if
+	 *         there never was one
+	 */
+	public Entry get(final String path) {
+		
+		return entries.get(path);
+		
+	}
+	
+	/**
+	 * Add the entry of a device seen for the first time
+	 * 
+	 * @return The entry added
+	 */
+	public Entry add(final USBaspUsbDevice device, final ConsoleLogger logger) {
+		
+		final Entry entry = new Entry(device, logger);
+		entries.put(device.getPath(), entry);
+		
+		return entry;
+		
+	}
+	
+	/**
+	 * @param console A console
+	 * @return The entry whose logger shows the given console or null
+	 */
+	public Entry getByConsole(final IConsole console) {
+		
+		for (final Entry entry : entries.values()) {
+			if (entry.logger.getConsole() == console) {
+				return entry;
+			}
+		}
+		
+		return null;
+		
+	}
+	
+	/**
+	 * @return All entries, sorted by path
+	 */
+	public List<Entry> getEntries() {
+		
+		final List<String> paths = new ArrayList<String>(entries.keySet());
+		Collections.sort(paths);
+		
+		final List<Entry> result = new ArrayList<Entry>(paths.size());
+		for (final String path : paths) {
+			final Entry entry = entries.get(path);
+			if (entry != null) {
+				result.add(entry);
+			}
+		}
+		
+		return result;
+		
+	}
+	
+	/**
+	 * @return The loggers of all devices
+	 */
+	public Collection<ConsoleLogger> getLoggers() {
+		
+		final List<ConsoleLogger> loggers = new ArrayList<ConsoleLogger>(entries.size());
+		for (final Entry entry : entries.values()) {
+			loggers.add(entry.logger);
+		}
+		
+		return loggers;
+		
+	}
+	
+	/**
+	 * Forget all devices
+	 * 
+	 * @return The entries removed
+	 */
+	public List<Entry> clear() {
+		
+		final List<Entry> result = getEntries();
+		entries.clear();
+		
+		return result;
+		
+	}
+	
+}
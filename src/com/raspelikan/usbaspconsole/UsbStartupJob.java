@@ -0,0 +1,65 @@
+package com.raspelikan.usbaspconsole;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Starts the USB services in the background. Initializing libusb
+ * extracts and loads the native library and opening the devices
+ * connected needs several USB transfers, so this is kept off the
+ * bundle activation which blocks the startup of Eclipse.
+ * 
+ * @author RasPelikan
+ */
+public class UsbStartupJob extends Job {
+	
+	private final USBaspConsoleActivator plugin;
+	private final long activationTime;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param plugin The plugin whose USB services are started
+	 * @param activationTime The time the plugin was activated (System.nanoTime())
+	 */
+	public UsbStartupJob(final USBaspConsoleActivator plugin, final long activationTime) {
+		
+		super("Starting USBasp+ console");
+		setSystem(true);
+		
+		this.plugin = plugin;
+		this.activationTime = activationTime;
+		
+	}
+	
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		
+		if (monitor.isCanceled()) {
+			return Status.CANCEL_STATUS;
+		}
+		
+		final long startTime = System.nanoTime();
+		try {
+			
+			plugin.startUsb();
+			
+		} catch (Exception e) {
+			
+			return new Status(Status.ERROR, USBaspConsoleActivator.PLUGIN_ID,
+					"Could not start usb service", e);
+			
+		}
+		
+		final long now = System.nanoTime();
+		plugin.getLog().log(new Status(Status.INFO, USBaspConsoleActivator.PLUGIN_ID,
+				"USBasp+ started usb service in " + (now - startTime) / 1000000
+				+ " ms, " + (now - activationTime) / 1000000 + " ms after activation"));
+		
+		return Status.OK_STATUS;
+		
+	}
+	
+}